@@ -21,6 +21,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.cache.ObjectSizeWeigher;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 
@@ -44,6 +46,38 @@ public @interface CacheNamespace {
   
   boolean blocking() default false;
 
+  /**
+   * Evict only the entries that depend on the tables a statement writes instead of the whole cache.
+   */
+  boolean tableTracking() default false;
+
+  /**
+   * Bounds the cache by the estimated bytes its entries retain, e.g. {@code "64m"}. Empty means not bounded.
+   */
+  String maxBytes() default "";
+
+  Class<? extends Weigher> weigher() default ObjectSizeWeigher.class;
+
+  /**
+   * Milliseconds an entry lives after it was put, 0 for no limit.
+   */
+  long expireAfterWrite() default 0;
+
+  /**
+   * Milliseconds an entry lives after it was last read, 0 for no limit.
+   */
+  long expireAfterAccess() default 0;
+
+  /**
+   * Milliseconds after which a read of an entry reloads it in the background, 0 for never.
+   */
+  long refreshAfterWrite() default 0;
+
+  /**
+   * Milliseconds past refreshAfterWrite an entry may still be returned while it is reloaded, -1 for refreshAfterWrite.
+   */
+  long maxStaleness() default -1;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
@@ -21,6 +21,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
 
@@ -63,4 +64,9 @@ public @interface Options {
   String keyColumn() default "";
   
   String resultSets() default "";
+
+  /**
+   * How concurrent executions of the select with the same parameters, from any session, share a single query.
+   */
+  CoalesceMode coalesce() default CoalesceMode.NONE;
 }
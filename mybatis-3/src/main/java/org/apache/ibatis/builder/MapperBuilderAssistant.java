@@ -16,6 +16,7 @@
 package org.apache.ibatis.builder;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
@@ -108,16 +109,53 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
-    Cache cache = new CacheBuilder(currentNamespace)
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, false, null, null, null, null, false, null, null, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      boolean tableTracking,
+      Long maxBytes,
+      Class<? extends Weigher> weigherClass,
+      Long expireAfterWrite,
+      Long expireAfterAccess,
+      boolean statementExpiry,
+      Long refreshAfterWrite,
+      Long maxStaleness,
+      Properties props) {
+    CacheBuilder cacheBuilder = new CacheBuilder(currentNamespace)
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
         .addDecorator(valueOrDefault(evictionClass, LruCache.class))
         .clearInterval(flushInterval)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
-        .properties(props)
-        .build();
+        .tableTracking(tableTracking)
+        .maxBytes(maxBytes)
+        .weigher(weigherClass)
+        .expireAfterWrite(expireAfterWrite)
+        .expireAfterAccess(expireAfterAccess)
+        .statementExpiry(statementExpiry)
+        .refreshAfterWrite(refreshAfterWrite)
+        .maxStaleness(maxStaleness)
+        .properties(props);
+    Cache cache = cacheBuilder.build();
     configuration.addCache(cache);
+    configuration.addCacheMetrics(cacheBuilder.getMetrics());
+    configuration.addSnapshotCache(cache, cacheBuilder.getSnapshotView(), cacheBuilder.getBaseCache());
+    if (cacheBuilder.getWeightedCache() != null) {
+      configuration.addWeightedCache(cacheBuilder.getWeightedCache());
+    }
+    if (cacheBuilder.getExpiringCache() != null) {
+      configuration.addExpiringCache(cacheBuilder.getExpiringCache());
+    }
+    if (cacheBuilder.getRefreshAheadCache() != null) {
+      configuration.addRefreshAheadCache(cacheBuilder.getRefreshAheadCache());
+    }
     currentCache = cache;
     return cache;
   }
@@ -251,6 +289,36 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,
       LanguageDriver lang,
       String resultSets) {
+    return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap,
+        parameterType, resultMap, resultType, resultSetType, flushCache, useCache, resultOrdered, keyGenerator,
+        keyProperty, keyColumn, databaseId, lang, resultSets, null, null, null, null);
+  }
+
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables,
+      Long expireAfterWrite,
+      Long expireAfterAccess,
+      CoalesceMode coalesceMode) {
 
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -258,6 +326,11 @@ public class MapperBuilderAssistant extends BaseBuilder {
 
     id = applyCurrentNamespace(id, false);
     boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
+    if ((expireAfterWrite != null || expireAfterAccess != null)
+        && (currentCache == null || !configuration.hasExpiringCache(currentCache.getId()))) {
+      throw new BuilderException("Statement '" + id + "' sets an expiry but the cache of namespace '" + currentNamespace
+          + "' does not expire its entries.");
+    }
 
     MappedStatement.Builder statementBuilder = new MappedStatement.Builder(configuration, id, sqlSource, sqlCommandType)
         .resource(resource)
@@ -271,6 +344,10 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .lang(lang)
         .resultOrdered(resultOrdered)
         .resultSets(resultSets)
+        .tables(tables)
+        .expireAfterWrite(expireAfterWrite)
+        .expireAfterAccess(expireAfterAccess)
+        .coalesceMode(coalesceMode)
         .resultMaps(getStatementResultMaps(resultMap, resultType, id))
         .resultSetType(resultSetType)
         .flushCacheRequired(valueOrDefault(flushCache, !isSelect))
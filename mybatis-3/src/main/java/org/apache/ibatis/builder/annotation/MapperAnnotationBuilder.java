@@ -24,6 +24,7 @@ import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -142,8 +143,15 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+      Long expireAfterWrite = cacheDomain.expireAfterWrite() == 0 ? null : cacheDomain.expireAfterWrite();
+      Long expireAfterAccess = cacheDomain.expireAfterAccess() == 0 ? null : cacheDomain.expireAfterAccess();
+      Long refreshAfterWrite = cacheDomain.refreshAfterWrite() == 0 ? null : cacheDomain.refreshAfterWrite();
+      Long maxStaleness = cacheDomain.maxStaleness() < 0 ? null : cacheDomain.maxStaleness();
+      Long maxBytes = cacheDomain.maxBytes().length() == 0 ? null : WeightedCache.parseBytes(cacheDomain.maxBytes());
       Properties props = convertToProperties(cacheDomain.properties());
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(),
+          cacheDomain.blocking(), cacheDomain.tableTracking(), maxBytes, cacheDomain.weigher(), expireAfterWrite,
+          expireAfterAccess, false, refreshAfterWrite, maxStaleness, props);
     }
   }
 
@@ -256,6 +264,7 @@ public class MapperAnnotationBuilder {
       Integer timeout = null;
       StatementType statementType = StatementType.PREPARED;
       ResultSetType resultSetType = ResultSetType.FORWARD_ONLY;
+      CoalesceMode coalesceMode = CoalesceMode.NONE;
       SqlCommandType sqlCommandType = getSqlCommandType(method);
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
@@ -292,6 +301,7 @@ public class MapperAnnotationBuilder {
         timeout = options.timeout() > -1 ? options.timeout() : null;
         statementType = options.statementType();
         resultSetType = options.resultSetType();
+        coalesceMode = options.coalesce();
       }
 
       String resultMapId = null;
@@ -334,7 +344,10 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          // Tables, expireAfterWrite, expireAfterAccess
+          null, null, null,
+          coalesceMode);
     }
   }
   
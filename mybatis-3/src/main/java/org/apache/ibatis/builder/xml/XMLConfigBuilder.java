@@ -17,6 +17,7 @@ package org.apache.ibatis.builder.xml;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -255,6 +256,14 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
     configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+    configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), null));
+    String localCacheMaxBytes = props.getProperty("localCacheMaxBytes");
+    configuration.setLocalCacheMaxBytes(localCacheMaxBytes == null ? null : WeightedCache.parseBytes(localCacheMaxBytes));
+    configuration.setCacheKeyComponentLimit(integerValueOf(props.getProperty("cacheKeyComponentLimit"), null));
+    configuration.setCacheMBeansEnabled(booleanValueOf(props.getProperty("cacheMBeansEnabled"), false));
+    configuration.setCacheMBeansName(props.getProperty("cacheMBeansName"));
+    configuration.setCacheSnapshotFile(props.getProperty("cacheSnapshotFile"));
+    configuration.setCacheSnapshotCaches(stringSetValueOf(props.getProperty("cacheSnapshotCaches"), ""));
     configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
     configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
     configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
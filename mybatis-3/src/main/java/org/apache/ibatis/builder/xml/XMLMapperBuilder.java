@@ -17,6 +17,8 @@ package org.apache.ibatis.builder.xml;
 
 import org.apache.ibatis.builder.*;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.*;
@@ -101,8 +103,8 @@ import java.util.*;
       builderAssistant.setCurrentNamespace(namespace);
       // 解析<cache-ref>标签
       cacheRefElement(context.evalNode("cache-ref"));
-      // 解析<cache>标签
-      cacheElement(context.evalNode("cache"));
+      // 解析<cache>标签，语句自己设置过期时间时缓存也需要支持过期
+      cacheElement(context.evalNode("cache"), hasStatementExpiry(context.evalNodes("select|insert|update|delete")));
       // 解析所有的<parameterMap>标签
       parameterMapElement(context.evalNodes("/mapper/parameterMap"));
       // 解析所有的<resultMap>标签
@@ -193,7 +195,16 @@ import java.util.*;
     }
   }
 
-  private void cacheElement(XNode context) throws Exception {
+  private boolean hasStatementExpiry(List<XNode> list) {
+    for (XNode context : list) {
+      if (context.getStringAttribute("expireAfterWrite") != null || context.getStringAttribute("expireAfterAccess") != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void cacheElement(XNode context, boolean statementExpiry) throws Exception {
     if (context != null) {
       String type = context.getStringAttribute("type", "PERPETUAL");
       Class<? extends Cache> typeClass = typeAliasRegistry.resolveAlias(type);
@@ -203,8 +214,17 @@ import java.util.*;
       Integer size = context.getIntAttribute("size");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      boolean tableTracking = context.getBooleanAttribute("tableTracking", false);
+      String maxBytes = context.getStringAttribute("maxBytes");
+      Class<? extends Weigher> weigherClass = resolveClass(context.getStringAttribute("weigher"));
+      Long expireAfterWrite = context.getLongAttribute("expireAfterWrite");
+      Long expireAfterAccess = context.getLongAttribute("expireAfterAccess");
+      Long refreshAfterWrite = context.getLongAttribute("refreshAfterWrite");
+      Long maxStaleness = context.getLongAttribute("maxStaleness");
       Properties props = context.getChildrenAsProperties();
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, tableTracking,
+          maxBytes == null ? null : WeightedCache.parseBytes(maxBytes), weigherClass, expireAfterWrite, expireAfterAccess,
+          statementExpiry, refreshAfterWrite, maxStaleness, props);
     }
   }
 
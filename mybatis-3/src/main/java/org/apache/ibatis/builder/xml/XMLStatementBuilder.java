@@ -92,6 +92,10 @@ public class XMLStatementBuilder extends BaseBuilder {
     // 通过LanguageDriver解析SQL内容，生成SqlSource对象
     SqlSource sqlSource = langDriver.createSqlSource(configuration, context, parameterTypeClass);
     String resultSets = context.getStringAttribute("resultSets");
+    String tables = context.getStringAttribute("tables");
+    Long expireAfterWrite = context.getLongAttribute("expireAfterWrite");
+    Long expireAfterAccess = context.getLongAttribute("expireAfterAccess");
+    CoalesceMode coalesceMode = CoalesceMode.valueOf(context.getStringAttribute("coalesce", CoalesceMode.NONE.toString()));
     String keyProperty = context.getStringAttribute("keyProperty");
     String keyColumn = context.getStringAttribute("keyColumn");
     KeyGenerator keyGenerator;
@@ -109,7 +113,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, tables,
+        expireAfterWrite, expireAfterAccess, coalesceMode);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
@@ -15,6 +15,9 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
@@ -74,6 +77,48 @@ public interface Cache {
    */
   Object removeObject(Object key);
 
+  /**
+   * Optional. Remote caches should override the bulk methods to serve all the keys in a single round trip,
+   * and decorators to pass the bulk calls on to the cache they decorate.
+   *
+   * @param keys the keys to look up
+   * @return the values found, by key; the keys that were missed are absent
+   */
+  default Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Optional. Same as calling {@link #putObject(Object, Object)} for every entry, null values included.
+   * As of 3.5.0 this method is called on commit with all the entries of the transaction.
+   *
+   * @param entries the results of selects by key
+   */
+  default void putObjects(Map<?, ?> entries) {
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Optional. Same as calling {@link #removeObject(Object)} for every key.
+   * As of 3.5.0 this method is called on rollback instead of {@link #removeObject(Object)}.
+   *
+   * @param keys the keys
+   */
+  default void removeObjects(Collection<?> keys) {
+    for (Object key : keys) {
+      removeObject(key);
+    }
+  }
+
   /**
    * Clears this cache instance
    */  
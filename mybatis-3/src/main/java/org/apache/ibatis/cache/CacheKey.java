@@ -15,13 +15,38 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import org.apache.ibatis.reflection.ArrayUtil;
 
 /**
+ * A key made of the components passed to {@link #update(Object)}.
+ * <p>
+ * By default every component is kept and compared in {@link #equals(Object)}. A compact key (see
+ * {@link #CacheKey(int, int)}) also folds the typed content of each component into a SHA-256 fingerprint
+ * and only keeps the first {@code componentLimit} components. Components whose content cannot be
+ * fingerprinted (anything but strings, numbers, dates, booleans, characters, enums and arrays of those)
+ * are always kept, so two compact keys are only equal when their fingerprints and kept components are.
+ * The fingerprint is a cryptographic digest so that parameters cannot be crafted to collide with the key
+ * of another query.
+ * <p>
+ * Keys are serialized in the same form as before compact keys existed, so keys written by older versions
+ * can still be read.
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
@@ -32,28 +57,89 @@ public class CacheKey implements Cloneable, Serializable {
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final int UNLIMITED = -1;
+
+  private static final byte[] NO_FINGERPRINT = new byte[0];
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("multiplier", int.class),
+      new ObjectStreamField("hashcode", int.class),
+      new ObjectStreamField("checksum", long.class),
+      new ObjectStreamField("count", int.class),
+      new ObjectStreamField("updateList", List.class),
+      new ObjectStreamField("componentLimit", int.class),
+      new ObjectStreamField("fingerprint", byte[].class)
+  };
 
-  private final int multiplier;
+  private int multiplier;
   private int hashcode;
   private long checksum;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient.  While true if content is not serializable, this is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  private Object[] updateList;
+  private int updateListSize;
+  // true while the update list is shared with a clone, it is copied before the next update
+  private transient boolean shared;
+
+  private int componentLimit;
+  // the content of the components folded so far, null until a compact key receives a component
+  private transient MessageDigest digest;
+  // computed from the digest when the key is compared, null if the key was updated since
+  private transient volatile byte[] fingerprint;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
-    this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this(DEFAULT_CAPACITY);
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
+  /**
+   * @param expectedUpdateCount the number of components this key is expected to receive
+   */
+  public CacheKey(int expectedUpdateCount) {
+    this(expectedUpdateCount, UNLIMITED);
+  }
+
+  /**
+   * Creates a compact key.
+   *
+   * @param expectedUpdateCount the number of components this key is expected to receive
+   * @param componentLimit how many components to keep besides the fingerprint, 0 keeps only those that cannot
+   *          be fingerprinted
+   */
+  public CacheKey(int expectedUpdateCount, int componentLimit) {
+    this.hashcode = DEFAULT_HASHCODE;
+    this.multiplier = DEFAULT_MULTIPLYER;
+    this.count = 0;
+    this.componentLimit = componentLimit;
+    int capacity = componentLimit == UNLIMITED ? expectedUpdateCount : Math.min(expectedUpdateCount, componentLimit);
+    this.updateList = new Object[Math.max(capacity, 1)];
+  }
+
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
+  }
+
+  public boolean isCompact() {
+    return componentLimit != UNLIMITED;
+  }
+
+  /**
+   * @return the components kept by this key in update order, all of them unless the key is compact
+   */
+  public List<Object> getComponents() {
+    return Collections.unmodifiableList(Arrays.asList(updateList).subList(0, updateListSize));
+  }
+
+  /**
+   * @return the SHA-256 fingerprint of a compact key, empty if the key is not compact or has no component
+   */
+  public byte[] getFingerprint() {
+    return fingerprint().clone();
   }
 
   public void update(Object object) {
@@ -65,7 +151,14 @@ public class CacheKey implements Cloneable, Serializable {
 
     hashcode = multiplier * hashcode + baseHashCode;
 
-    updateList.add(object);
+    if (componentLimit == UNLIMITED) {
+      addComponent(object);
+    } else {
+      startFingerprint();
+      if (!fingerprint(object) || updateListSize < componentLimit) {
+        addComponent(object);
+      }
+    }
   }
 
   public void updateAll(Object[] objects) {
@@ -94,10 +187,16 @@ public class CacheKey implements Cloneable, Serializable {
     if (count != cacheKey.count) {
       return false;
     }
+    if (!Arrays.equals(fingerprint(), cacheKey.fingerprint())) {
+      return false;
+    }
+    if (updateListSize != cacheKey.updateListSize) {
+      return false;
+    }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < updateListSize; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
       if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
@@ -113,17 +212,222 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public String toString() {
     StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(ArrayUtil.toString(object));
+    if (isCompact()) {
+      returnValue.append(':');
+      for (byte b : fingerprint()) {
+        returnValue.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+    }
+    for (int i = 0; i < updateListSize; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(updateList[i]));
     }
     return returnValue.toString();
   }
 
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
-    CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
-    return clonedCacheKey;
+    // the update list is copied lazily by whichever key is updated first
+    shared = true;
+    CacheKey clone = (CacheKey) super.clone();
+    if (digest != null) {
+      clone.digest = (MessageDigest) digest.clone();
+    }
+    return clone;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("multiplier", multiplier);
+    fields.put("hashcode", hashcode);
+    fields.put("checksum", checksum);
+    fields.put("count", count);
+    fields.put("updateList", new ArrayList<Object>(getComponents()));
+    fields.put("componentLimit", componentLimit);
+    fields.put("fingerprint", isCompact() ? fingerprint() : null);
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    multiplier = fields.get("multiplier", DEFAULT_MULTIPLYER);
+    hashcode = fields.get("hashcode", DEFAULT_HASHCODE);
+    checksum = fields.get("checksum", 0L);
+    count = fields.get("count", 0);
+    List<?> components = (List<?>) fields.get("updateList", null);
+    updateListSize = components == null ? 0 : components.size();
+    updateList = new Object[Math.max(updateListSize, 1)];
+    for (int i = 0; i < updateListSize; i++) {
+      updateList[i] = components.get(i);
+    }
+    // keys written before compact keys existed have neither
+    componentLimit = fields.get("componentLimit", UNLIMITED);
+    fingerprint = (byte[]) fields.get("fingerprint", null);
+  }
+
+  private void addComponent(Object object) {
+    if (shared || updateListSize == updateList.length) {
+      int capacity = updateListSize == updateList.length ? updateList.length * 2 : updateList.length;
+      updateList = Arrays.copyOf(updateList, capacity);
+      shared = false;
+    }
+    updateList[updateListSize++] = object;
+  }
+
+  /**
+   * Folds the content of the object into the fingerprint.
+   *
+   * @return false if the content of the object could not be fingerprinted and the object must be kept to compare keys
+   */
+  private boolean fingerprint(Object object) {
+    if (object == null) {
+      mix(0);
+      return true;
+    }
+    if (object instanceof String) {
+      mix(1);
+      mixChars((String) object);
+      return true;
+    }
+    if (object instanceof Integer || object instanceof Long || object instanceof Short || object instanceof Byte) {
+      // equals() of boxed numbers is type sensitive, so is the fingerprint
+      mix(object instanceof Integer ? 2 : object instanceof Long ? 3 : object instanceof Short ? 4 : 5);
+      mix(((Number) object).longValue());
+      return true;
+    }
+    if (object instanceof Double || object instanceof Float) {
+      mix(object instanceof Double ? 6 : 7);
+      mix(Double.doubleToLongBits(((Number) object).doubleValue()));
+      return true;
+    }
+    if (object instanceof BigDecimal || object instanceof BigInteger) {
+      mix(object instanceof BigDecimal ? 8 : 9);
+      mixChars(object.toString());
+      return true;
+    }
+    if (object instanceof Boolean) {
+      mix(((Boolean) object) ? 10 : 11);
+      return true;
+    }
+    if (object instanceof Character) {
+      mix(12);
+      mix((Character) object);
+      return true;
+    }
+    if (object instanceof Timestamp) {
+      mix(13);
+      mix(((Timestamp) object).getTime());
+      mix(((Timestamp) object).getNanos());
+      return true;
+    }
+    if (object.getClass() == Date.class || object.getClass() == java.sql.Date.class
+        || object.getClass() == java.sql.Time.class) {
+      mix(14);
+      mixChars(object.getClass().getName());
+      mix(((Date) object).getTime());
+      return true;
+    }
+    if (object instanceof Enum) {
+      mix(15);
+      mixChars(((Enum<?>) object).getDeclaringClass().getName());
+      mix(((Enum<?>) object).ordinal());
+      return true;
+    }
+    if (object.getClass().isArray()) {
+      return fingerprintArray(object);
+    }
+    mix(ArrayUtil.hashCode(object));
+    return false;
+  }
+
+  private boolean fingerprintArray(Object array) {
+    mix(16);
+    mixChars(array.getClass().getName());
+    if (array instanceof byte[]) {
+      byte[] bytes = (byte[]) array;
+      mix(bytes.length);
+      digest.update(bytes);
+      return true;
+    }
+    if (array instanceof char[]) {
+      mixChars(new String((char[]) array));
+      return true;
+    }
+    if (array instanceof int[]) {
+      int[] ints = (int[]) array;
+      mix(ints.length);
+      for (int i : ints) {
+        mix(i);
+      }
+      return true;
+    }
+    if (array instanceof long[]) {
+      long[] longs = (long[]) array;
+      mix(longs.length);
+      for (long l : longs) {
+        mix(l);
+      }
+      return true;
+    }
+    if (array instanceof Object[]) {
+      Object[] objects = (Object[]) array;
+      mix(objects.length);
+      boolean complete = true;
+      for (Object o : objects) {
+        complete &= fingerprint(o);
+      }
+      return complete;
+    }
+    mix(ArrayUtil.hashCode(array));
+    return false;
+  }
+
+  private void mixChars(String value) {
+    int length = value.length();
+    mix(length);
+    byte[] bytes = new byte[length * 2];
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      bytes[2 * i] = (byte) (c >>> 8);
+      bytes[2 * i + 1] = (byte) c;
+    }
+    digest.update(bytes);
+  }
+
+  private void mix(long word) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      digest.update((byte) (word >>> shift));
+    }
+  }
+
+  private void startFingerprint() {
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new CacheException("Error creating the fingerprint of a cache key.  Cause: " + e, e);
+      }
+      if (fingerprint != null) {
+        // updated after it was deserialized, carries on from the fingerprint it was read with
+        digest.update(fingerprint);
+      }
+    }
+    fingerprint = null;
+  }
+
+  private byte[] fingerprint() {
+    byte[] result = fingerprint;
+    if (result == null) {
+      if (digest == null) {
+        return NO_FINGERPRINT;
+      }
+      try {
+        result = ((MessageDigest) digest.clone()).digest();
+      } catch (CloneNotSupportedException e) {
+        throw new CacheException("Error computing the fingerprint of a cache key.  Cause: " + e, e);
+      }
+      fingerprint = result;
+    }
+    return result;
   }
 
 }
@@ -0,0 +1,212 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a second level cache: requests and hits, puts, removals, clears and evictions, and how long the
+ * results that were not cached took to load.
+ * <p>
+ * The counters are updated on every cache access, so they are {@link LongAdder}s; loads are rare in
+ * comparison and are counted in a histogram of plain atomic buckets. Every cache built from a mapper
+ * has one, see {@link org.apache.ibatis.session.Configuration#getCacheMetrics(String)}.
+ */
+public class CacheMetrics implements CacheMetricsMBean, MBeanRegistration {
+
+  // upper bounds in milliseconds, the last bucket is unbounded
+  private static final long[] LOAD_TIME_BUCKET_LIMITS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+  private final Cache cache;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder removals = new LongAdder();
+  private final LongAdder clears = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final AtomicLongArray loadTimeHistogram = new AtomicLongArray(LOAD_TIME_BUCKET_LIMITS.length + 1);
+  private final LongAdder loadTimeNanos = new LongAdder();
+  private volatile ObjectName objectName;
+
+  /**
+   * @param cache the cache whose size is reported
+   */
+  public CacheMetrics(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void recordRequest(boolean hit) {
+    requests.increment();
+    if (hit) {
+      hits.increment();
+    }
+  }
+
+  public void recordPut() {
+    puts.increment();
+  }
+
+  public void recordRemoval() {
+    removals.increment();
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  public void recordEviction() {
+    evictions.increment();
+  }
+
+  /**
+   * @param nanos how long a result that was not cached took to load
+   */
+  public void recordLoad(long nanos) {
+    loadTimeNanos.add(nanos);
+    long millis = nanos / 1000000L;
+    int bucket = 0;
+    while (bucket < LOAD_TIME_BUCKET_LIMITS.length && millis >= LOAD_TIME_BUCKET_LIMITS[bucket]) {
+      bucket++;
+    }
+    loadTimeHistogram.incrementAndGet(bucket);
+  }
+
+  @Override
+  public String getId() {
+    return cache.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return cache.getSize();
+  }
+
+  @Override
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return Math.max(0, getRequests() - getHits());
+  }
+
+  @Override
+  public double getHitRatio() {
+    long total = getRequests();
+    return total == 0 ? 0 : (double) getHits() / (double) total;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getRemovals() {
+    return removals.sum();
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public long getLoads() {
+    long loads = 0;
+    for (int i = 0; i < loadTimeHistogram.length(); i++) {
+      loads += loadTimeHistogram.get(i);
+    }
+    return loads;
+  }
+
+  @Override
+  public double getAverageLoadMillis() {
+    long loads = getLoads();
+    return loads == 0 ? 0 : loadTimeNanos.sum() / 1000000.0 / loads;
+  }
+
+  @Override
+  public long[] getLoadTimeHistogram() {
+    long[] histogram = new long[loadTimeHistogram.length()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = loadTimeHistogram.get(i);
+    }
+    return histogram;
+  }
+
+  /**
+   * @return the exclusive upper bound, in milliseconds, of every bucket of the histogram but the last one
+   */
+  @Override
+  public long[] getLoadTimeBucketLimits() {
+    return LOAD_TIME_BUCKET_LIMITS.clone();
+  }
+
+  /**
+   * @return the name these metrics are registered under, null if they are not registered as an MBean
+   */
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+
+  @Override
+  public ObjectName preRegister(MBeanServer server, ObjectName name) {
+    objectName = name;
+    return name;
+  }
+
+  @Override
+  public void postRegister(Boolean registrationDone) {
+    if (!registrationDone) {
+      objectName = null;
+    }
+  }
+
+  @Override
+  public void preDeregister() {
+    // nothing to release
+  }
+
+  @Override
+  public void postDeregister() {
+    objectName = null;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheMetrics[" + getId() + ": requests=" + getRequests() + ", hits=" + getHits() + ", puts=" + getPuts()
+        + ", removals=" + getRemovals() + ", clears=" + getClears() + ", evictions=" + getEvictions() + ", loads="
+        + getLoads() + ", averageLoadMillis=" + getAverageLoadMillis() + "]";
+  }
+
+}
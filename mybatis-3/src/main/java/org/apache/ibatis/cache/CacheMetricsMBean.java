@@ -0,0 +1,55 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * JMX view of the {@link CacheMetrics} of a cache. The counts are totals since the cache was built, rates are
+ * left to the monitoring tool.
+ */
+public interface CacheMetricsMBean {
+
+  String getId();
+
+  int getSize();
+
+  long getRequests();
+
+  long getHits();
+
+  long getMisses();
+
+  double getHitRatio();
+
+  long getPuts();
+
+  long getRemovals();
+
+  long getClears();
+
+  long getEvictions();
+
+  long getLoads();
+
+  double getAverageLoadMillis();
+
+  /**
+   * @return the number of loads per bucket, see {@link CacheMetrics#getLoadTimeBucketLimits()}
+   */
+  long[] getLoadTimeHistogram();
+
+  long[] getLoadTimeBucketLimits();
+
+}
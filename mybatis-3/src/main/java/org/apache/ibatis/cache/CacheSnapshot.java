@@ -0,0 +1,361 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Saves the entries of second level caches to a file and puts them back when the next
+ * {@code SqlSessionFactory} is built, so the caches do not start cold after a restart.
+ * <p>
+ * Keys and values are serialized like {@link SerializedCache} does; entries that are not serializable are
+ * skipped. Each cache is saved with a fingerprint of the statements that use it (their result maps,
+ * result types and settable properties) and is discarded on restore if the mappings changed since.
+ * <p>
+ * The file ends with an index of the saved caches and is memory-mapped on restore, so only the sections of
+ * the caches that are still configured and unchanged are read. Note that the database may have changed
+ * while the application was down; restored entries are only evicted by the usual flushes and expirations.
+ * <p>
+ * The restore is eager: every entry of those sections is deserialized and put on the thread that builds the
+ * {@code SqlSessionFactory}, which therefore takes longer to build the bigger the snapshot. This is deliberate.
+ * The entries are put through the outermost decorator, so table tracking, eviction and size limits see them
+ * before the first session runs; an entry loaded lazily or in the background after a statement flushed the
+ * cache, or evicted the tables the entry depends on, would bring back results that statement made stale.
+ * Name only the caches worth warming in {@code cacheSnapshotCaches} to bound the startup cost.
+ * <p>
+ * Enable it with the {@code cacheSnapshotFile} and {@code cacheSnapshotCaches} settings and call
+ * {@link #save()} on shutdown, once no session is running anymore.
+ */
+public class CacheSnapshot {
+
+  private static final Log log = LogFactory.getLog(CacheSnapshot.class);
+
+  private static final int MAGIC = 0x4d424353; // MBCS
+  private static final int VERSION = 1;
+
+  private final Configuration configuration;
+  private final Map<String, Source> sources = new LinkedHashMap<String, Source>();
+  private boolean restored;
+
+  public CacheSnapshot(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * @param cache the cache entries are restored to, the one statements use
+   * @param view a thread safe decorator of the cache to read the entries from without loading them
+   * @param keys the cache that lists the keys
+   */
+  public synchronized void addCache(Cache cache, Cache view, EnumerableCache keys) {
+    sources.put(cache.getId(), new Source(cache, view, keys));
+  }
+
+  /**
+   * Writes the entries of the registered caches, replacing the previous snapshot.
+   *
+   * @return the number of entries written
+   */
+  public synchronized int save() {
+    File file = getFile();
+    File tempFile = new File(file.getPath() + ".tmp");
+    int count = 0;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        List<Section> sections = new ArrayList<Section>();
+        for (Source source : sources.values()) {
+          Section section = new Section(source.cache.getId(), fingerprint(source.cache));
+          section.offset = out.size();
+          section.entries = writeEntries(source, out);
+          section.length = out.size() - section.offset;
+          sections.add(section);
+          count += section.entries;
+        }
+        int indexOffset = out.size();
+        out.writeInt(sections.size());
+        for (Section section : sections) {
+          out.writeUTF(section.id);
+          out.writeUTF(section.fingerprint);
+          out.writeInt(section.offset);
+          out.writeInt(section.length);
+          out.writeInt(section.entries);
+        }
+        out.writeInt(indexOffset);
+        out.writeInt(MAGIC);
+        if (out.size() == Integer.MAX_VALUE) {
+          // DataOutputStream.size() saturates
+          throw new IOException("Snapshot exceeds 2GB");
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+        throw new IOException("Could not rename " + tempFile + " to " + file);
+      }
+    } catch (IOException e) {
+      tempFile.delete();
+      throw new CacheException("Error saving the cache snapshot to " + file + ".  Cause: " + e, e);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Saved " + count + " entries of " + sources.size() + " caches to " + file);
+    }
+    return count;
+  }
+
+  /**
+   * Puts the saved entries back into the registered caches whose mappings did not change, on the calling
+   * thread and before any session can use the caches. Does nothing if there is no snapshot or if it was already
+   * restored; a snapshot that cannot be read is ignored.
+   *
+   * @return the number of entries restored
+   */
+  public synchronized int restore() {
+    File file = getFile();
+    if (restored || !file.isFile()) {
+      return 0;
+    }
+    restored = true;
+    int count = 0;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+            || buffer.getInt(buffer.limit() - 4) != MAGIC) {
+          log.warn("Ignoring the cache snapshot " + file + " because it is incomplete or of another version.");
+          return 0;
+        }
+        buffer.position(buffer.getInt(buffer.limit() - 8));
+        int sectionCount = buffer.getInt();
+        for (int i = 0; i < sectionCount; i++) {
+          Section section = new Section(readUTF(buffer), readUTF(buffer));
+          section.offset = buffer.getInt();
+          section.length = buffer.getInt();
+          section.entries = buffer.getInt();
+          count += restore(section, buffer);
+        }
+      } finally {
+        raf.close();
+      }
+    } catch (Exception e) {
+      log.warn("Ignoring the cache snapshot " + file + ".  Cause: " + e);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Restored " + count + " entries from " + file);
+    }
+    return count;
+  }
+
+  private File getFile() {
+    String file = configuration.getCacheSnapshotFile();
+    if (file == null) {
+      throw new CacheException("The cacheSnapshotFile setting is not set.");
+    }
+    return new File(file);
+  }
+
+  private int writeEntries(Source source, DataOutputStream out) throws IOException {
+    Set<Object> keys;
+    // a SynchronizedCache locks on itself, so no entry is put while the keys are copied
+    synchronized (source.view) {
+      keys = source.keys.getKeys();
+    }
+    int count = 0;
+    for (Object key : keys) {
+      Object value = source.view.getObject(key);
+      if (!(key instanceof Serializable) || !(value instanceof Serializable)) {
+        continue;
+      }
+      byte[] keyBytes;
+      byte[] valueBytes;
+      try {
+        keyBytes = SerializedCache.serialize((Serializable) key);
+        valueBytes = SerializedCache.serialize((Serializable) value);
+      } catch (CacheException e) {
+        // e.g. a nested object that is not serializable
+        continue;
+      }
+      out.writeInt(keyBytes.length);
+      out.write(keyBytes);
+      out.writeInt(valueBytes.length);
+      out.write(valueBytes);
+      count++;
+    }
+    return count;
+  }
+
+  private int restore(Section section, ByteBuffer buffer) {
+    Source source = sources.get(section.id);
+    if (source == null) {
+      return 0;
+    }
+    if (!section.fingerprint.equals(fingerprint(source.cache))) {
+      log.warn("Discarding the snapshot of cache " + section.id + " because its mappings changed.");
+      return 0;
+    }
+    ByteBuffer entries = buffer.duplicate();
+    entries.position(section.offset);
+    int count = 0;
+    for (int i = 0; i < section.entries; i++) {
+      byte[] key = new byte[entries.getInt()];
+      entries.get(key);
+      byte[] value = new byte[entries.getInt()];
+      entries.get(value);
+      try {
+        source.cache.putObject(SerializedCache.deserialize(key), SerializedCache.deserialize(value));
+        count++;
+      } catch (CacheException e) {
+        // a class that is gone or not compatible anymore
+      }
+    }
+    return count;
+  }
+
+  private static String readUTF(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[buffer.getShort() & 0xffff];
+    buffer.get(bytes);
+    // written by DataOutput.writeUTF, which is plain UTF-8 for the ids of caches
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * @return a digest of what shapes the values of the cache: the statements that use it and their result maps
+   */
+  private String fingerprint(Cache cache) {
+    Map<String, MappedStatement> statements = new TreeMap<String, MappedStatement>();
+    for (String name : new ArrayList<String>(configuration.getMappedStatementNames())) {
+      // short names are aliases of the same statements, and may be ambiguous
+      if (name.indexOf('.') >= 0) {
+        MappedStatement ms = configuration.getMappedStatement(name, false);
+        if (ms.getCache() == cache) {
+          statements.put(ms.getId(), ms);
+        }
+      }
+    }
+    StringBuilder description = new StringBuilder();
+    Set<String> describedResultMaps = new HashSet<String>();
+    for (MappedStatement ms : statements.values()) {
+      description.append(ms.getId()).append('|').append(ms.getStatementType()).append('|')
+          .append(ms.getResultSetType()).append('\n');
+      for (ResultMap resultMap : ms.getResultMaps()) {
+        describe(resultMap, description, describedResultMaps);
+      }
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(description.toString().getBytes("UTF-8"))) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (Exception e) {
+      throw new CacheException("Error computing the fingerprint of cache " + cache.getId() + ".  Cause: " + e, e);
+    }
+  }
+
+  private void describe(ResultMap resultMap, StringBuilder description, Set<String> describedResultMaps) {
+    if (!describedResultMaps.add(resultMap.getId())) {
+      return;
+    }
+    Class<?> type = resultMap.getType();
+    description.append(resultMap.getId()).append('|').append(type.getName()).append('|')
+        .append(resultMap.getAutoMapping()).append('|')
+        .append(new TreeSet<String>(Arrays.asList(configuration.getReflectorFactory().findForClass(type).getSetablePropertyNames())))
+        .append('\n');
+    for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+      description.append(' ').append(resultMapping.getProperty()).append('|').append(resultMapping.getColumn())
+          .append('|').append(resultMapping.getJavaType() == null ? null : resultMapping.getJavaType().getName())
+          .append('|').append(resultMapping.getTypeHandler() == null ? null : resultMapping.getTypeHandler().getClass().getName())
+          .append('|').append(resultMapping.getNestedResultMapId()).append('|').append(resultMapping.getNestedQueryId())
+          .append('|').append(resultMapping.getFlags()).append('\n');
+    }
+    Discriminator discriminator = resultMap.getDiscriminator();
+    if (discriminator != null) {
+      description.append(" discriminator|").append(discriminator.getResultMapping().getColumn()).append('|')
+          .append(new TreeMap<String, String>(discriminator.getDiscriminatorMap())).append('\n');
+    }
+    for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+      describeNested(resultMapping.getNestedResultMapId(), description, describedResultMaps);
+    }
+    if (discriminator != null) {
+      for (String nestedResultMapId : discriminator.getDiscriminatorMap().values()) {
+        describeNested(nestedResultMapId, description, describedResultMaps);
+      }
+    }
+  }
+
+  private void describeNested(String resultMapId, StringBuilder description, Set<String> describedResultMaps) {
+    if (resultMapId != null && configuration.hasResultMap(resultMapId)) {
+      describe(configuration.getResultMap(resultMapId), description, describedResultMaps);
+    }
+  }
+
+  private static class Source {
+    private final Cache cache;
+    private final Cache view;
+    private final EnumerableCache keys;
+
+    Source(Cache cache, Cache view, EnumerableCache keys) {
+      this.cache = cache;
+      this.view = view;
+      this.keys = keys;
+    }
+  }
+
+  private static class Section {
+    private final String id;
+    private final String fingerprint;
+    private int offset;
+    private int length;
+    private int entries;
+
+    Section(String id, String fingerprint) {
+      this.id = id;
+      this.fingerprint = fingerprint;
+    }
+  }
+
+}
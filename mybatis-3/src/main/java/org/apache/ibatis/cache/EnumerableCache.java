@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Set;
+
+/**
+ * A cache that can list its keys, so that its entries can be saved by a {@link CacheSnapshot}.
+ * <p>
+ * Custom caches may implement it to be snapshotted as well.
+ */
+public interface EnumerableCache extends Cache {
+
+  /**
+   * @return a copy of the keys of the cache, that does not change when the cache does
+   */
+  Set<Object> getKeys();
+
+}
@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default {@link Weigher}.
+ * <p>
+ * Serialized values ({@code byte[]}, as stored below a {@code SerializedCache}) weigh their length. Other values
+ * are walked reflectively: strings, numbers, dates and arrays are measured, beans are measured field by field, and
+ * large collections are measured on a sample of their elements that is then extrapolated. Objects nested more than
+ * {@value #MAX_DEPTH} levels below the value (a collection and its elements are one level each) are counted as
+ * empty objects, so deeper result maps are underestimated; use a custom {@link Weigher} for those.
+ * The result is an estimate of the retained size assuming compressed references; it is meant to bound heap use,
+ * not to be exact.
+ */
+public class ObjectSizeWeigher implements Weigher {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int MAX_DEPTH = 10;
+  private static final int SAMPLE_SIZE = 32;
+
+  private final Map<Class<?>, List<Field>> fieldCache = new ConcurrentHashMap<Class<?>, List<Field>>();
+
+  @Override
+  public long weigh(Object key, Object value) {
+    if (value instanceof byte[]) {
+      return align(ARRAY_HEADER + ((byte[]) value).length);
+    }
+    return sizeOf(value, 0, new IdentityHashMap<Object, Object>());
+  }
+
+  private long sizeOf(Object object, int depth, Map<Object, Object> visited) {
+    if (object == null || visited.containsKey(object)) {
+      return 0;
+    }
+    Class<?> type = object.getClass();
+    if (object instanceof String) {
+      // String + its char[]
+      return align(OBJECT_HEADER + 8) + align(ARRAY_HEADER + 2L * ((String) object).length());
+    }
+    if (object instanceof Number || object instanceof Boolean || object instanceof Character
+        || object instanceof Enum) {
+      if (object instanceof BigDecimal || object instanceof BigInteger) {
+        return align(OBJECT_HEADER + 24) + align(ARRAY_HEADER + object.toString().length() / 2);
+      }
+      return object instanceof Enum ? 0 : align(OBJECT_HEADER + 8);
+    }
+    if (object instanceof Date) {
+      return align(OBJECT_HEADER + 16);
+    }
+    if (depth >= MAX_DEPTH) {
+      return align(OBJECT_HEADER);
+    }
+    visited.put(object, object);
+    if (type.isArray()) {
+      return sizeOfArray(object, depth, visited);
+    }
+    if (object instanceof Collection) {
+      Collection<?> collection = (Collection<?>) object;
+      return align(OBJECT_HEADER + 16) + align(ARRAY_HEADER + (long) REFERENCE * collection.size())
+          + sizeOfElements(collection.iterator(), collection.size(), depth, visited);
+    }
+    if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      // table + one node per entry
+      return align(OBJECT_HEADER + 32) + align(ARRAY_HEADER + (long) REFERENCE * map.size() * 4 / 3)
+          + (long) map.size() * align(OBJECT_HEADER + 16)
+          + sizeOfElements(map.keySet().iterator(), map.size(), depth, visited)
+          + sizeOfElements(map.values().iterator(), map.size(), depth, visited);
+    }
+    long size = OBJECT_HEADER;
+    List<Field> fields = fieldsOf(type);
+    long references = 0;
+    for (Field field : fields) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        size += primitiveSize(fieldType);
+      } else {
+        size += REFERENCE;
+        try {
+          references += sizeOf(field.get(object), depth + 1, visited);
+        } catch (IllegalAccessException e) {
+          // not accessible, count the reference only
+        }
+      }
+    }
+    return align(size) + references;
+  }
+
+  private long sizeOfArray(Object array, int depth, Map<Object, Object> visited) {
+    int length = Array.getLength(array);
+    Class<?> componentType = array.getClass().getComponentType();
+    if (componentType.isPrimitive()) {
+      return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+    }
+    return align(ARRAY_HEADER + (long) REFERENCE * length)
+        + sizeOfElements(new ArrayIterator(array, length), length, depth, visited);
+  }
+
+  private long sizeOfElements(Iterator<?> elements, int count, int depth, Map<Object, Object> visited) {
+    long size = 0;
+    int sampled = 0;
+    while (sampled < SAMPLE_SIZE && elements.hasNext()) {
+      size += sizeOf(elements.next(), depth + 1, visited);
+      sampled++;
+    }
+    if (sampled == 0 || sampled == count) {
+      return size;
+    }
+    return size * count / sampled;
+  }
+
+  private List<Field> fieldsOf(Class<?> type) {
+    List<Field> fields = fieldCache.get(type);
+    if (fields == null) {
+      fields = new ArrayList<Field>();
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          try {
+            field.setAccessible(true);
+          } catch (RuntimeException e) {
+            // inaccessible fields are weighed as a reference only
+          }
+          fields.add(field);
+        }
+      }
+      fieldCache.put(type, fields);
+    }
+    return fields;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static class ArrayIterator implements Iterator<Object> {
+    private final Object array;
+    private final int length;
+    private int index;
+
+    ArrayIterator(Object array, int length) {
+      this.array = array;
+      this.length = length;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < length;
+    }
+
+    @Override
+    public Object next() {
+      return Array.get(array, index++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
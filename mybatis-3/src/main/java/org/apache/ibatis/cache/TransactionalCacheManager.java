@@ -17,8 +17,10 @@ package org.apache.ibatis.cache;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -31,6 +33,10 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).clear();
   }
 
+  public void evictTables(Cache cache, Collection<String> tables) {
+    getTransactionalCache(cache).evictTables(tables);
+  }
+
   public Object getObject(Cache cache, CacheKey key) {
     // 获取二级缓存对应的TransactionalCache对象，然后根据缓存Key获取缓存对象
     return getTransactionalCache(cache).getObject(key);
@@ -40,6 +46,14 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void putObject(Cache cache, CacheKey key, Object value, Set<String> tables) {
+    getTransactionalCache(cache).putObject(key, value, tables);
+  }
+
+  public void abortLoad(Cache cache, CacheKey key, Throwable cause) {
+    getTransactionalCache(cache).abortLoad(key, cause);
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
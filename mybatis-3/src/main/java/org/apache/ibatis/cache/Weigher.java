@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Estimates how many bytes of heap a cached value retains.
+ * <p>
+ * Implementations must have a public no-args constructor and must be thread safe.
+ */
+public interface Weigher {
+
+  /**
+   * @param key the cache key
+   * @param value the cached value, never null
+   * @return the estimated number of bytes retained by the entry, never negative
+   */
+  long weigh(Object key, Object value);
+
+}
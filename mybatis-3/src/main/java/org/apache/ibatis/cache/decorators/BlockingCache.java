@@ -15,11 +15,13 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -31,6 +33,12 @@ import org.apache.ibatis.cache.CacheException;
  * It sets a lock over a cache key when the element is not found in cache.
  * This way, other threads will wait until this element is filled instead of hitting the database.
  * 
+ * The first thread that misses a key registers an in-flight load for it and every other thread
+ * that misses the same key waits for that load. The load is completed when the loading thread puts
+ * the value, releases the key on rollback, or aborts it because the query failed, in which case the
+ * waiting threads get the failure too. Completed loads are removed right away so the table only
+ * holds the keys that are being loaded.
+ * 
  * @author Eduardo Macarron
  *
  */
@@ -38,11 +46,11 @@ public class BlockingCache implements Cache {
 
   private long timeout;
   private final Cache delegate;
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  private final ConcurrentHashMap<Object, InFlightLoad> loads;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+    this.loads = new ConcurrentHashMap<Object, InFlightLoad>();
   }
 
   @Override
@@ -60,24 +68,38 @@ public class BlockingCache implements Cache {
     try {
       delegate.putObject(key, value);
     } finally {
-      releaseLock(key);
+      releaseLock(key, null);
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    acquireLock(key);
-    Object value = delegate.getObject(key);
-    if (value != null) {
-      releaseLock(key);
-    }        
-    return value;
+    while (true) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      InFlightLoad load = new InFlightLoad();
+      InFlightLoad previous = loads.putIfAbsent(key, load);
+      if (previous == null) {
+        // the value may have been put between the miss and the registration of the load
+        value = delegate.getObject(key);
+        if (value != null) {
+          releaseLock(key, null);
+        }
+        return value;
+      }
+      if (previous.owner == Thread.currentThread()) {
+        return null;
+      }
+      awaitLoad(key, previous);
+    }
   }
 
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    releaseLock(key, null);
     return null;
   }
 
@@ -86,37 +108,79 @@ public class BlockingCache implements Cache {
     delegate.clear();
   }
 
+  /**
+   * Looks the keys up one at a time, so that every miss holds its key like {@link #getObject(Object)} does.
+   */
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        values.put(key, value);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    try {
+      delegate.putObjects(entries);
+    } finally {
+      for (Object key : entries.keySet()) {
+        releaseLock(key, null);
+      }
+    }
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    for (Object key : keys) {
+      releaseLock(key, null);
+    }
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
   }
-  
-  private ReentrantLock getLockForKey(Object key) {
-    ReentrantLock lock = new ReentrantLock();
-    ReentrantLock previous = locks.putIfAbsent(key, lock);
-    return previous == null ? lock : previous;
-  }
-  
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+
+  /**
+   * Releases the key held by the current thread because loading its value failed.
+   * Threads waiting for the key are woken up and fail with the same cause.
+   *
+   * @param key the key the current thread missed
+   * @param cause why the value could not be loaded
+   */
+  public void abortLoad(Object key, Throwable cause) {
+    releaseLock(key, cause);
+  }
+
+  private void awaitLoad(Object key, InFlightLoad load) {
+    try {
+      if (timeout > 0) {
+        boolean acquired = load.done.await(timeout, TimeUnit.MILLISECONDS);
         if (!acquired) {
           throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());  
         }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+      } else {
+        load.done.await();
       }
-    } else {
-      lock.lock();
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+    }
+    if (load.failure != null) {
+      throw new CacheException("Loading the value for key " + key + " at the cache " + delegate.getId() + " failed.  Cause: " + load.failure, load.failure);
     }
   }
-  
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+
+  private void releaseLock(Object key, Throwable failure) {
+    InFlightLoad load = loads.get(key);
+    if (load != null && load.owner == Thread.currentThread()) {
+      load.failure = failure;
+      loads.remove(key, load);
+      load.done.countDown();
     }
   }
 
@@ -126,5 +190,11 @@ public class BlockingCache implements Cache {
 
   public void setTimeout(long timeout) {
     this.timeout = timeout;
-  }  
+  }
+
+  private static final class InFlightLoad {
+    private final Thread owner = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,355 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.EnumerableCache;
+
+/**
+ * Per-entry expiration decorator.
+ * <p>
+ * Every entry expires on its own: {@code expireAfterWrite} milliseconds after it was put and/or
+ * {@code expireAfterAccess} milliseconds after it was last read. The namespace defaults can be overridden per
+ * statement by putting an {@link ExpiringValue}. Deadlines are kept in a {@link TimerWheel} that is advanced on
+ * every operation, so expired entries are removed a few at a time as their deadline passes rather than by
+ * clearing the whole cache like {@link ScheduledCache} does.
+ * <p>
+ * Values are unwrapped before they are passed to the delegate, so this decorator must sit above
+ * {@link SerializedCache}. When a decorator below evicts entries, their expiry is only forgotten at their
+ * deadline unless a key source is set: the expiries of the keys it no longer has are then dropped once they
+ * outnumber the entries of the cache.
+ */
+public class ExpiringCache implements Cache {
+
+  private static final int MIN_SWEEP_SIZE = 64;
+
+  private final Cache delegate;
+  private final ReentrantLock lock = new ReentrantLock();
+  // guarded by lock
+  private final Map<Object, Expiry> expiries = new HashMap<Object, Expiry>();
+  private final TimerWheel timerWheel;
+  private long expireAfterWrite;
+  private long expireAfterAccess;
+  private EnumerableCache keySource;
+  private CacheMetrics metrics;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+    this.timerWheel = new TimerWheel(now(), new TimerWheel.Listener() {
+      @Override
+      public void expired(TimerWheel.Timer timer) {
+        expiries.remove(timer.key);
+        ExpiringCache.this.delegate.removeObject(timer.key);
+        if (metrics != null) {
+          metrics.recordEviction();
+        }
+      }
+    });
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    lock.lock();
+    try {
+      timerWheel.advance(now());
+    } finally {
+      lock.unlock();
+    }
+    return delegate.getSize();
+  }
+
+  /**
+   * @param expireAfterWrite milliseconds an entry lives after it was put, 0 for no limit
+   */
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  /**
+   * @param expireAfterAccess milliseconds an entry lives after it was last read, 0 for no limit
+   */
+  public void setExpireAfterAccess(long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+  }
+
+  /**
+   * @param keySource the cache at the bottom of the delegate chain, whose keys are those still cached
+   */
+  public void setKeySource(EnumerableCache keySource) {
+    this.keySource = keySource;
+  }
+
+  /**
+   * @param metrics counts the entries this cache evicts
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    lock.lock();
+    try {
+      long now = now();
+      timerWheel.advance(now);
+      delegate.putObject(key, unwrap(value));
+      schedule(key, value, now);
+      forgetEvicted();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    lock.lock();
+    try {
+      long now = now();
+      timerWheel.advance(now);
+      if (expire(key, now)) {
+        delegate.removeObject(key);
+        return null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.lock();
+    try {
+      forget(key);
+    } finally {
+      lock.unlock();
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    List<Object> liveKeys = new ArrayList<Object>(keys.size());
+    List<Object> expiredKeys = new ArrayList<Object>();
+    lock.lock();
+    try {
+      long now = now();
+      timerWheel.advance(now);
+      for (Object key : keys) {
+        if (expire(key, now)) {
+          expiredKeys.add(key);
+        } else {
+          liveKeys.add(key);
+        }
+      }
+      if (!expiredKeys.isEmpty()) {
+        delegate.removeObjects(expiredKeys);
+      }
+    } finally {
+      lock.unlock();
+    }
+    return delegate.getObjects(liveKeys);
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    Map<Object, Object> values = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      values.put(entry.getKey(), unwrap(entry.getValue()));
+    }
+    lock.lock();
+    try {
+      long now = now();
+      timerWheel.advance(now);
+      delegate.putObjects(values);
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        schedule(entry.getKey(), entry.getValue(), now);
+      }
+      forgetEvicted();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    lock.lock();
+    try {
+      for (Object key : keys) {
+        forget(key);
+      }
+    } finally {
+      lock.unlock();
+    }
+    delegate.removeObjects(keys);
+  }
+
+  @Override
+  public void clear() {
+    lock.lock();
+    try {
+      expiries.clear();
+      timerWheel.clear();
+    } finally {
+      lock.unlock();
+    }
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  protected long now() {
+    return System.nanoTime() / 1000000L;
+  }
+
+  // guarded by lock
+  private void schedule(Object key, Object value, long now) {
+    long afterWrite = expireAfterWrite;
+    long afterAccess = expireAfterAccess;
+    if (value instanceof ExpiringValue) {
+      ExpiringValue expiringValue = (ExpiringValue) value;
+      afterWrite = expiringValue.expireAfterWrite != null ? expiringValue.expireAfterWrite : afterWrite;
+      afterAccess = expiringValue.expireAfterAccess != null ? expiringValue.expireAfterAccess : afterAccess;
+      value = expiringValue.value;
+    }
+    if (value == null || (afterWrite <= 0 && afterAccess <= 0)) {
+      forget(key);
+      return;
+    }
+    Expiry expiry = expiries.get(key);
+    if (expiry == null) {
+      expiry = new Expiry(key);
+      expiries.put(key, expiry);
+    }
+    expiry.expireAfterAccess = afterAccess;
+    // reads never push the deadline past the write expiry
+    expiry.writeDeadline = afterWrite > 0 ? now + afterWrite : Long.MAX_VALUE;
+    long deadline = afterAccess > 0 ? Math.min(now + afterAccess, expiry.writeDeadline) : expiry.writeDeadline;
+    timerWheel.schedule(expiry, deadline);
+  }
+
+  /**
+   * Forgets the key if its entry expired, otherwise pushes back its access deadline. Guarded by lock.
+   *
+   * @return true if the entry expired and must be removed from the delegate
+   */
+  private boolean expire(Object key, long now) {
+    Expiry expiry = expiries.get(key);
+    if (expiry == null) {
+      return false;
+    }
+    if (expiry.deadline <= now) {
+      forget(key);
+      if (metrics != null) {
+        metrics.recordEviction();
+      }
+      return true;
+    }
+    if (expiry.expireAfterAccess > 0) {
+      timerWheel.schedule(expiry, Math.min(now + expiry.expireAfterAccess, expiry.writeDeadline));
+    }
+    return false;
+  }
+
+  private void forgetEvicted() {
+    // at least half of the expiries are those of evicted entries, so sweeping them is amortized
+    if (keySource == null || expiries.size() <= 2 * delegate.getSize() + MIN_SWEEP_SIZE) {
+      return;
+    }
+    Set<Object> keys = keySource.getKeys();
+    Iterator<Expiry> iterator = expiries.values().iterator();
+    while (iterator.hasNext()) {
+      Expiry expiry = iterator.next();
+      if (!keys.contains(expiry.key)) {
+        iterator.remove();
+        timerWheel.deschedule(expiry);
+      }
+    }
+  }
+
+  private void forget(Object key) {
+    Expiry expiry = expiries.remove(key);
+    if (expiry != null) {
+      timerWheel.deschedule(expiry);
+    }
+  }
+
+  /**
+   * Wraps a value to give it its own expiration instead of the defaults of the cache.
+   *
+   * @param value the value to cache
+   * @param expireAfterWrite milliseconds after put, null for the cache default
+   * @param expireAfterAccess milliseconds after last read, null for the cache default
+   */
+  public static Object withExpiry(Object value, Long expireAfterWrite, Long expireAfterAccess) {
+    if (value == null || (expireAfterWrite == null && expireAfterAccess == null)) {
+      return value;
+    }
+    return new ExpiringValue(value, expireAfterWrite, expireAfterAccess);
+  }
+
+  /**
+   * @return the value wrapped by {@link #withExpiry(Object, Long, Long)}, for caches that do not expire entries
+   */
+  public static Object unwrap(Object value) {
+    return value instanceof ExpiringValue ? ((ExpiringValue) value).value : value;
+  }
+
+  private static class Expiry extends TimerWheel.Timer {
+    private long writeDeadline;
+    private long expireAfterAccess;
+
+    Expiry(Object key) {
+      super(key);
+    }
+  }
+
+  public static class ExpiringValue implements Serializable {
+    private static final long serialVersionUID = 6081226361392425743L;
+
+    private final Object value;
+    private final Long expireAfterWrite;
+    private final Long expireAfterAccess;
+
+    ExpiringValue(Object value, Long expireAfterWrite, Long expireAfterAccess) {
+      this.value = value;
+      this.expireAfterWrite = expireAfterWrite;
+      this.expireAfterAccess = expireAfterAccess;
+    }
+  }
+
+}
@@ -20,6 +20,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 
 /**
  * FIFO (first in, first out) cache decorator
@@ -31,6 +32,7 @@ public class FifoCache implements Cache {
   private final Cache delegate;
   private final Deque<Object> keyList;
   private int size;
+  private CacheMetrics metrics;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -52,6 +54,13 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  /**
+   * @param metrics counts the entries this cache evicts
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cycleKeyList(key);
@@ -84,6 +93,9 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      if (metrics != null) {
+        metrics.recordEviction();
+      }
     }
   }
 
@@ -15,9 +15,12 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -28,14 +31,25 @@ public class LoggingCache implements Cache {
 
   private final Log log;
   private final Cache delegate;
-  protected int requests = 0;
-  protected int hits = 0;
+  private final CacheMetrics metrics;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheMetrics(delegate));
+  }
+
+  /**
+   * @param metrics shared with the decorators below that evict entries
+   */
+  public LoggingCache(Cache delegate, CacheMetrics metrics) {
     this.delegate = delegate;
+    this.metrics = metrics;
     this.log = LogFactory.getLog(getId());
   }
 
+  public CacheMetrics getMetrics() {
+    return metrics;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -49,31 +63,68 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    // null marks a miss or overwrites an invalidated entry
+    if (object != null) {
+      metrics.recordPut();
+    } else {
+      metrics.recordRemoval();
+    }
   }
 
   @Override
   public Object getObject(Object key) {
-    requests++;
     final Object value = delegate.getObject(key);
-    if (value != null) {
-      hits++;
-    }
+    metrics.recordRequest(value != null);
     if (log.isDebugEnabled()) {
-      log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + metrics.getHitRatio());
     }
     return value;
   }
 
   @Override
   public Object removeObject(Object key) {
+    metrics.recordRemoval();
     return delegate.removeObject(key);
   }
 
   @Override
   public void clear() {
+    metrics.recordClear();
     delegate.clear();
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> values = delegate.getObjects(keys);
+    for (Object key : keys) {
+      metrics.recordRequest(values.get(key) != null);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + metrics.getHitRatio());
+    }
+    return values;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    delegate.putObjects(entries);
+    for (Object value : entries.values()) {
+      if (value != null) {
+        metrics.recordPut();
+      } else {
+        metrics.recordRemoval();
+      }
+    }
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    for (int i = 0; i < keys.size(); i++) {
+      metrics.recordRemoval();
+    }
+    delegate.removeObjects(keys);
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -89,8 +140,4 @@ public class LoggingCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private double getHitRatio() {
-    return (double) hits / (double) requests;
-  }
-
 }
@@ -0,0 +1,359 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Refresh-ahead decorator.
+ * <p>
+ * A read of an entry older than {@code refreshAfterWrite} milliseconds still returns the cached value but
+ * reloads it in the background, so that hot entries are replaced before anybody has to wait for them. Entries
+ * that could not be refreshed within {@code maxStaleness} more milliseconds are reported as misses and
+ * loaded the usual way.
+ * <p>
+ * Entries are reloaded by the {@link Loader} put along with them with {@link #withLoader(Object, Loader)};
+ * entries put without one are never refreshed. Reloads run on a small shared pool of daemon threads and a
+ * reload whose entry was removed, cleared or replaced in the meantime is discarded. The reloaded values are
+ * put directly into the delegate, so this decorator must sit above any decorator that is not thread safe.
+ */
+public class RefreshAheadCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(RefreshAheadCache.class);
+
+  private static final int REFRESH_THREADS = 2;
+  private static final int REFRESH_QUEUE_SIZE = 1024;
+  private static Executor sharedExecutor;
+
+  private final Cache delegate;
+  // guarded by itself
+  private Map<Object, Entry> entries;
+  private long refreshAfterWrite;
+  private long maxStaleness = -1;
+  private Executor executor;
+
+  public RefreshAheadCache(Cache delegate) {
+    this.delegate = delegate;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  /**
+   * @param size the number of entries whose load time and loader are remembered, the eldest entries are
+   *        removed from the cache beyond it
+   */
+  public void setSize(final int size) {
+    Map<Object, Entry> previous = entries;
+    Map<Object, Entry> resized = new LinkedHashMap<Object, Entry>(size, .75F, true) {
+      private static final long serialVersionUID = 2864530727435398173L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+        boolean tooBig = size() > size;
+        if (tooBig) {
+          // its staleness could not be bounded anymore
+          delegate.removeObject(eldest.getKey());
+        }
+        return tooBig;
+      }
+    };
+    if (previous != null) {
+      synchronized (previous) {
+        resized.putAll(previous);
+      }
+    }
+    entries = resized;
+  }
+
+  /**
+   * @param refreshAfterWrite milliseconds after which a read of an entry reloads it in the background
+   */
+  public void setRefreshAfterWrite(long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  /**
+   * @param maxStaleness milliseconds past {@code refreshAfterWrite} an entry may still be returned while it is
+   *        reloaded, defaults to {@code refreshAfterWrite}
+   */
+  public void setMaxStaleness(long maxStaleness) {
+    this.maxStaleness = maxStaleness;
+  }
+
+  /**
+   * @param executor runs the reloads, defaults to a pool shared by all the refresh-ahead caches
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    // before the delegate, so that a reload running meanwhile is discarded
+    delegate.putObject(key, remember(key, value));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value == null || fresh(key)) {
+      return value;
+    }
+    // too stale to be returned, the caller loads it again
+    delegate.removeObject(key);
+    return null;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> values = new HashMap<Object, Object>();
+    List<Object> staleKeys = new ArrayList<Object>();
+    for (Map.Entry<Object, Object> entry : delegate.getObjects(keys).entrySet()) {
+      if (fresh(entry.getKey())) {
+        values.put(entry.getKey(), entry.getValue());
+      } else {
+        staleKeys.add(entry.getKey());
+      }
+    }
+    if (!staleKeys.isEmpty()) {
+      delegate.removeObjects(staleKeys);
+    }
+    return values;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    Map<Object, Object> values = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      values.put(entry.getKey(), remember(entry.getKey(), entry.getValue()));
+    }
+    delegate.putObjects(values);
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    synchronized (entries) {
+      for (Object key : keys) {
+        entries.remove(key);
+      }
+    }
+    delegate.removeObjects(keys);
+  }
+
+  @Override
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  protected long now() {
+    return System.nanoTime() / 1000000L;
+  }
+
+  /**
+   * @return the value without its loader, to be put into the delegate
+   */
+  private Object remember(Object key, Object value) {
+    Loader loader = null;
+    if (value instanceof LoadableValue) {
+      loader = ((LoadableValue) value).loader;
+      value = ((LoadableValue) value).value;
+    }
+    synchronized (entries) {
+      if (value == null || loader == null) {
+        entries.remove(key);
+      } else {
+        entries.put(key, new Entry(loader, now()));
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Reloads the entry in the background if it is older than {@code refreshAfterWrite}.
+   *
+   * @return false if the entry is too stale to be returned, it is then forgotten but left in the delegate
+   */
+  private boolean fresh(Object key) {
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry == null) {
+        return true;
+      }
+      long age = now() - entry.loadTime;
+      if (age >= refreshAfterWrite + (maxStaleness < 0 ? refreshAfterWrite : maxStaleness)) {
+        entries.remove(key);
+        return false;
+      }
+      if (age < refreshAfterWrite || entry.refreshing) {
+        return true;
+      }
+      entry.refreshing = true;
+    }
+    refresh(key, entry);
+    return true;
+  }
+
+  private void refresh(final Object key, final Entry entry) {
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          reload(key, entry);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the next read tries again
+      synchronized (entries) {
+        entry.refreshing = false;
+      }
+    }
+  }
+
+  private void reload(Object key, Entry entry) {
+    Object value;
+    try {
+      value = entry.loader.load();
+    } catch (Exception e) {
+      log.warn("Could not refresh the entry " + key + " of cache " + getId() + ". Cause: " + e);
+      synchronized (entries) {
+        entry.refreshing = false;
+      }
+      return;
+    }
+    synchronized (entries) {
+      // removed or replaced while it was reloading
+      if (entries.get(key) != entry) {
+        return;
+      }
+      if (value == null) {
+        entries.remove(key);
+      } else {
+        entries.put(key, new Entry(entry.loader, now()));
+      }
+      // under the lock, so that a put or remove of the key cannot be overwritten by this older value
+      delegate.putObject(key, value);
+    }
+  }
+
+  private Executor getExecutor() {
+    if (executor != null) {
+      return executor;
+    }
+    synchronized (RefreshAheadCache.class) {
+      if (sharedExecutor == null) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+        pool.allowCoreThreadTimeOut(true);
+        sharedExecutor = pool;
+      }
+      return sharedExecutor;
+    }
+  }
+
+  /**
+   * Wraps a value to let this cache reload it.
+   *
+   * @param value the value to cache
+   * @param loader loads a fresh value for the same key
+   */
+  public static Object withLoader(Object value, Loader loader) {
+    if (value == null || loader == null) {
+      return value;
+    }
+    return new LoadableValue(value, loader);
+  }
+
+  /**
+   * Loads a fresh value for an entry, off the thread that read it.
+   */
+  public interface Loader {
+    Object load() throws Exception;
+  }
+
+  private static class Entry {
+    private final Loader loader;
+    private final long loadTime;
+    private boolean refreshing;
+
+    Entry(Loader loader, long loadTime) {
+      this.loader = loader;
+      this.loadTime = loadTime;
+    }
+  }
+
+  private static class LoadableValue {
+    private final Object value;
+    private final Loader loader;
+
+    LoadableValue(Object value, Loader loader) {
+      this.value = value;
+      this.loader = loader;
+    }
+  }
+
+}
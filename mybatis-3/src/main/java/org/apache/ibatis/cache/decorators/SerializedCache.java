@@ -23,6 +23,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -52,11 +56,7 @@ public class SerializedCache implements Cache {
 
   @Override
   public void putObject(Object key, Object object) {
-    if (object == null || object instanceof Serializable) {
-      delegate.putObject(key, serialize((Serializable) object));
-    } else {
-      throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
-    }
+    delegate.putObject(key, copy(object));
   }
 
   @Override
@@ -70,6 +70,33 @@ public class SerializedCache implements Cache {
     return delegate.removeObject(key);
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Map.Entry<Object, Object> entry : delegate.getObjects(keys).entrySet()) {
+      Object object = deserialize((byte[]) entry.getValue());
+      // a null value is stored serialized too
+      if (object != null) {
+        objects.put(entry.getKey(), object);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    Map<Object, Object> copies = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      copies.put(entry.getKey(), copy(entry.getValue()));
+    }
+    delegate.putObjects(copies);
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    delegate.removeObjects(keys);
+  }
+
   @Override
   public void clear() {
     delegate.clear();
@@ -90,7 +117,18 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
+  private static byte[] copy(Object object) {
+    if (object == null || object instanceof Serializable) {
+      return serialize((Serializable) object);
+    }
+    throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
+  }
+
+  /**
+   * Serializes a value the way it is stored by this decorator, also used by caches that keep serialized values
+   * themselves.
+   */
+  public static byte[] serialize(Serializable value) {
     try {
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
       ObjectOutputStream oos = new ObjectOutputStream(bos);
@@ -103,7 +141,10 @@ public class SerializedCache implements Cache {
     }
   }
 
-  private Serializable deserialize(byte[] value) {
+  /**
+   * Reads back a value written by {@link #serialize(Serializable)}, resolving classes through {@link Resources}.
+   */
+  public static Serializable deserialize(byte[] value) {
     Serializable result;
     try {
       ByteArrayInputStream bis = new ByteArrayInputStream(value);
@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -60,6 +62,21 @@ public class SynchronizedCache implements Cache {
     delegate.clear();
   }
 
+  @Override
+  public synchronized Map<Object, Object> getObjects(Collection<?> keys) {
+    return delegate.getObjects(keys);
+  }
+
+  @Override
+  public synchronized void putObjects(Map<?, ?> entries) {
+    delegate.putObjects(entries);
+  }
+
+  @Override
+  public synchronized void removeObjects(Collection<?> keys) {
+    delegate.removeObjects(keys);
+  }
+
   @Override
   public int hashCode() {
     return delegate.hashCode();
@@ -0,0 +1,288 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Table dependency tracking decorator.
+ * <p>
+ * Remembers which tables every entry was read from so that a write only evicts the entries that depend
+ * on the tables it touched instead of clearing the whole cache. Entries put without tables depend on
+ * every table. The index is bounded by {@link #setSize(int)}; the eldest indexed entries are evicted from
+ * the cache when it overflows so an entry is never kept once it cannot be invalidated anymore.
+ * <p>
+ * Evicted entries are overwritten with {@code null}, like the misses a {@link TransactionalCache} writes
+ * back, so this decorator can sit on top of a {@link BlockingCache}.
+ */
+public class TableDependencyCache implements Cache {
+
+  private final Cache delegate;
+  private final Object indexLock = new Object();
+  private final Map<String, Set<Object>> keysByTable;
+  private final Set<Object> keysWithoutTables;
+  private Map<Object, Set<String>> tablesByKey;
+  private final Map<Object, Set<String>> overflow;
+
+  public TableDependencyCache(Cache delegate) {
+    this.delegate = delegate;
+    this.keysByTable = new HashMap<String, Set<Object>>();
+    this.keysWithoutTables = new HashSet<Object>();
+    this.overflow = new LinkedHashMap<Object, Set<String>>();
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(final int size) {
+    synchronized (indexLock) {
+      Map<Object, Set<String>> previous = tablesByKey;
+      tablesByKey = new LinkedHashMap<Object, Set<String>>(size, .75F, false) {
+        private static final long serialVersionUID = -2517238425316377912L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Set<String>> eldest) {
+          boolean tooBig = size() > size;
+          if (tooBig) {
+            overflow.put(eldest.getKey(), eldest.getValue());
+          }
+          return tooBig;
+        }
+      };
+      if (previous != null) {
+        tablesByKey.putAll(previous);
+      }
+    }
+    evictOverflow();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, Collections.<String>emptySet());
+  }
+
+  /**
+   * @param key the key
+   * @param value the result of a select
+   * @param tables the normalized names of the tables the select read, empty if unknown
+   */
+  public void putObject(Object key, Object value, Set<String> tables) {
+    delegate.putObject(key, value);
+    synchronized (indexLock) {
+      unindex(key);
+      if (value != null) {
+        index(key, tables);
+      }
+    }
+    evictOverflow();
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    putObjects(entries, Collections.<Object, Set<String>>emptyMap());
+  }
+
+  /**
+   * Same as {@link #putObject(Object, Object, Set)} for every entry, in a single bulk call to the delegate.
+   *
+   * @param entries the results of selects by key
+   * @param tables the tables each result was read from by key, keys that are absent depend on every table
+   */
+  public void putObjects(Map<?, ?> entries, Map<?, Set<String>> tables) {
+    delegate.putObjects(entries);
+    synchronized (indexLock) {
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        unindex(entry.getKey());
+        if (entry.getValue() != null) {
+          Set<String> entryTables = tables.get(entry.getKey());
+          index(entry.getKey(), entryTables != null ? entryTables : Collections.<String>emptySet());
+        }
+      }
+    }
+    evictOverflow();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    return delegate.getObjects(keys);
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    delegate.removeObjects(keys);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    synchronized (indexLock) {
+      keysByTable.clear();
+      keysWithoutTables.clear();
+      tablesByKey.clear();
+      overflow.clear();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Evicts every entry that depends on one of the given tables.
+   *
+   * @param tables normalized table names
+   */
+  public void evictTables(Collection<String> tables) {
+    Set<Object> keys = new LinkedHashSet<Object>();
+    synchronized (indexLock) {
+      for (String table : tables) {
+        Set<Object> dependents = keysByTable.get(table);
+        if (dependents != null) {
+          keys.addAll(dependents);
+        }
+      }
+      keys.addAll(keysWithoutTables);
+      for (Object key : keys) {
+        unindex(key);
+      }
+    }
+    if (!keys.isEmpty()) {
+      delegate.putObjects(nullValues(keys));
+    }
+  }
+
+  /**
+   * @return true if the entry of the key depends on one of the given tables
+   */
+  public boolean dependsOn(Object key, Collection<String> tables) {
+    synchronized (indexLock) {
+      if (keysWithoutTables.contains(key)) {
+        return true;
+      }
+      Set<String> keyTables = tablesByKey.get(key);
+      if (keyTables == null) {
+        return false;
+      }
+      for (String table : tables) {
+        if (keyTables.contains(table)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Lets the wrapped {@link BlockingCache}, if any, release a key whose value could not be loaded.
+   */
+  public void abortLoad(Object key, Throwable cause) {
+    if (delegate instanceof BlockingCache) {
+      ((BlockingCache) delegate).abortLoad(key, cause);
+    }
+  }
+
+  private void index(Object key, Set<String> tables) {
+    tablesByKey.put(key, tables);
+    if (tables.isEmpty()) {
+      keysWithoutTables.add(key);
+      return;
+    }
+    for (String table : tables) {
+      Set<Object> dependents = keysByTable.get(table);
+      if (dependents == null) {
+        dependents = new HashSet<Object>();
+        keysByTable.put(table, dependents);
+      }
+      dependents.add(key);
+    }
+  }
+
+  private void unindex(Object key) {
+    Set<String> tables = tablesByKey.remove(key);
+    if (tables != null) {
+      unindex(key, tables);
+    }
+  }
+
+  private void unindex(Object key, Set<String> tables) {
+    keysWithoutTables.remove(key);
+    for (String table : tables) {
+      Set<Object> dependents = keysByTable.get(table);
+      if (dependents != null) {
+        dependents.remove(key);
+        if (dependents.isEmpty()) {
+          keysByTable.remove(table);
+        }
+      }
+    }
+  }
+
+  private void evictOverflow() {
+    List<Object> keys;
+    synchronized (indexLock) {
+      if (overflow.isEmpty()) {
+        return;
+      }
+      keys = new ArrayList<Object>(overflow.keySet());
+      for (Map.Entry<Object, Set<String>> entry : overflow.entrySet()) {
+        // already removed from tablesByKey by removeEldestEntry
+        unindex(entry.getKey(), entry.getValue());
+      }
+      overflow.clear();
+    }
+    delegate.putObjects(nullValues(keys));
+  }
+
+  private static Map<Object, Object> nullValues(Collection<Object> keys) {
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    for (Object key : keys) {
+      entries.put(key, null);
+    }
+    return entries;
+  }
+
+}
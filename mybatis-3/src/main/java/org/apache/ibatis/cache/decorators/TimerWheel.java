@@ -0,0 +1,168 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+/**
+ * Hierarchical timer wheel.
+ * <p>
+ * Deadlines (in milliseconds) are hashed into buckets of coarser and coarser wheels: about a second per bucket
+ * for the first minute, about a minute per bucket for the first hour, about an hour per bucket for the first days
+ * and a single overflow bucket beyond. Scheduling and descheduling are O(1). {@link #advance(long)} visits only the
+ * buckets the clock went past; timers in them are either expired or cascaded into a finer wheel, so a large number
+ * of entries expires gradually instead of all at once. Not thread safe.
+ */
+class TimerWheel {
+
+  interface Listener {
+    void expired(Timer timer);
+  }
+
+  static class Timer {
+    final Object key;
+    long deadline;
+    Timer previous;
+    Timer next;
+
+    Timer(Object key) {
+      this.key = key;
+    }
+
+    boolean isScheduled() {
+      return next != null;
+    }
+  }
+
+  private static final int[] BUCKETS = { 64, 64, 64, 4, 1 };
+  private static final int[] SHIFTS = { 10, 16, 22, 28, 30 };
+
+  private final Timer[][] wheel;
+  private final Listener listener;
+  private long time;
+
+  TimerWheel(long now, Listener listener) {
+    this.time = now;
+    this.listener = listener;
+    this.wheel = new Timer[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; i++) {
+      wheel[i] = new Timer[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; j++) {
+        Timer sentinel = new Timer(null);
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+        wheel[i][j] = sentinel;
+      }
+    }
+  }
+
+  void schedule(Timer timer, long deadline) {
+    if (timer.isScheduled()) {
+      unlink(timer);
+    }
+    timer.deadline = deadline;
+    link(findBucket(deadline), timer);
+  }
+
+  void deschedule(Timer timer) {
+    if (timer.isScheduled()) {
+      unlink(timer);
+    }
+  }
+
+  /**
+   * Moves the clock forward and notifies the listener of every timer whose deadline has passed.
+   */
+  void advance(long now) {
+    long previousTime = time;
+    if (now <= previousTime) {
+      return;
+    }
+    time = now;
+    for (int i = 0; i < SHIFTS.length; i++) {
+      long previousTicks = previousTime >>> SHIFTS[i];
+      long currentTicks = now >>> SHIFTS[i];
+      if (currentTicks == previousTicks) {
+        break;
+      }
+      expire(i, previousTicks, currentTicks - previousTicks);
+    }
+  }
+
+  void clear() {
+    for (Timer[] buckets : wheel) {
+      for (Timer sentinel : buckets) {
+        Timer timer = sentinel.next;
+        while (timer != sentinel) {
+          Timer next = timer.next;
+          timer.previous = null;
+          timer.next = null;
+          timer = next;
+        }
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+      }
+    }
+  }
+
+  private void expire(int level, long previousTicks, long delta) {
+    Timer[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    long steps = Math.min(delta + 1, buckets.length);
+    for (long i = 0; i < steps; i++) {
+      Timer sentinel = buckets[(int) ((previousTicks + i) & mask)];
+      Timer timer = sentinel.next;
+      sentinel.previous = sentinel;
+      sentinel.next = sentinel;
+      while (timer != sentinel) {
+        Timer next = timer.next;
+        timer.previous = null;
+        timer.next = null;
+        if (timer.deadline <= time) {
+          listener.expired(timer);
+        } else {
+          link(findBucket(timer.deadline), timer);
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private Timer findBucket(long deadline) {
+    long duration = deadline - time;
+    int last = BUCKETS.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (duration < 1L << SHIFTS[i + 1]) {
+        long ticks = deadline >>> SHIFTS[i];
+        return wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+      }
+    }
+    return wheel[last][0];
+  }
+
+  private static void link(Timer sentinel, Timer timer) {
+    timer.previous = sentinel.previous;
+    timer.next = sentinel;
+    sentinel.previous.next = timer;
+    sentinel.previous = timer;
+  }
+
+  private static void unlink(Timer timer) {
+    timer.previous.next = timer.next;
+    timer.next.previous = timer.previous;
+    timer.previous = null;
+    timer.next = null;
+  }
+
+}
@@ -15,8 +15,11 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -44,12 +47,16 @@ public class TransactionalCache implements Cache {
   private boolean clearOnCommit;
   private final Map<Object, Object> entriesToAddOnCommit;
   private final Set<Object> entriesMissedInCache;
+  private final Map<Object, Set<String>> tablesOfEntriesToAdd;
+  private final Set<String> tablesToEvictOnCommit;
 
   public TransactionalCache(Cache delegate) {
     this.delegate = delegate;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
+    this.tablesOfEntriesToAdd = new HashMap<Object, Set<String>>();
+    this.tablesToEvictOnCommit = new HashSet<String>();
   }
 
   @Override
@@ -65,13 +72,17 @@ public class TransactionalCache implements Cache {
   @Override
   public Object getObject(Object key) {
     // issue #116
-    Object object = delegate.getObject(key);
+    // values carry their own expiry, which only an ExpiringCache in the chain would have consumed
+    Object object = ExpiringCache.unwrap(delegate.getObject(key));
     if (object == null) {
       entriesMissedInCache.add(key);
     }
     // issue #146
     if (clearOnCommit) {
       return null;
+    } else if (object != null && !tablesToEvictOnCommit.isEmpty()
+        && ((TableDependencyCache) delegate).dependsOn(key, tablesToEvictOnCommit)) {
+      return null;
     } else {
       return object;
     }
@@ -85,6 +96,18 @@ public class TransactionalCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     entriesToAddOnCommit.put(key, object);
+    tablesOfEntriesToAdd.remove(key);
+  }
+
+  /**
+   * Same as {@link #putObject(Object, Object)} but remembers the tables the value was read from
+   * if the delegate is a {@link TableDependencyCache}.
+   */
+  public void putObject(Object key, Object object, Set<String> tables) {
+    entriesToAddOnCommit.put(key, object);
+    if (delegate instanceof TableDependencyCache) {
+      tablesOfEntriesToAdd.put(key, tables);
+    }
   }
 
   @Override
@@ -96,11 +119,51 @@ public class TransactionalCache implements Cache {
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    tablesOfEntriesToAdd.clear();
+    tablesToEvictOnCommit.clear();
+  }
+
+  /**
+   * Evicts the entries that depend on the given tables on commit. Falls back to {@link #clear()}
+   * if the delegate does not track table dependencies or no table is given.
+   *
+   * @param tables normalized table names
+   */
+  public void evictTables(Collection<String> tables) {
+    if (!(delegate instanceof TableDependencyCache) || tables.isEmpty()) {
+      clear();
+      return;
+    }
+    if (clearOnCommit) {
+      return;
+    }
+    tablesToEvictOnCommit.addAll(tables);
+    for (Iterator<Object> it = entriesToAddOnCommit.keySet().iterator(); it.hasNext();) {
+      Set<String> entryTables = tablesOfEntriesToAdd.get(it.next());
+      if (entryTables == null || entryTables.isEmpty() || !Collections.disjoint(entryTables, tables)) {
+        it.remove();
+      }
+    }
+    tablesOfEntriesToAdd.keySet().retainAll(entriesToAddOnCommit.keySet());
+  }
+
+  /**
+   * Forgets a missed entry whose value could not be loaded and lets a blocking cache release it right away.
+   */
+  public void abortLoad(Object key, Throwable cause) {
+    entriesMissedInCache.remove(key);
+    if (delegate instanceof BlockingCache) {
+      ((BlockingCache) delegate).abortLoad(key, cause);
+    } else if (delegate instanceof TableDependencyCache) {
+      ((TableDependencyCache) delegate).abortLoad(key, cause);
+    }
   }
 
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+    } else if (!tablesToEvictOnCommit.isEmpty()) {
+      ((TableDependencyCache) delegate).evictTables(tablesToEvictOnCommit);
     }
     flushPendingEntries();
     reset();
@@ -115,27 +178,37 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tablesOfEntriesToAdd.clear();
+    tablesToEvictOnCommit.clear();
   }
 
   private void flushPendingEntries() {
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
-    }
+    // a single bulk call, a single round trip for remote caches
+    Map<Object, Object> entries = new HashMap<Object, Object>(entriesToAddOnCommit);
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
-        delegate.putObject(entry, null);
+        entries.put(entry, null);
       }
     }
+    if (entries.isEmpty()) {
+      return;
+    }
+    if (delegate instanceof TableDependencyCache) {
+      ((TableDependencyCache) delegate).putObjects(entries, tablesOfEntriesToAdd);
+    } else {
+      delegate.putObjects(entries);
+    }
   }
 
   private void unlockMissedEntries() {
-    for (Object entry : entriesMissedInCache) {
-      try {
-        delegate.removeObject(entry);
-      } catch (Exception e) {
-        log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
-            + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
-      }
+    if (entriesMissedInCache.isEmpty()) {
+      return;
+    }
+    try {
+      delegate.removeObjects(entriesMissedInCache);
+    } catch (Exception e) {
+      log.warn("Unexpected exception while notifiying a rollback to the cache adapter."
+          + "Consider upgrading your cache adapter to the latest version.  Cause: " + e);
     }
   }
 
@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ObjectSizeWeigher;
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * Weighted Lru (least recently used) cache decorator.
+ * <p>
+ * Bounds the cache by the estimated number of bytes its entries retain instead of by their number.
+ * Each entry is weighed once when it is put, and the least recently used entries are removed until
+ * the total weight fits in {@code maxBytes}. An entry heavier than the whole budget is not cached.
+ * Select it with {@code <cache maxBytes="64m"/>}.
+ * <p>
+ * This decorator is the eviction policy of the cache: it also bounds the number of entries when a size is set,
+ * and the delegate must not evict entries by itself, since their weight would never be released.
+ */
+public class WeightedCache implements Cache {
+
+  private final Cache delegate;
+  private final LinkedHashMap<Object, Long> weights;
+  private Weigher weigher;
+  private long maxBytes;
+  private int size;
+  private long weight;
+  private CacheMetrics metrics;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+    this.weigher = new ObjectSizeWeigher();
+    this.maxBytes = 64L * 1024 * 1024;
+    this.size = Integer.MAX_VALUE;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param size the maximum number of entries, besides their weight
+   */
+  public synchronized void setSize(int size) {
+    this.size = size;
+    evict();
+  }
+
+  public synchronized void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  /**
+   * @return the estimated number of bytes retained by the entries of this cache
+   */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * @param metrics counts the entries this cache evicts
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public synchronized void putObject(Object key, Object value) {
+    long entryWeight = value == null ? 0 : weigher.weigh(key, value);
+    forget(key);
+    if (entryWeight > maxBytes) {
+      delegate.removeObject(key);
+      return;
+    }
+    delegate.putObject(key, value);
+    weights.put(key, entryWeight);
+    weight += entryWeight;
+    evict();
+  }
+
+  @Override
+  public synchronized Object getObject(Object key) {
+    weights.get(key); //touch
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public synchronized Object removeObject(Object key) {
+    forget(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public synchronized void clear() {
+    delegate.clear();
+    weights.clear();
+    weight = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void forget(Object key) {
+    Long previous = weights.remove(key);
+    if (previous != null) {
+      weight -= previous;
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while ((weight > maxBytes || weights.size() > size) && eldest.hasNext()) {
+      Map.Entry<Object, Long> entry = eldest.next();
+      weight -= entry.getValue();
+      eldest.remove();
+      delegate.removeObject(entry.getKey());
+      if (metrics != null) {
+        metrics.recordEviction();
+      }
+    }
+  }
+
+  /**
+   * Parses a byte size such as {@code 65536}, {@code 512k}, {@code 64m} or {@code 1g}.
+   */
+  public static long parseBytes(String value) {
+    String trimmed = value.trim().toLowerCase(Locale.ENGLISH);
+    long multiplier = 1;
+    if (trimmed.endsWith("b")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 1);
+    }
+    if (trimmed.endsWith("k")) {
+      multiplier = 1024L;
+    } else if (trimmed.endsWith("m")) {
+      multiplier = 1024L * 1024;
+    } else if (trimmed.endsWith("g")) {
+      multiplier = 1024L * 1024 * 1024;
+    }
+    if (multiplier != 1) {
+      trimmed = trimmed.substring(0, trimmed.length() - 1);
+    }
+    try {
+      return Long.parseLong(trimmed.trim()) * multiplier;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid byte size '" + value + "'. Use a number optionally followed by k, m or g.", e);
+    }
+  }
+
+}
@@ -0,0 +1,512 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EnumerableCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+
+/**
+ * Cache that keeps its values serialized outside of the Java heap.
+ * <p>
+ * Values are serialized with the same hooks as {@link SerializedCache} and copied into slabs of direct
+ * {@link ByteBuffer}s, or of a memory-mapped file if {@code file} is set, so they are neither scanned nor
+ * copied by the garbage collector. Only the keys and a small index entry per value stay on the heap, and a
+ * hit deserializes a fresh copy of the value, like a read-write cache.
+ * <p>
+ * Slabs are split into chunks of power of two sizes (memcached style). A slab is given to a chunk size when it
+ * is first needed. Once no slab is left, a chunk size whose slabs are full either evicts its least recently used
+ * entry or, if the least recently used entry of another chunk size is older, takes the slab of that entry from it
+ * and evicts all the entries of the slab, so that the slabs follow the sizes of the values when they change.
+ * Values bigger than a slab are not cached. Select it with
+ * {@code <cache type="OFFHEAP"><property name="maxBytes" value="256m"/></cache>}.
+ * <p>
+ * This cache does its own locking and is not wrapped by the standard decorators.
+ */
+public class OffHeapCache implements EnumerableCache {
+
+  private static final int MIN_CHUNK_SIZE = 64;
+
+  private final String id;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private long maxBytes = 64L * 1024 * 1024;
+  private int slabSize = 1024 * 1024;
+  private int size = Integer.MAX_VALUE;
+  private String file;
+  private CacheMetrics metrics;
+
+  // guarded by lock
+  private final Map<Object, Entry> index = new HashMap<Object, Entry>();
+  private ByteBuffer[] slabs;
+  // the entry of every chunk of every assigned slab, to evict a slab that is given to another size class
+  private Entry[][] chunkEntries;
+  private long clock;
+  private int allocatedSlabs;
+  private Deque<Integer> spareSlabs;
+  private SizeClass[] sizeClasses;
+  private FileChannel channel;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.lock();
+    try {
+      return index.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param size the maximum number of entries, unbounded by default
+   */
+  public void setSize(int size) {
+    this.size = size;
+  }
+
+  /**
+   * @param maxBytes the off-heap capacity, e.g. {@code 256m}, 64m by default
+   */
+  public void setMaxBytes(String maxBytes) {
+    checkNotStarted();
+    this.maxBytes = WeightedCache.parseBytes(maxBytes);
+  }
+
+  /**
+   * @param slabSize the size of a slab, which is also the size of the biggest value that can be cached, 1m by default
+   */
+  public void setSlabSize(String slabSize) {
+    checkNotStarted();
+    long bytes = WeightedCache.parseBytes(slabSize);
+    if (bytes < MIN_CHUNK_SIZE || bytes > Integer.MAX_VALUE) {
+      throw new CacheException("Invalid slab size " + slabSize + " for cache " + id);
+    }
+    this.slabSize = (int) bytes;
+  }
+
+  /**
+   * @param file a file to map the slabs to instead of allocating direct buffers; it is deleted on exit
+   */
+  public void setFile(String file) {
+    checkNotStarted();
+    this.file = file;
+  }
+
+  /**
+   * @param metrics counts the entries this cache evicts
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null) {
+      removeObject(key);
+      return;
+    }
+    if (!(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to make a copy of a non-serializable object: " + value);
+    }
+    byte[] bytes = SerializedCache.serialize((Serializable) value);
+    lock.lock();
+    try {
+      start();
+      remove(key);
+      if (bytes.length > slabSize) {
+        return;
+      }
+      SizeClass sizeClass = sizeClassOf(bytes.length);
+      while (index.size() >= size && (evictEldest(sizeClass) || evictEldest(null))) {
+        // make room
+      }
+      long chunk = allocate(sizeClass);
+      if (chunk < 0) {
+        return;
+      }
+      Entry entry = new Entry(key, sizeClass, chunk, bytes.length);
+      entry.lastUsed = ++clock;
+      ByteBuffer buffer = slabs[entry.slab()].duplicate();
+      buffer.position(entry.offset());
+      buffer.put(bytes);
+      index.put(key, entry);
+      sizeClass.entries.put(key, entry);
+      chunkEntries[entry.slab()][entry.offset() / sizeClass.chunkSize] = entry;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] bytes;
+    lock.lock();
+    try {
+      Entry entry = index.get(key);
+      if (entry == null) {
+        return null;
+      }
+      entry.sizeClass.entries.get(key); //touch
+      entry.lastUsed = ++clock;
+      bytes = new byte[entry.length];
+      ByteBuffer buffer = slabs[entry.slab()].duplicate();
+      buffer.position(entry.offset());
+      buffer.get(bytes);
+    } finally {
+      lock.unlock();
+    }
+    return SerializedCache.deserialize(bytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.lock();
+    try {
+      remove(key);
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Set<Object> getKeys() {
+    lock.lock();
+    try {
+      return new HashSet<Object>(index.keySet());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.lock();
+    try {
+      if (slabs == null) {
+        return;
+      }
+      index.clear();
+      for (SizeClass sizeClass : sizeClasses) {
+        sizeClass.reset();
+      }
+      spareSlabs.clear();
+      for (int i = 0; i < allocatedSlabs; i++) {
+        spareSlabs.push(i);
+        chunkEntries[i] = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * @return the number of off-heap bytes taken by slabs so far
+   */
+  public long getAllocatedBytes() {
+    lock.lock();
+    try {
+      return (long) allocatedSlabs * slabSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void checkNotStarted() {
+    if (slabs != null) {
+      throw new CacheException("Cannot reconfigure cache " + id + " once values have been put into it");
+    }
+  }
+
+  private void start() {
+    if (slabs != null) {
+      return;
+    }
+    int slabCount = (int) Math.max(1, maxBytes / slabSize);
+    slabs = new ByteBuffer[slabCount];
+    chunkEntries = new Entry[slabCount][];
+    spareSlabs = new ArrayDeque<Integer>();
+    int classes = 1;
+    for (long chunkSize = MIN_CHUNK_SIZE; chunkSize < slabSize; chunkSize <<= 1) {
+      classes++;
+    }
+    sizeClasses = new SizeClass[classes];
+    for (int i = 0; i < classes; i++) {
+      sizeClasses[i] = new SizeClass((int) Math.min((long) MIN_CHUNK_SIZE << i, slabSize));
+    }
+    if (file != null) {
+      try {
+        File mapped = new File(file);
+        mapped.deleteOnExit();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mapped, "rw");
+        randomAccessFile.setLength((long) slabCount * slabSize);
+        channel = randomAccessFile.getChannel();
+      } catch (IOException e) {
+        slabs = null;
+        throw new CacheException("Could not open file " + file + " for cache " + id + ".  Cause: " + e, e);
+      }
+    }
+  }
+
+  private SizeClass sizeClassOf(int length) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (sizeClass.chunkSize >= length) {
+        return sizeClass;
+      }
+    }
+    return sizeClasses[sizeClasses.length - 1];
+  }
+
+  private long allocate(SizeClass sizeClass) {
+    if (!sizeClass.freeChunks.isEmpty()) {
+      return sizeClass.freeChunks.pop();
+    }
+    if (sizeClass.currentSlab >= 0 && sizeClass.nextOffset + sizeClass.chunkSize <= slabSize) {
+      return chunkOf(sizeClass, sizeClass.currentSlab);
+    }
+    int slab = newSlab();
+    if (slab < 0) {
+      slab = reassignSlab(sizeClass);
+    }
+    if (slab >= 0) {
+      sizeClass.currentSlab = slab;
+      sizeClass.nextOffset = 0;
+      sizeClass.slabCount++;
+      chunkEntries[slab] = new Entry[slabSize / sizeClass.chunkSize];
+      return chunkOf(sizeClass, slab);
+    }
+    if (evictEldest(sizeClass)) {
+      return sizeClass.freeChunks.pop();
+    }
+    return -1;
+  }
+
+  /**
+   * Takes a slab from the size class whose least recently used entry is the oldest, if it is older than the one
+   * of the given size class, and evicts all the entries of that slab.
+   *
+   * @return the slab, or -1 if the size class should rather evict one of its own entries
+   */
+  private int reassignSlab(SizeClass sizeClass) {
+    SizeClass victim = null;
+    long victimLastUsed = Long.MAX_VALUE;
+    for (SizeClass candidate : sizeClasses) {
+      if (candidate == sizeClass || candidate.slabCount == 0) {
+        continue;
+      }
+      // a size class with slabs and no entries only holds free chunks
+      long lastUsed = candidate.entries.isEmpty() ? -1 : candidate.entries.values().iterator().next().lastUsed;
+      if (lastUsed < victimLastUsed) {
+        victim = candidate;
+        victimLastUsed = lastUsed;
+      }
+    }
+    if (victim == null
+        || (!sizeClass.entries.isEmpty() && sizeClass.entries.values().iterator().next().lastUsed <= victimLastUsed)) {
+      return -1;
+    }
+    int slab;
+    if (!victim.entries.isEmpty()) {
+      slab = victim.entries.values().iterator().next().slab();
+    } else if (!victim.freeChunks.isEmpty()) {
+      slab = (int) (victim.freeChunks.peek() >>> 32);
+    } else {
+      slab = victim.currentSlab;
+    }
+    for (Entry entry : chunkEntries[slab]) {
+      if (entry != null) {
+        index.remove(entry.key);
+        victim.entries.remove(entry.key);
+        if (metrics != null) {
+          metrics.recordEviction();
+        }
+      }
+    }
+    Iterator<Long> freeChunks = victim.freeChunks.iterator();
+    while (freeChunks.hasNext()) {
+      if ((int) (freeChunks.next() >>> 32) == slab) {
+        freeChunks.remove();
+      }
+    }
+    if (victim.currentSlab == slab) {
+      victim.currentSlab = -1;
+      victim.nextOffset = 0;
+    }
+    victim.slabCount--;
+    return slab;
+  }
+
+  private long chunkOf(SizeClass sizeClass, int slab) {
+    long chunk = ((long) slab << 32) | sizeClass.nextOffset;
+    sizeClass.nextOffset += sizeClass.chunkSize;
+    return chunk;
+  }
+
+  private int newSlab() {
+    if (!spareSlabs.isEmpty()) {
+      return spareSlabs.pop();
+    }
+    if (allocatedSlabs == slabs.length) {
+      return -1;
+    }
+    int slab = allocatedSlabs;
+    if (channel != null) {
+      try {
+        slabs[slab] = channel.map(FileChannel.MapMode.READ_WRITE, (long) slab * slabSize, slabSize);
+      } catch (IOException e) {
+        throw new CacheException("Could not map file " + file + " for cache " + id + ".  Cause: " + e, e);
+      }
+    } else {
+      slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+    }
+    allocatedSlabs++;
+    return slab;
+  }
+
+  /**
+   * Evicts the least recently used entry of the size class, or of the first size class that has entries if null.
+   */
+  private boolean evictEldest(SizeClass sizeClass) {
+    if (sizeClass == null) {
+      for (SizeClass candidate : sizeClasses) {
+        if (!candidate.entries.isEmpty()) {
+          sizeClass = candidate;
+          break;
+        }
+      }
+    }
+    if (sizeClass == null || sizeClass.entries.isEmpty()) {
+      return false;
+    }
+    remove(sizeClass.entries.keySet().iterator().next());
+    if (metrics != null) {
+      metrics.recordEviction();
+    }
+    return true;
+  }
+
+  private void remove(Object key) {
+    Entry entry = index.remove(key);
+    if (entry != null) {
+      entry.sizeClass.entries.remove(key);
+      entry.sizeClass.freeChunks.push(entry.chunk);
+      chunkEntries[entry.slab()][entry.offset() / entry.sizeClass.chunkSize] = null;
+    }
+  }
+
+  private static class SizeClass {
+    private final int chunkSize;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, .75F, true);
+    private final Deque<Long> freeChunks = new ArrayDeque<Long>();
+    private int currentSlab = -1;
+    private int nextOffset;
+    private int slabCount;
+
+    SizeClass(int chunkSize) {
+      this.chunkSize = chunkSize;
+    }
+
+    void reset() {
+      entries.clear();
+      freeChunks.clear();
+      currentSlab = -1;
+      nextOffset = 0;
+      slabCount = 0;
+    }
+  }
+
+  private static class Entry {
+    private final Object key;
+    private final SizeClass sizeClass;
+    private final long chunk;
+    private final int length;
+    private long lastUsed;
+
+    Entry(Object key, SizeClass sizeClass, long chunk, int length) {
+      this.key = key;
+      this.sizeClass = sizeClass;
+      this.chunk = chunk;
+      this.length = length;
+    }
+
+    int slab() {
+      return (int) (chunk >>> 32);
+    }
+
+    int offset() {
+      return (int) chunk;
+    }
+  }
+
+}
@@ -16,16 +16,19 @@
 package org.apache.ibatis.cache.impl;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EnumerableCache;
 
 /**
  * @author Clinton Begin
  */
-public class PerpetualCache implements Cache {
+public class PerpetualCache implements EnumerableCache {
 
   private final String id;
 
@@ -45,6 +48,11 @@ public class PerpetualCache implements Cache {
     return cache.size();
   }
 
+  @Override
+  public Set<Object> getKeys() {
+    return new HashSet<Object>(cache.keySet());
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cache.put(key, value);
@@ -0,0 +1,521 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EnumerableCache;
+
+/**
+ * Thread safe, size bounded cache with a W-TinyLFU eviction policy.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap}, so lookups never take a lock. A hit is only recorded
+ * in a small lossy, per-thread-striped buffer that is replayed into the policy by whichever thread
+ * manages to grab the eviction lock; if the lock is busy the reader simply moves on.
+ * <p>
+ * New entries are admitted into a small LRU window (1% of the size). Entries leaving the window
+ * compete with the eldest entry of the main segmented LRU (probation + protected) and the one that
+ * has been requested more often, according to a count-min sketch, is kept.
+ * <p>
+ * Since it does its own locking this cache is not wrapped by a {@code SynchronizedCache}. Select it with
+ * {@code <cache eviction="TINYLFU"/>}.
+ */
+public class TinyLfuCache implements EnumerableCache {
+
+  private static final int READ_BUFFER_SIZE = 32;
+  private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final ReadBuffer[] readBuffers;
+
+  // guarded by evictionLock
+  private final AccessOrderDeque window = new AccessOrderDeque();
+  private final AccessOrderDeque probation = new AccessOrderDeque();
+  private final AccessOrderDeque protectedSegment = new AccessOrderDeque();
+  private FrequencySketch sketch;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+  private CacheMetrics metrics;
+
+  public TinyLfuCache(String id) {
+    this.id = id;
+    this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setSize(final int size) {
+    if (size < 1) {
+      throw new CacheException("Cache size must be positive but was " + size);
+    }
+    evictionLock.lock();
+    try {
+      maximumSize = size;
+      windowMaximum = Math.max(1, size / 100);
+      protectedMaximum = (int) ((size - windowMaximum) * 0.8d);
+      sketch = new FrequencySketch(size);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * @param metrics counts the entries this cache evicts
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Node node = new Node(key, value);
+    Node prior = data.put(key, node);
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      if (prior != null) {
+        unlink(prior);
+      }
+      sketch.increment(key);
+      // a concurrent put, remove or clear may have already replaced this node
+      if (data.get(key) == node) {
+        node.segment = Node.WINDOW;
+        window.addLast(node);
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+    if (buffer.offer(node) && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    evictionLock.lock();
+    try {
+      unlink(node);
+    } finally {
+      evictionLock.unlock();
+    }
+    return node.value;
+  }
+
+  @Override
+  public Set<Object> getKeys() {
+    return new HashSet<Object>(data.keySet());
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      data.clear();
+      for (ReadBuffer buffer : readBuffers) {
+        buffer.clear();
+      }
+      window.clear();
+      probation.clear();
+      protectedSegment.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void drainReadBuffers() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+  }
+
+  private void onAccess(Node node) {
+    sketch.increment(node.key);
+    switch (node.segment) {
+      case Node.WINDOW:
+        window.moveToLast(node);
+        break;
+      case Node.PROBATION:
+        probation.remove(node);
+        node.segment = Node.PROTECTED;
+        protectedSegment.addLast(node);
+        while (protectedSegment.size > protectedMaximum) {
+          Node demoted = protectedSegment.pollFirst();
+          demoted.segment = Node.PROBATION;
+          probation.addLast(demoted);
+        }
+        break;
+      case Node.PROTECTED:
+        protectedSegment.moveToLast(node);
+        break;
+      default:
+        // already evicted or removed
+        break;
+    }
+  }
+
+  private void unlink(Node node) {
+    switch (node.segment) {
+      case Node.WINDOW:
+        window.remove(node);
+        break;
+      case Node.PROBATION:
+        probation.remove(node);
+        break;
+      case Node.PROTECTED:
+        protectedSegment.remove(node);
+        break;
+      default:
+        break;
+    }
+    node.segment = Node.RETIRED;
+  }
+
+  private void evict() {
+    while (window.size > windowMaximum) {
+      Node candidate = window.pollFirst();
+      if (probation.size + protectedSegment.size < maximumSize - windowMaximum) {
+        candidate.segment = Node.PROBATION;
+        probation.addLast(candidate);
+        continue;
+      }
+      Node victim = probation.size > 0 ? probation.peekFirst() : protectedSegment.peekFirst();
+      if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evictEntry(victim);
+        candidate.segment = Node.PROBATION;
+        probation.addLast(candidate);
+      } else {
+        candidate.segment = Node.RETIRED;
+        data.remove(candidate.key, candidate);
+        if (metrics != null) {
+          metrics.recordEviction();
+        }
+      }
+    }
+    // a smaller size may have been set after the cache was populated
+    while (probation.size + protectedSegment.size > Math.max(0, maximumSize - windowMaximum)) {
+      evictEntry(probation.size > 0 ? probation.peekFirst() : protectedSegment.peekFirst());
+    }
+  }
+
+  private void evictEntry(Node victim) {
+    unlink(victim);
+    data.remove(victim.key, victim);
+    if (metrics != null) {
+      metrics.recordEviction();
+    }
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x) - 1));
+  }
+
+  private static final class Node {
+    static final byte RETIRED = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+
+    final Object key;
+    final Object value;
+    // guarded by evictionLock
+    byte segment;
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Doubly linked list of nodes ordered from least to most recently used.
+   */
+  private static final class AccessOrderDeque {
+    private Node first;
+    private Node last;
+    int size;
+
+    Node peekFirst() {
+      return first;
+    }
+
+    Node pollFirst() {
+      Node node = first;
+      if (node != null) {
+        remove(node);
+      }
+      return node;
+    }
+
+    void addLast(Node node) {
+      node.prev = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+      size++;
+    }
+
+    void moveToLast(Node node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      size--;
+    }
+
+    void clear() {
+      for (Node node = first; node != null; ) {
+        Node next = node.next;
+        node.prev = null;
+        node.next = null;
+        node.segment = Node.RETIRED;
+        node = next;
+      }
+      first = null;
+      last = null;
+      size = 0;
+    }
+  }
+
+  /**
+   * Bounded ring buffer of recent hits. Offers that find the buffer full or lose a race are dropped,
+   * which only makes the recency information slightly less accurate.
+   */
+  private static final class ReadBuffer {
+    private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    /**
+     * @return true if the buffer is full and should be drained
+     */
+    boolean offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      long size = tail - head;
+      if (size >= READ_BUFFER_SIZE) {
+        return true;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+        return size + 1 >= READ_BUFFER_SIZE;
+      }
+      return false;
+    }
+
+    void drainTo(TinyLfuCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) (head & (READ_BUFFER_SIZE - 1));
+        Node node = buffer.get(index);
+        if (node == null) {
+          // the writer claimed the slot but has not published yet
+          break;
+        }
+        buffer.lazySet(index, null);
+        cache.onAccess(node);
+      }
+      readCounter = head;
+    }
+
+    void clear() {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) (head & (READ_BUFFER_SIZE - 1));
+        if (buffer.get(index) == null) {
+          break;
+        }
+        buffer.lazySet(index, null);
+      }
+      readCounter = head;
+    }
+  }
+
+  /**
+   * Count-min sketch with 4-bit counters that estimates how often a key has been requested.
+   * Counters are halved once the number of increments reaches ten times the cache size so that
+   * the history slowly ages out.
+   */
+  private static final class FrequencySketch {
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(int maximumSize) {
+      int length = ceilingPowerOfTwo(Math.min(maximumSize, 1 << 30));
+      this.table = new long[length];
+      this.tableMask = length - 1;
+      this.sampleSize = maximumSize > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * maximumSize;
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++size == sampleSize) {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int i, int j) {
+      int offset = j << 2;
+      long mask = 0xfL << offset;
+      if ((table[i] & mask) != mask) {
+        table[i] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset() {
+      int count = 0;
+      for (int i = 0; i < table.length; i++) {
+        count += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      size = (size - (count >>> 2)) / 2;
+    }
+
+    private int indexOf(int item, int i) {
+      long hash = (item + SEED[i]) * SEED[i];
+      hash += hash >>> 32;
+      return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+    }
+  }
+
+}
@@ -0,0 +1,373 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The connections of a {@link PooledDataSource}, idle or not, without a global lock.
+ * <p>
+ * Every connection is an {@link Entry} whose state is changed by compare-and-set, so that two threads never get
+ * the same connection. A thread first looks for an idle connection among the ones it returned recently, which
+ * are likely to be idle since other threads look for them last, then among all the connections. A thread that
+ * found none waits on a fair hand-off queue: while threads are waiting, a returned connection is not made idle
+ * but given, already reserved, to the thread that has been waiting the longest. The entries themselves are only
+ * copied when a connection is added or removed.
+ *
+ * @since 3.5.0
+ */
+final class ConnectionBag {
+
+  private static final int MAX_THREAD_ENTRIES = 16;
+
+  private enum State {
+    IDLE, RESERVED, REMOVED
+  }
+
+  /**
+   * A connection of the pool. It is either idle, reserved by a thread that is checking it out, claimed or closing,
+   * removed, or in use by the {@link PooledConnection} it was checked out as, so that a connection that was
+   * claimed and checked out again cannot be returned by its previous owner.
+   */
+  static final class Entry {
+
+    private final Connection realConnection;
+    private final StatementCache statementCache;
+    private final ConnectionState connectionState;
+    private final AtomicReference<Object> state = new AtomicReference<Object>(State.RESERVED);
+    private final long createdTimestamp;
+    private volatile long lastUsedTimestamp;
+    private volatile int connectionTypeCode;
+    private volatile long retireTimestamp = Long.MAX_VALUE;
+
+    Entry(Connection realConnection, StatementCache statementCache, ConnectionState connectionState) {
+      this.realConnection = realConnection;
+      this.statementCache = statementCache;
+      this.connectionState = connectionState;
+      this.createdTimestamp = System.currentTimeMillis();
+      this.lastUsedTimestamp = createdTimestamp;
+    }
+
+    Connection getRealConnection() {
+      return realConnection;
+    }
+
+    /**
+     * @return the prepared statements of the connection that are not in use, null if they are not cached
+     */
+    StatementCache getStatementCache() {
+      return statementCache;
+    }
+
+    /**
+     * @return the settings of the connection, null if they are not tracked
+     */
+    ConnectionState getConnectionState() {
+      return connectionState;
+    }
+
+    long getCreatedTimestamp() {
+      return createdTimestamp;
+    }
+
+    long getLastUsedTimestamp() {
+      return lastUsedTimestamp;
+    }
+
+    void setLastUsedTimestamp(long lastUsedTimestamp) {
+      this.lastUsedTimestamp = lastUsedTimestamp;
+    }
+
+    long getRetireTimestamp() {
+      return retireTimestamp;
+    }
+
+    void setRetireTimestamp(long retireTimestamp) {
+      this.retireTimestamp = retireTimestamp;
+    }
+
+    int getConnectionTypeCode() {
+      return connectionTypeCode;
+    }
+
+    void setConnectionTypeCode(int connectionTypeCode) {
+      this.connectionTypeCode = connectionTypeCode;
+    }
+
+    /**
+     * @return the connection this entry is checked out as, null if it is not in use
+     */
+    PooledConnection getOwner() {
+      Object current = state.get();
+      return current instanceof PooledConnection ? (PooledConnection) current : null;
+    }
+
+    /**
+     * Hands a reserved entry over to the connection it is checked out as.
+     *
+     * @return false if the connection was removed meanwhile
+     */
+    boolean lend(PooledConnection owner) {
+      return state.compareAndSet(State.RESERVED, owner);
+    }
+
+    /**
+     * Takes back a connection from its owner, e.g. because it was checked out for too long.
+     *
+     * @return false if the connection is not in use by this owner anymore
+     */
+    boolean claim(PooledConnection owner) {
+      return state.compareAndSet(owner, State.RESERVED);
+    }
+
+    private boolean reserve() {
+      return state.compareAndSet(State.IDLE, State.RESERVED);
+    }
+
+  }
+
+  private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+  private final ThreadLocal<List<WeakReference<Entry>>> threadEntries = new ThreadLocal<List<WeakReference<Entry>>>() {
+    @Override
+    protected List<WeakReference<Entry>> initialValue() {
+      return new ArrayList<WeakReference<Entry>>(MAX_THREAD_ENTRIES);
+    }
+  };
+  private final SynchronousQueue<Entry> handoffQueue = new SynchronousQueue<Entry>(true);
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  /**
+   * @return a reserved idle connection, null if none is idle
+   */
+  Entry borrow() {
+    List<WeakReference<Entry>> recent = threadEntries.get();
+    for (int i = recent.size() - 1; i >= 0; i--) {
+      Entry entry = recent.remove(i).get();
+      if (entry != null && reserve(entry)) {
+        return entry;
+      }
+    }
+    for (Entry entry : entries) {
+      if (reserve(entry)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for a connection to be returned.
+   *
+   * @return a reserved idle connection, null if none was returned in time
+   */
+  Entry poll(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    waiters.incrementAndGet();
+    try {
+      while (true) {
+        // a connection may have been returned before this thread was counted as waiting
+        Entry entry = borrow();
+        if (entry != null) {
+          return entry;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return null;
+        }
+        // handed over already reserved, so that no other thread can take it first
+        entry = handoffQueue.poll(remaining, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+          return entry;
+        }
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Adds a new connection, reserved by the calling thread.
+   */
+  void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  /**
+   * Returns a connection to the bag, to a waiting thread if there is one.
+   *
+   * @return false if the connection is not in use by this owner anymore
+   */
+  boolean requite(Entry entry, PooledConnection owner) {
+    if (!entry.state.compareAndSet(owner, State.RESERVED)) {
+      return false;
+    }
+    if (makeIdle(entry)) {
+      List<WeakReference<Entry>> recent = threadEntries.get();
+      if (recent.size() == MAX_THREAD_ENTRIES) {
+        recent.remove(0);
+      }
+      recent.add(new WeakReference<Entry>(entry));
+    }
+    return true;
+  }
+
+  /**
+   * Reserves an idle connection, e.g. to retire it.
+   *
+   * @return false if the connection is not idle
+   */
+  boolean reserve(Entry entry) {
+    if (entry.reserve()) {
+      idleCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Makes a reserved connection idle, e.g. a connection created in the background, giving it to a waiting thread
+   * if there is one.
+   */
+  void release(Entry entry) {
+    makeIdle(entry);
+  }
+
+  /**
+   * Removes a connection that is reserved or in use by the given owner.
+   *
+   * @return false if the connection was not in that state
+   */
+  boolean remove(Entry entry, Object expected) {
+    if (!entry.state.compareAndSet(expected == null ? State.RESERVED : expected, State.REMOVED)) {
+      return false;
+    }
+    entries.remove(entry);
+    return true;
+  }
+
+  /**
+   * Removes a connection whatever its state, invalidating the connection it is checked out as if it is in use.
+   *
+   * @return false if the connection was already removed
+   */
+  boolean retire(Entry entry) {
+    Object previous = entry.state.getAndSet(State.REMOVED);
+    if (previous == State.REMOVED) {
+      return false;
+    }
+    if (previous == State.IDLE) {
+      idleCount.decrementAndGet();
+    } else if (previous instanceof PooledConnection) {
+      ((PooledConnection) previous).invalidate();
+    }
+    entries.remove(entry);
+    return true;
+  }
+
+  /**
+   * @return every connection, in the order they were added
+   */
+  List<Entry> getEntries() {
+    return new ArrayList<Entry>(entries);
+  }
+
+  /**
+   * @return the connections in use, in the order they were added
+   */
+  List<Entry> getActiveEntries() {
+    List<Entry> active = new ArrayList<Entry>();
+    for (Entry entry : entries) {
+      if (entry.getOwner() != null) {
+        active.add(entry);
+      }
+    }
+    return active;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  int getActiveCount() {
+    int count = 0;
+    for (Entry entry : entries) {
+      if (entry.getOwner() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int getWaitingCount() {
+    return waiters.get();
+  }
+
+  /**
+   * Gives a reserved connection to the thread that has been waiting the longest, or makes it idle if no thread is
+   * waiting.
+   *
+   * @return true if the connection was left idle
+   */
+  private boolean makeIdle(Entry entry) {
+    while (true) {
+      if (handOff(entry)) {
+        return false;
+      }
+      if (!entry.state.compareAndSet(State.RESERVED, State.IDLE)) {
+        // removed meanwhile
+        return false;
+      }
+      idleCount.incrementAndGet();
+      // a thread that started waiting after the hand-off gave up may not have seen this connection idle
+      if (waiters.get() == 0 || !reserve(entry)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return false if no thread is waiting
+   */
+  private boolean handOff(Entry entry) {
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (handoffQueue.offer(entry)) {
+        return true;
+      }
+      // a waiting thread is about to poll the queue
+      if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(10000);
+      } else {
+        Thread.yield();
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The auto-commit, transaction isolation and read-only settings of a connection of the pool, as last applied to
+ * the connection and as last requested through the pool.
+ * <p>
+ * Settings are read from the connection once, then from this state. A setting requested before any statement was
+ * created is only applied when the connection is used for something else, so that the settings a transaction
+ * changes and resets, or sets to their current value, do not reach the driver at all.
+ *
+ * @since 3.5.0
+ */
+final class ConnectionState {
+
+  private static final Set<String> TRACKED_METHODS = new HashSet<String>(Arrays.asList(
+      "getAutoCommit", "setAutoCommit", "getTransactionIsolation", "setTransactionIsolation", "isReadOnly", "setReadOnly"));
+
+  private Boolean autoCommit;
+  private Boolean requestedAutoCommit;
+  private Integer transactionIsolation;
+  private Integer requestedTransactionIsolation;
+  private Boolean readOnly;
+  private Boolean requestedReadOnly;
+
+  static boolean isTracked(String methodName) {
+    return TRACKED_METHODS.contains(methodName);
+  }
+
+  /**
+   * Answers or records one of the tracked methods.
+   *
+   * @param immediate true to apply a setting at once, e.g. because statements ran and it may end a transaction
+   */
+  Object invoke(Connection connection, String methodName, Object[] args, boolean immediate) throws SQLException {
+    if ("getAutoCommit".equals(methodName)) {
+      return getAutoCommit(connection);
+    } else if ("setAutoCommit".equals(methodName)) {
+      requestedAutoCommit = (Boolean) args[0];
+    } else if ("getTransactionIsolation".equals(methodName)) {
+      if (requestedTransactionIsolation != null) {
+        return requestedTransactionIsolation;
+      }
+      if (transactionIsolation == null) {
+        transactionIsolation = connection.getTransactionIsolation();
+      }
+      return transactionIsolation;
+    } else if ("setTransactionIsolation".equals(methodName)) {
+      requestedTransactionIsolation = (Integer) args[0];
+    } else if ("isReadOnly".equals(methodName)) {
+      if (requestedReadOnly != null) {
+        return requestedReadOnly;
+      }
+      if (readOnly == null) {
+        readOnly = connection.isReadOnly();
+      }
+      return readOnly;
+    } else {
+      requestedReadOnly = (Boolean) args[0];
+    }
+    if (immediate) {
+      apply(connection);
+    }
+    return null;
+  }
+
+  /**
+   * @return the auto-commit mode requested last
+   */
+  boolean getAutoCommit(Connection connection) throws SQLException {
+    return requestedAutoCommit != null ? requestedAutoCommit : isAutoCommit(connection);
+  }
+
+  /**
+   * @return the auto-commit mode of the connection itself, which may differ from the one requested last
+   */
+  boolean isAutoCommit(Connection connection) throws SQLException {
+    if (autoCommit == null) {
+      autoCommit = connection.getAutoCommit();
+    }
+    return autoCommit;
+  }
+
+  /**
+   * @return the auto-commit mode of the connection, asked again since statements may have changed it, e.g.
+   *         {@code SET autocommit} or a stored procedure
+   */
+  boolean readAutoCommit(Connection connection) throws SQLException {
+    autoCommit = connection.getAutoCommit();
+    return autoCommit;
+  }
+
+  /**
+   * Forgets the settings of the connection, which may have been changed without being tracked.
+   */
+  void forget() {
+    autoCommit = null;
+    transactionIsolation = null;
+    readOnly = null;
+  }
+
+  /**
+   * Applies the settings requested since they were last applied, if they changed.
+   */
+  void apply(Connection connection) throws SQLException {
+    if (requestedAutoCommit != null) {
+      if (!requestedAutoCommit.equals(autoCommit)) {
+        connection.setAutoCommit(requestedAutoCommit);
+        autoCommit = requestedAutoCommit;
+      }
+      requestedAutoCommit = null;
+    }
+    if (requestedTransactionIsolation != null) {
+      if (!requestedTransactionIsolation.equals(transactionIsolation)) {
+        connection.setTransactionIsolation(requestedTransactionIsolation);
+        transactionIsolation = requestedTransactionIsolation;
+      }
+      requestedTransactionIsolation = null;
+    }
+    if (requestedReadOnly != null) {
+      if (!requestedReadOnly.equals(readOnly)) {
+        connection.setReadOnly(requestedReadOnly);
+        readOnly = requestedReadOnly;
+      }
+      requestedReadOnly = null;
+    }
+  }
+
+}
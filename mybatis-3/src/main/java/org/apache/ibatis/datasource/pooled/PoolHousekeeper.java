@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Runs the maintenance of a {@link PooledDataSource} in the background: it retires the connections that are past
+ * their lifetime or idle for too long and creates the connections that keep the minimum number of idle connections,
+ * in parallel, so that checking out a connection does not wait for a new one to be created. It also samples the
+ * timelines of the {@link PoolMetrics} of the pools.
+ * <p>
+ * All pools share a single housekeeping thread and a few threads creating connections. A housekeeper only holds
+ * its pool weakly, and stops once the pool was garbage collected.
+ *
+ * @since 3.5.0
+ */
+final class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private static final int FILL_THREADS = 4;
+
+  private static ScheduledExecutorService sharedScheduler;
+  private static ThreadPoolExecutor sharedFiller;
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+  }
+
+  /**
+   * Runs the housekeeping of a pool now, then every period.
+   */
+  static PoolHousekeeper start(PooledDataSource dataSource, long periodMillis) {
+    PoolHousekeeper housekeeper = new PoolHousekeeper(dataSource);
+    housekeeper.future = getScheduler().scheduleWithFixedDelay(housekeeper, 0, periodMillis, TimeUnit.MILLISECONDS);
+    return housekeeper;
+  }
+
+  /**
+   * Samples the timelines of the metrics of a pool every period, until cancelled or the metrics are not in use.
+   */
+  static ScheduledFuture<?> sample(PoolMetrics metrics, long periodMillis) {
+    Sampler sampler = new Sampler(metrics);
+    sampler.future = getScheduler().scheduleWithFixedDelay(sampler, 0, periodMillis, TimeUnit.MILLISECONDS);
+    return sampler.future;
+  }
+
+  /**
+   * Creates a connection on one of the threads shared by all pools.
+   */
+  static void fill(Runnable task) {
+    getFiller().execute(task);
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource pool = dataSource.get();
+    if (pool == null) {
+      stop();
+      return;
+    }
+    try {
+      pool.retireConnections();
+      pool.fillPool();
+    } catch (RuntimeException e) {
+      // an exception would cancel the next runs
+      log.error("Pool housekeeping failed. Cause: " + e, e);
+    }
+  }
+
+  void stop() {
+    ScheduledFuture<?> scheduled = future;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getScheduler() {
+    if (sharedScheduler == null) {
+      sharedScheduler = new ScheduledThreadPoolExecutor(1, new PoolThreadFactory("mybatis-pool-housekeeper-"));
+    }
+    return sharedScheduler;
+  }
+
+  private static synchronized ThreadPoolExecutor getFiller() {
+    if (sharedFiller == null) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(FILL_THREADS, FILL_THREADS, 60L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new PoolThreadFactory("mybatis-pool-filler-"));
+      pool.allowCoreThreadTimeOut(true);
+      sharedFiller = pool;
+    }
+    return sharedFiller;
+  }
+
+  private static class Sampler implements Runnable {
+
+    private final WeakReference<PoolMetrics> metrics;
+    private volatile ScheduledFuture<?> future;
+
+    Sampler(PoolMetrics metrics) {
+      this.metrics = new WeakReference<PoolMetrics>(metrics);
+    }
+
+    @Override
+    public void run() {
+      PoolMetrics sampled = metrics.get();
+      if (sampled != null) {
+        sampled.sample();
+      } else if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private static class PoolThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    PoolThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Receives the events of a {@link PooledDataSource}, see {@link PooledDataSource#addPoolListener(PoolListener)}.
+ * <p>
+ * Listeners are called by the thread that checks out, returns, creates or closes the connection, without any lock
+ * held, so they should be quick and must be thread-safe. An exception thrown by a listener is logged and ignored.
+ *
+ * @since 3.5.0
+ */
+public interface PoolListener {
+
+  /**
+   * @param nanos how long the driver took to open the connection
+   */
+  void connectionCreated(long nanos);
+
+  /**
+   * A connection was closed: retired, found bad, beyond the idle connections or closed by
+   * {@link PooledDataSource#forceCloseAll()}.
+   */
+  void connectionClosed();
+
+  /**
+   * @param nanos how long the validation, and the ping query if one was run, took
+   * @param valid false if the connection was found bad
+   */
+  void connectionValidated(long nanos, boolean valid);
+
+  /**
+   * @param waitNanos how long the caller waited for the connection, including its creation and validation
+   */
+  void connectionCheckedOut(long waitNanos);
+
+  /**
+   * @param usageNanos how long the connection was checked out
+   */
+  void connectionReturned(long usageNanos);
+
+  /**
+   * A checkout failed because too many threads were waiting or the checkout timed out.
+   */
+  void checkoutRejected();
+
+}
@@ -0,0 +1,261 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a {@link PooledDataSource}: how long checkouts waited and connections were used, how long connections
+ * took to create and validate, and the number of active, idle and waiting connections now and over the last
+ * minutes.
+ * <p>
+ * The events are recorded in atomic counters and histograms without taking any lock of the pool, so the metrics of
+ * a pool are always on. The timelines are only sampled, every {@link #SAMPLING_PERIOD} milliseconds, while the
+ * pool is watched: from the registration of its MBean or the addition of a {@link PoolListener} until
+ * {@link PooledDataSource#forceCloseAll()}. See {@link PooledDataSource#getPoolMetrics()}.
+ *
+ * @since 3.5.0
+ */
+public class PoolMetrics implements PoolListener, PoolMetricsMBean {
+
+  public static final long SAMPLING_PERIOD = 1000;
+  public static final int TIMELINE_SIZE = 300;
+
+  private final ConnectionBag bag;
+  private final TimeHistogram waitTimes = new TimeHistogram();
+  private final TimeHistogram usageTimes = new TimeHistogram();
+  private final TimeHistogram creationTimes = new TimeHistogram();
+  private final TimeHistogram validationTimes = new TimeHistogram();
+  private final AtomicLong closedConnections = new AtomicLong();
+  private final AtomicLong failedValidations = new AtomicLong();
+  private final AtomicLong rejectedCheckouts = new AtomicLong();
+
+  private final long[] timestamps = new long[TIMELINE_SIZE];
+  private final int[] activeConnections = new int[TIMELINE_SIZE];
+  private final int[] idleConnections = new int[TIMELINE_SIZE];
+  private final int[] waitingThreads = new int[TIMELINE_SIZE];
+  private int samples;
+  private ScheduledFuture<?> sampling;
+
+  PoolMetrics(ConnectionBag bag) {
+    this.bag = bag;
+  }
+
+  @Override
+  public void connectionCreated(long nanos) {
+    creationTimes.record(nanos);
+  }
+
+  @Override
+  public void connectionClosed() {
+    closedConnections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionValidated(long nanos, boolean valid) {
+    validationTimes.record(nanos);
+    if (!valid) {
+      failedValidations.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void connectionCheckedOut(long waitNanos) {
+    waitTimes.record(waitNanos);
+  }
+
+  @Override
+  public void connectionReturned(long usageNanos) {
+    usageTimes.record(usageNanos);
+  }
+
+  @Override
+  public void checkoutRejected() {
+    rejectedCheckouts.incrementAndGet();
+  }
+
+  synchronized void startSampling() {
+    if (sampling == null) {
+      sampling = PoolHousekeeper.sample(this, SAMPLING_PERIOD);
+    }
+  }
+
+  synchronized void stopSampling() {
+    if (sampling != null) {
+      sampling.cancel(false);
+      sampling = null;
+    }
+  }
+
+  synchronized boolean isSampling() {
+    return sampling != null;
+  }
+
+  /**
+   * Adds the current number of active, idle and waiting connections to the timelines, dropping the oldest sample
+   * once they are full.
+   */
+  public synchronized void sample() {
+    int index = samples % TIMELINE_SIZE;
+    timestamps[index] = System.currentTimeMillis();
+    activeConnections[index] = bag.getActiveCount();
+    idleConnections[index] = bag.getIdleCount();
+    waitingThreads[index] = bag.getWaitingCount();
+    samples++;
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return bag.getActiveCount();
+  }
+
+  @Override
+  public int getIdleConnections() {
+    return bag.getIdleCount();
+  }
+
+  @Override
+  public int getTotalConnections() {
+    return bag.size();
+  }
+
+  @Override
+  public int getWaitingThreads() {
+    return bag.getWaitingCount();
+  }
+
+  @Override
+  public long getCheckouts() {
+    return waitTimes.getCount();
+  }
+
+  @Override
+  public long getRejectedCheckouts() {
+    return rejectedCheckouts.get();
+  }
+
+  @Override
+  public double getAverageWaitMillis() {
+    return waitTimes.getAverageMillis();
+  }
+
+  @Override
+  public long[] getWaitTimeHistogram() {
+    return waitTimes.getBuckets();
+  }
+
+  @Override
+  public double getAverageUsageMillis() {
+    return usageTimes.getAverageMillis();
+  }
+
+  @Override
+  public long[] getUsageTimeHistogram() {
+    return usageTimes.getBuckets();
+  }
+
+  @Override
+  public long getCreatedConnections() {
+    return creationTimes.getCount();
+  }
+
+  @Override
+  public long getClosedConnections() {
+    return closedConnections.get();
+  }
+
+  @Override
+  public double getAverageCreationMillis() {
+    return creationTimes.getAverageMillis();
+  }
+
+  @Override
+  public long[] getCreationTimeHistogram() {
+    return creationTimes.getBuckets();
+  }
+
+  @Override
+  public long getValidations() {
+    return validationTimes.getCount();
+  }
+
+  @Override
+  public long getFailedValidations() {
+    return failedValidations.get();
+  }
+
+  @Override
+  public double getAverageValidationMillis() {
+    return validationTimes.getAverageMillis();
+  }
+
+  @Override
+  public long[] getValidationTimeHistogram() {
+    return validationTimes.getBuckets();
+  }
+
+  /**
+   * @return the exclusive upper bound, in milliseconds, of every bucket of the histograms but the last one
+   */
+  @Override
+  public long[] getBucketLimits() {
+    return TimeHistogram.BUCKET_LIMITS.clone();
+  }
+
+  @Override
+  public synchronized long[] getTimelineTimestamps() {
+    int count = Math.min(samples, TIMELINE_SIZE);
+    long[] timeline = new long[count];
+    for (int i = 0; i < count; i++) {
+      timeline[i] = timestamps[(samples - count + i) % TIMELINE_SIZE];
+    }
+    return timeline;
+  }
+
+  @Override
+  public synchronized int[] getActiveConnectionsTimeline() {
+    return timeline(activeConnections);
+  }
+
+  @Override
+  public synchronized int[] getIdleConnectionsTimeline() {
+    return timeline(idleConnections);
+  }
+
+  @Override
+  public synchronized int[] getWaitingThreadsTimeline() {
+    return timeline(waitingThreads);
+  }
+
+  private int[] timeline(int[] values) {
+    int count = Math.min(samples, TIMELINE_SIZE);
+    int[] timeline = new int[count];
+    for (int i = 0; i < count; i++) {
+      timeline[i] = values[(samples - count + i) % TIMELINE_SIZE];
+    }
+    return timeline;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolMetrics[active=" + getActiveConnections() + ", idle=" + getIdleConnections() + ", waiting="
+        + getWaitingThreads() + ", checkouts=" + getCheckouts() + ", averageWaitMillis=" + getAverageWaitMillis()
+        + ", averageUsageMillis=" + getAverageUsageMillis() + ", created=" + getCreatedConnections() + ", closed="
+        + getClosedConnections() + ", rejected=" + getRejectedCheckouts() + "]";
+  }
+
+}
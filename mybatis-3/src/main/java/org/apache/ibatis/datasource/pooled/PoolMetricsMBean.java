@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * JMX view of the {@link PoolMetrics} of a pool. The counts are totals since the pool was created, rates are left
+ * to the monitoring tool.
+ *
+ * @since 3.5.0
+ */
+public interface PoolMetricsMBean {
+
+  int getActiveConnections();
+
+  int getIdleConnections();
+
+  int getTotalConnections();
+
+  int getWaitingThreads();
+
+  long getCheckouts();
+
+  long getRejectedCheckouts();
+
+  double getAverageWaitMillis();
+
+  /**
+   * @return the number of checkouts per bucket of wait time, see {@link #getBucketLimits()}
+   */
+  long[] getWaitTimeHistogram();
+
+  double getAverageUsageMillis();
+
+  /**
+   * @return the number of returned connections per bucket of time they were checked out, see
+   *         {@link #getBucketLimits()}
+   */
+  long[] getUsageTimeHistogram();
+
+  long getCreatedConnections();
+
+  long getClosedConnections();
+
+  double getAverageCreationMillis();
+
+  long[] getCreationTimeHistogram();
+
+  long getValidations();
+
+  long getFailedValidations();
+
+  double getAverageValidationMillis();
+
+  long[] getValidationTimeHistogram();
+
+  long[] getBucketLimits();
+
+  /**
+   * @return when the samples of the timelines were taken, oldest first
+   */
+  long[] getTimelineTimestamps();
+
+  int[] getActiveConnectionsTimeline();
+
+  int[] getIdleConnectionsTimeline();
+
+  int[] getWaitingThreadsTimeline();
+
+}
@@ -15,75 +15,112 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * The statistics of a {@link PooledDataSource}. They are updated without locking, so they may be slightly
+ * inconsistent with each other while connections are checked out and returned.
+ *
  * @author Clinton Begin
  */
 public class PoolState {
 
   protected PooledDataSource dataSource;
 
-  protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
-  protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
-  protected long requestCount = 0;
-  protected long accumulatedRequestTime = 0;
-  protected long accumulatedCheckoutTime = 0;
-  protected long claimedOverdueConnectionCount = 0;
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
-  protected long accumulatedWaitTime = 0;
-  protected long hadToWaitCount = 0;
-  protected long badConnectionCount = 0;
+  protected final AtomicLong requestCount = new AtomicLong();
+  protected final AtomicLong accumulatedRequestTime = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTime = new AtomicLong();
+  protected final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTimeOfOverdueConnections = new AtomicLong();
+  protected final AtomicLong accumulatedWaitTime = new AtomicLong();
+  protected final AtomicLong hadToWaitCount = new AtomicLong();
+  protected final AtomicLong badConnectionCount = new AtomicLong();
+  protected final AtomicLong rejectedCount = new AtomicLong();
+  protected final AtomicLong statementCacheHitCount = new AtomicLong();
+  protected final AtomicLong statementCacheMissCount = new AtomicLong();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    return requestCount.get();
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageRequestTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedRequestTime.get() / requests;
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.get();
+    return waits == 0 ? 0 : accumulatedWaitTime.get() / waits;
+
+  }
+
+  public long getHadToWaitCount() {
+    return hadToWaitCount.get();
+  }
+
+  public long getBadConnectionCount() {
+    return badConnectionCount.get();
+  }
+
+  /**
+   * @return the number of requests that failed because too many threads were waiting or the checkout timed out
+   * @since 3.5.0
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
 
+  /**
+   * @return the number of prepared statements that were taken from the cache of their connection
+   * @since 3.5.0
+   */
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.get();
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  /**
+   * @return the number of prepared statements that were prepared because none was cached
+   * @since 3.5.0
+   */
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.get();
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public double getStatementCacheHitRatio() {
+    long hits = getStatementCacheHitCount();
+    long requests = hits + getStatementCacheMissCount();
+    return requests == 0 ? 0 : (double) hits / requests;
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.get();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getAverageOverdueCheckoutTime() {
+    long claims = claimedOverdueConnectionCount.get();
+    return claims == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.get() / claims;
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.get() / requests;
   }
 
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  public int getIdleConnectionCount() {
+    return dataSource.getConnectionBag().getIdleCount();
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  public int getActiveConnectionCount() {
+    return dataSource.getConnectionBag().getActiveCount();
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -97,6 +134,14 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolMaxConnectionLifetime      ").append(dataSource.poolMaximumConnectionLifetime);
+    builder.append("\n poolMaxIdleTime                ").append(dataSource.poolMaximumIdleTime);
+    builder.append("\n poolHousekeepingPeriod         ").append(dataSource.poolHousekeepingPeriod);
+    builder.append("\n poolCheckoutTimeout            ").append(dataSource.poolCheckoutTimeout);
+    builder.append("\n poolMaxWaitingThreads          ").append(dataSource.poolMaximumWaitingThreads);
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolPreparedStatementCacheSize);
+    builder.append("\n poolTrackConnectionState       ").append(dataSource.poolTrackConnectionState);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -108,6 +153,8 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n rejectedCount                  ").append(getRejectedCount());
+    builder.append("\n statementCacheHitRatio         ").append(getStatementCacheHitRatio());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -19,7 +19,13 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -29,17 +35,29 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
+  private static final String UNWRAP = "unwrap";
+  private static final Set<String> END_OF_TRANSACTION_METHODS = new HashSet<String>(Arrays.asList("commit", "rollback"));
+  private static final Set<String> NO_STATEMENT_METHODS = new HashSet<String>(Arrays.asList(
+      "isClosed", "isValid", "getWarnings", "clearWarnings", "unwrap", "isWrapperFor"));
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private final int hashCode;
   private final PooledDataSource dataSource;
   private final Connection realConnection;
   private final Connection proxyConnection;
+  private final ConnectionBag.Entry entry;
+  private final StatementCache statementCache;
+  private final List<PooledStatement> openStatements;
+  private final ConnectionState connectionState;
+  private boolean dirty;
+  private boolean untracked;
   private long checkoutTimestamp;
+  private long checkoutNanoTime;
   private long createdTimestamp;
   private long lastUsedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -48,9 +66,29 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, null);
+  }
+
+  /*
+   * Constructor for a checkout of a connection of the pool
+   *
+   * @param entry - the connection of the pool that is checked out
+   * @param dataSource - the dataSource that the connection is from
+   */
+  PooledConnection(ConnectionBag.Entry entry, PooledDataSource dataSource) {
+    this(entry.getRealConnection(), dataSource, entry);
+    this.createdTimestamp = entry.getCreatedTimestamp();
+    this.lastUsedTimestamp = entry.getLastUsedTimestamp();
+  }
+
+  private PooledConnection(Connection connection, PooledDataSource dataSource, ConnectionBag.Entry entry) {
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
+    this.entry = entry;
+    this.statementCache = entry != null ? entry.getStatementCache() : null;
+    this.openStatements = statementCache != null ? new ArrayList<PooledStatement>() : null;
+    this.connectionState = entry != null ? entry.getConnectionState() : null;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
@@ -82,6 +120,25 @@ class PooledConnection implements InvocationHandler {
     return realConnection;
   }
 
+  /*
+   * Getter for the actual connection, for a caller that may use it without going through this proxy
+   *
+   * @return The connection, whose settings are asked again when it is returned
+   */
+  Connection getUntrackedConnection() {
+    untracked = true;
+    return realConnection;
+  }
+
+  /*
+   * Getter for the connection of the pool this checkout is for
+   *
+   * @return The entry, null if the connection is not from a pool
+   */
+  ConnectionBag.Entry getEntry() {
+    return entry;
+  }
+
   /*
    * Getter for the proxy for the connection
    *
@@ -190,6 +247,14 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  long getCheckoutNanoTime() {
+    return checkoutNanoTime;
+  }
+
+  void setCheckoutNanoTime(long checkoutNanoTime) {
+    this.checkoutNanoTime = checkoutNanoTime;
+  }
+
   /*
    * Getter for the time that this connection has been checked out
    *
@@ -241,6 +306,29 @@ class PooledConnection implements InvocationHandler {
           // issue #579 toString() should never fail
           // throw an SQLException instead of a Runtime
           checkConnection();
+          if (UNWRAP.equals(methodName)) {
+            // the driver's own connection may be used without going through this proxy
+            untracked = true;
+          }
+          if (connectionState != null) {
+            if (ConnectionState.isTracked(methodName)) {
+              // once statements ran, changing the auto-commit mode may commit, so it cannot wait
+              return connectionState.invoke(realConnection, methodName, args, dirty);
+            }
+            if (END_OF_TRANSACTION_METHODS.contains(methodName) && args == null) {
+              if (!dirty && !untracked && !connectionState.getAutoCommit(realConnection)) {
+                // nothing ran since the checkout, the connection was rolled back when it was returned
+                return null;
+              }
+              connectionState.apply(realConnection);
+            } else if (!NO_STATEMENT_METHODS.contains(methodName)) {
+              connectionState.apply(realConnection);
+              dirty = true;
+            }
+          }
+          if (statementCache != null && PREPARE_STATEMENT.equals(methodName)) {
+            return prepareStatement(method, args);
+          }
         }
         return method.invoke(realConnection, args);
       } catch (Throwable t) {
@@ -249,6 +337,69 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
+  /*
+   * Rolls back the connection, unless nothing can have happened since the checkout
+   */
+  void rollbackIfNeeded() throws SQLException {
+    if (connectionState == null) {
+      if (!realConnection.getAutoCommit()) {
+        realConnection.rollback();
+      }
+    } else if (dirty || untracked) {
+      if (untracked) {
+        connectionState.forget();
+      }
+      // not the tracked mode, statements may have started a transaction behind the tracking
+      if (!connectionState.readAutoCommit(realConnection)) {
+        realConnection.rollback();
+      }
+    }
+  }
+
+  /*
+   * @return True if the connection keeps track of its settings, so that it is rolled back when returned only
+   */
+  boolean isStateTracked() {
+    return connectionState != null;
+  }
+
+  private PreparedStatement prepareStatement(Method method, Object[] args) throws Exception {
+    StatementCache.Key key = new StatementCache.Key(method, args);
+    PreparedStatement statement = statementCache.take(key);
+    if (statement != null && !statement.isClosed()) {
+      dataSource.getPoolState().statementCacheHitCount.incrementAndGet();
+    } else {
+      dataSource.getPoolState().statementCacheMissCount.incrementAndGet();
+      statement = (PreparedStatement) method.invoke(realConnection, args);
+    }
+    PooledStatement pooledStatement = new PooledStatement(this, key, statement);
+    openStatements.add(pooledStatement);
+    return pooledStatement.getProxyStatement();
+  }
+
+  /*
+   * Puts a statement that was closed back into the cache, or closes it if it cannot be reused
+   *
+   * @param statement - the statement that was closed
+   */
+  void closeStatement(PooledStatement statement) {
+    openStatements.remove(statement);
+    if (!valid || !statement.reset() || !statementCache.offer(statement.getKey(), statement.getRealStatement())) {
+      StatementCache.close(statement.getRealStatement());
+    }
+  }
+
+  /*
+   * Closes the statements that are still open, as closing a connection does
+   */
+  void closeStatements() {
+    if (openStatements != null) {
+      for (PooledStatement statement : new ArrayList<PooledStatement>(openStatements)) {
+        statement.close();
+      }
+    }
+  }
+
   private void checkConnection() throws SQLException {
     if (!valid) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
@@ -19,16 +19,25 @@ import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
+import java.lang.management.ManagementFactory;
 import java.sql.*;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
- * This is a simple, synchronous, thread-safe database connection pool.
+ * This is a simple, thread-safe database connection pool.
+ * <p>
+ * Connections are kept in a {@link ConnectionBag} so that checking out and returning a connection does not take
+ * a global lock: connections are validated, rolled back and closed by the calling thread alone.
  *
  * @author Clinton Begin
  */
@@ -36,8 +45,18 @@ public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  private final ConnectionBag bag = new ConnectionBag();
+
+  private final AtomicInteger connectionCount = new AtomicInteger();
+
+  private final AtomicInteger pendingConnectionCount = new AtomicInteger();
+
   private final PoolState state = new PoolState(this);
 
+  private final PoolMetrics metrics = new PoolMetrics(bag);
+
+  private final List<PoolListener> listeners = new CopyOnWriteArrayList<PoolListener>();
+
   private final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
@@ -49,8 +68,24 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumConnectionLifetime;
+  protected int poolMaximumIdleTime;
+  protected int poolHousekeepingPeriod = 30000;
+  protected int poolCheckoutTimeout;
+  protected int poolMaximumWaitingThreads;
+  protected int poolPreparedStatementCacheSize;
+  protected boolean poolTrackConnectionState = true;
+  protected boolean poolMBeanEnabled;
+  protected String poolName;
 
-  private int expectedConnectionTypeCode;
+  private volatile int expectedConnectionTypeCode;
+
+  private volatile PoolHousekeeper housekeeper;
+
+  private volatile boolean monitored;
+
+  private ObjectName mbeanName;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -231,6 +266,152 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The number of idle connections kept ready in the background, at most poolMaximumIdleConnections
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which a connection is closed, once it is not in use anymore. Connections are retired up to
+   * 2.5% earlier so that connections created together are not all replaced together.
+   *
+   * @param milliseconds the maximum lifetime of a connection, 0 for no limit
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumConnectionLifetime(int milliseconds) {
+    this.poolMaximumConnectionLifetime = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which an idle connection is closed, as long as more than poolMinimumIdleConnections are idle.
+   *
+   * @param milliseconds the maximum idle time of a connection, 0 for no limit
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumIdleTime(int milliseconds) {
+    this.poolMaximumIdleTime = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * How often idle connections are retired and the minimum idle connections are created in the background.
+   *
+   * @param milliseconds the time between two runs of the housekeeping
+   *
+   * @since 3.5.0
+   */
+  public void setPoolHousekeepingPeriod(int milliseconds) {
+    this.poolHousekeepingPeriod = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * The overall time a connection can be waited for before the request fails. While waiting, an overdue connection
+   * is looked for every poolTimeToWait.
+   *
+   * @param milliseconds the maximum time to wait for a connection, 0 to wait as long as it takes
+   *
+   * @since 3.5.0
+   */
+  public void setPoolCheckoutTimeout(int milliseconds) {
+    this.poolCheckoutTimeout = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of threads that can wait for a connection, requests beyond are rejected at once.
+   *
+   * @param poolMaximumWaitingThreads the maximum number of waiting threads, 0 for no limit
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumWaitingThreads(int poolMaximumWaitingThreads) {
+    this.poolMaximumWaitingThreads = poolMaximumWaitingThreads;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of prepared statements cached by each connection, so that a statement prepared again on the same
+   * connection, even in another transaction, is not parsed again. A statement goes back to the cache when it is
+   * closed, and is found again by its SQL and its result set type, concurrency and generated keys options.
+   *
+   * @param poolPreparedStatementCacheSize the maximum number of cached statements per connection, 0 for none
+   *
+   * @since 3.5.0
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /*
+   * Determines if the pool keeps track of the auto-commit, transaction isolation and read-only settings of its
+   * connections, and of the statements that ran since a checkout, to only call the driver when they change and to
+   * only roll back connections that may be in a transaction. Changes made on an unwrapped connection are not seen.
+   *
+   * @param poolTrackConnectionState True to track the state of the connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolTrackConnectionState(boolean poolTrackConnectionState) {
+    this.poolTrackConnectionState = poolTrackConnectionState;
+    forceCloseAll();
+  }
+
+  /*
+   * Registers the {@link PoolMetrics} of the pool as an MBean of the platform MBean server, named
+   * org.apache.ibatis:type=PoolMetrics,name="poolName", when the first connection is checked out, until
+   * {@link #forceCloseAll()}. The timelines of the metrics are only sampled while it is registered or a listener
+   * is added.
+   *
+   * @param poolMBeanEnabled True to register the metrics
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMBeanEnabled(boolean poolMBeanEnabled) {
+    this.poolMBeanEnabled = poolMBeanEnabled;
+  }
+
+  /*
+   * The name of the pool in its MBean name, defaults to a unique id
+   *
+   * @param poolName The name of the pool
+   *
+   * @since 3.5.0
+   */
+  public void setPoolName(String poolName) {
+    this.poolName = poolName;
+  }
+
+  /*
+   * Adds a listener that is told of every connection that is created, validated, checked out, returned or closed,
+   * and starts sampling the timelines of the {@link PoolMetrics}
+   *
+   * @param listener The listener
+   *
+   * @since 3.5.0
+   */
+  public void addPoolListener(PoolListener listener) {
+    listeners.add(listener);
+    if (monitored) {
+      metrics.startSampling();
+    }
+  }
+
+  public void removePoolListener(PoolListener listener) {
+    listeners.remove(listener);
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -291,32 +472,59 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumConnectionLifetime() {
+    return poolMaximumConnectionLifetime;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolHousekeepingPeriod() {
+    return poolHousekeepingPeriod;
+  }
+
+  public int getPoolCheckoutTimeout() {
+    return poolCheckoutTimeout;
+  }
+
+  public int getPoolMaximumWaitingThreads() {
+    return poolMaximumWaitingThreads;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public boolean isPoolTrackConnectionState() {
+    return poolTrackConnectionState;
+  }
+
+  public boolean isPoolMBeanEnabled() {
+    return poolMBeanEnabled;
+  }
+
+  public String getPoolName() {
+    return poolName;
+  }
+
   /*
-   * Closes all active and idle connections in the pool
+   * Closes all active and idle connections in the pool, and unregisters its MBean
    */
   public void forceCloseAll() {
-    synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
-      for (int i = state.activeConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.activeConnections.remove(i - 1);
-          conn.invalidate();
-
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
-          }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
-        }
-      }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
+    stopHousekeeper();
+    stopMonitoring();
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    for (ConnectionBag.Entry entry : bag.getEntries()) {
+      if (bag.retire(entry)) {
+        connectionCount.decrementAndGet();
+        fireConnectionClosed();
         try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
-          conn.invalidate();
-
-          Connection realConn = conn.getRealConnection();
+          Connection realConn = entry.getRealConnection();
           if (!realConn.getAutoCommit()) {
             realConn.rollback();
           }
@@ -335,45 +543,62 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
+  /*
+   * @return The statistics of the pool, always recorded
+   *
+   * @since 3.5.0
+   */
+  public PoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  ConnectionBag getConnectionBag() {
+    return bag;
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
-
-    synchronized (state) {
-      state.activeConnections.remove(conn);
-      if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          conn.invalidate();
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
-          }
-          state.notifyAll();
-        } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          conn.getRealConnection().close();
-          if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
-          }
-          conn.invalidate();
+    ConnectionBag.Entry entry = conn.getEntry();
+    conn.closeStatements();
+    if (conn.isValid()) {
+      state.accumulatedCheckoutTime.addAndGet(conn.getCheckoutTime());
+      fireConnectionReturned(System.nanoTime() - conn.getCheckoutNanoTime());
+      try {
+        conn.rollbackIfNeeded();
+      } catch (SQLException e) {
+        if (discard(entry, conn)) {
+          replaceForWaitersIfNeeded();
         }
-      } else {
+        throw e;
+      }
+      entry.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+      conn.invalidate();
+      if (bag.getIdleCount() < poolMaximumIdleConnections && entry.getConnectionTypeCode() == expectedConnectionTypeCode
+          && !isExpired(entry, System.currentTimeMillis()) && bag.requite(entry, conn)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+        }
+      } else if (discard(entry, conn)) {
         if (log.isDebugEnabled()) {
-          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
         }
-        state.badConnectionCount++;
+        replaceForWaitersIfNeeded();
+        fillPoolIfNeeded();
+      } else {
+        // claimed as overdue or closed by forceCloseAll() meanwhile
+        state.badConnectionCount.incrementAndGet();
+      }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.incrementAndGet();
+      // still owned if the ping failed, already taken back if it was claimed or closed
+      if (discard(entry, conn)) {
+        replaceForWaitersIfNeeded();
       }
     }
   }
@@ -382,106 +607,110 @@ public class PooledDataSource implements DataSource {
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
+    long requestNanoTime = System.nanoTime();
     int localBadConnectionCount = 0;
+    startMonitoringIfNeeded();
+    startHousekeeperIfNeeded();
 
     while (conn == null) {
-      synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
-          // Pool has available connection
-          conn = state.idleConnections.remove(0);
-          if (log.isDebugEnabled()) {
-            log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
-          }
-        } else {
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
+      ConnectionBag.Entry entry = bag.borrow();
+      if (entry != null) {
+        // Pool has available connection
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + entry.getRealConnection().hashCode() + " from pool.");
+        }
+      } else if (reserveConnection()) {
+        // Can create new connection
+        try {
+          entry = createEntry();
+        } catch (SQLException e) {
+          connectionCount.decrementAndGet();
+          throw e;
+        } catch (RuntimeException e) {
+          connectionCount.decrementAndGet();
+          throw e;
+        }
+        bag.add(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + entry.getRealConnection().hashCode() + ".");
+        }
+      } else {
+        // Cannot create new connection
+        entry = claimOverdueConnection();
+        if (entry == null) {
+          // Must wait
+          long timeToWait = getTimeToWait(t);
+          try {
+            if (!countedWait) {
+              state.hadToWaitCount.incrementAndGet();
+              countedWait = true;
             }
-          } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happend.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not intterupt current executing thread and give current thread a
-                     chance to join the next competion for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
-                   */
-                  log.debug("Bad connection. Could not roll back");
-                }  
-              }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            } else {
-              // Must wait
-              try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
-              }
+            if (log.isDebugEnabled()) {
+              log.debug("Waiting as long as " + timeToWait + " milliseconds for connection.");
             }
+            long wt = System.currentTimeMillis();
+            entry = bag.poll(timeToWait);
+            state.accumulatedWaitTime.addAndGet(System.currentTimeMillis() - wt);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
           }
         }
-        if (conn != null) {
-          // ping to server and check the connection is valid or not
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
+      }
+      if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+        if (log.isDebugEnabled()) {
+          log.debug("Retired connection " + entry.getRealConnection().hashCode() + " past its lifetime.");
+        }
+        discard(entry, null);
+        entry = null;
+      }
+      if (entry != null) {
+        conn = new PooledConnection(entry, this);
+        // ping to server and check the connection is valid or not, without holding any lock
+        if (conn.isValid()) {
+          try {
+            // a tracked connection is rolled back when it is returned, if needed
+            if (!conn.isStateTracked() && !conn.getRealConnection().getAutoCommit()) {
               conn.getRealConnection().rollback();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
+          } catch (SQLException e) {
+            discard(entry, null);
+            throw e;
+          }
+          int connectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), username, password);
+          conn.setConnectionTypeCode(connectionTypeCode);
+          entry.setConnectionTypeCode(connectionTypeCode);
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setCheckoutNanoTime(System.nanoTime());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          if (entry.lend(conn)) {
+            state.requestCount.incrementAndGet();
+            state.accumulatedRequestTime.addAndGet(System.currentTimeMillis() - t);
+            fireConnectionCheckedOut(conn.getCheckoutNanoTime() - requestNanoTime);
           } else {
-            if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            state.badConnectionCount++;
-            localBadConnectionCount++;
+            // closed by forceCloseAll() meanwhile
             conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+          }
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          discard(entry, null);
+          state.badConnectionCount.incrementAndGet();
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+            if (log.isDebugEnabled()) {
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
             }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
           }
         }
       }
-
     }
 
+    fillPoolIfNeeded();
+
     if (conn == null) {
       if (log.isDebugEnabled()) {
         log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
@@ -492,6 +721,364 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /*
+   * The time to wait for a returned connection before checking again for an overdue one
+   *
+   * @param requestTimestamp - when the connection was requested
+   * @return The time to wait, at most until poolCheckoutTimeout
+   * @throws SQLTransientConnectionException if the connection cannot be waited for
+   */
+  private long getTimeToWait(long requestTimestamp) throws SQLException {
+    int waiting = bag.getWaitingCount();
+    if (poolMaximumWaitingThreads > 0 && waiting >= poolMaximumWaitingThreads) {
+      state.rejectedCount.incrementAndGet();
+      fireCheckoutRejected();
+      throw new SQLTransientConnectionException("PooledDataSource: Rejected the connection request, "
+          + waiting + " threads are already waiting for a connection (poolMaximumWaitingThreads).");
+    }
+    if (poolCheckoutTimeout <= 0) {
+      return poolTimeToWait;
+    }
+    long remaining = requestTimestamp + poolCheckoutTimeout - System.currentTimeMillis();
+    if (remaining <= 0) {
+      state.rejectedCount.incrementAndGet();
+      fireCheckoutRejected();
+      throw new SQLTransientConnectionException("PooledDataSource: Could not get a connection within "
+          + poolCheckoutTimeout + " milliseconds (poolCheckoutTimeout), " + bag.getActiveCount()
+          + " connections are in use and " + waiting + " threads are waiting.");
+    }
+    return Math.min(poolTimeToWait, remaining);
+  }
+
+  private ConnectionBag.Entry createEntry() throws SQLException {
+    StatementCache statementCache = poolPreparedStatementCacheSize > 0 ? new StatementCache(poolPreparedStatementCacheSize) : null;
+    ConnectionState connectionState = poolTrackConnectionState ? new ConnectionState() : null;
+    long start = System.nanoTime();
+    Connection realConnection = dataSource.getConnection();
+    fireConnectionCreated(System.nanoTime() - start);
+    ConnectionBag.Entry entry = new ConnectionBag.Entry(realConnection, statementCache, connectionState);
+    if (poolMaximumConnectionLifetime > 0) {
+      long variance = (long) (Math.random() * poolMaximumConnectionLifetime / 40);
+      entry.setRetireTimestamp(entry.getCreatedTimestamp() + poolMaximumConnectionLifetime - variance);
+    }
+    return entry;
+  }
+
+  private boolean isExpired(ConnectionBag.Entry entry, long now) {
+    return now >= entry.getRetireTimestamp();
+  }
+
+  private void startHousekeeperIfNeeded() {
+    if (housekeeper == null && poolHousekeepingPeriod > 0
+        && (poolMinimumIdleConnections > 0 || poolMaximumConnectionLifetime > 0 || poolMaximumIdleTime > 0)) {
+      synchronized (this) {
+        if (housekeeper == null) {
+          housekeeper = PoolHousekeeper.start(this, poolHousekeepingPeriod);
+        }
+      }
+    }
+  }
+
+  private synchronized void stopHousekeeper() {
+    if (housekeeper != null) {
+      housekeeper.stop();
+      housekeeper = null;
+    }
+  }
+
+  /*
+   * Closes the idle connections that are past their lifetime, or idle for longer than poolMaximumIdleTime while
+   * more than poolMinimumIdleConnections are idle
+   */
+  void retireConnections() {
+    long now = System.currentTimeMillis();
+    for (ConnectionBag.Entry entry : bag.getEntries()) {
+      boolean expired = isExpired(entry, now);
+      boolean unused = poolMaximumIdleTime > 0 && now - entry.getLastUsedTimestamp() > poolMaximumIdleTime
+          && bag.getIdleCount() > getMinimumIdleConnections();
+      if ((expired || unused) && bag.reserve(entry)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Retired connection " + entry.getRealConnection().hashCode() + (expired ? " past its lifetime." : " idle for too long."));
+        }
+        discard(entry, null);
+      }
+    }
+  }
+
+  /*
+   * Creates connections in the background until poolMinimumIdleConnections are idle
+   */
+  void fillPool() {
+    while (true) {
+      int pending = pendingConnectionCount.get();
+      if (bag.getIdleCount() + pending >= getMinimumIdleConnections()) {
+        return;
+      }
+      if (!pendingConnectionCount.compareAndSet(pending, pending + 1)) {
+        continue;
+      }
+      if (!reserveConnection()) {
+        pendingConnectionCount.decrementAndGet();
+        return;
+      }
+      PoolHousekeeper.fill(new Runnable() {
+        @Override
+        public void run() {
+          addIdleConnection();
+        }
+      });
+    }
+  }
+
+  /*
+   * Creates a connection in the background for the threads waiting for a returned connection, which are only woken
+   * by a hand-off and would otherwise wait poolTimeToWait although the discarded connection freed a slot
+   */
+  private void replaceForWaitersIfNeeded() {
+    while (true) {
+      int pending = pendingConnectionCount.get();
+      if (bag.getWaitingCount() <= pending) {
+        return;
+      }
+      if (!pendingConnectionCount.compareAndSet(pending, pending + 1)) {
+        continue;
+      }
+      if (!reserveConnection()) {
+        pendingConnectionCount.decrementAndGet();
+        return;
+      }
+      // handed to the longest waiter when it is released
+      PoolHousekeeper.fill(new Runnable() {
+        @Override
+        public void run() {
+          addIdleConnection();
+        }
+      });
+      return;
+    }
+  }
+
+  private void fillPoolIfNeeded() {
+    if (housekeeper != null && bag.getIdleCount() + pendingConnectionCount.get() < getMinimumIdleConnections()) {
+      fillPool();
+    }
+  }
+
+  private int getMinimumIdleConnections() {
+    return Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+  }
+
+  private void addIdleConnection() {
+    try {
+      ConnectionBag.Entry entry = createEntry();
+      entry.setConnectionTypeCode(expectedConnectionTypeCode);
+      bag.add(entry);
+      bag.release(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + entry.getRealConnection().hashCode() + ".");
+      }
+    } catch (Exception e) {
+      connectionCount.decrementAndGet();
+      log.warn("Could not create an idle connection. Cause: " + e);
+    } finally {
+      pendingConnectionCount.decrementAndGet();
+    }
+  }
+
+  /*
+   * Takes a slot for a new connection if the pool is not full
+   *
+   * @return True if a connection can be created
+   */
+  private boolean reserveConnection() {
+    while (true) {
+      int count = connectionCount.get();
+      if (count >= poolMaximumActiveConnections) {
+        return false;
+      }
+      if (connectionCount.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Takes back the connection that has been checked out for the longest time, if longer than poolMaximumCheckoutTime
+   *
+   * @return The reserved connection, or null if none is overdue
+   */
+  private ConnectionBag.Entry claimOverdueConnection() {
+    PooledConnection oldestActiveConnection = null;
+    for (ConnectionBag.Entry entry : bag.getActiveEntries()) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null && (oldestActiveConnection == null
+          || owner.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp())) {
+        oldestActiveConnection = owner;
+      }
+    }
+    if (oldestActiveConnection == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime || !oldestActiveConnection.getEntry().claim(oldestActiveConnection)) {
+      return null;
+    }
+    // Can claim overdue connection
+    state.claimedOverdueConnectionCount.incrementAndGet();
+    state.accumulatedCheckoutTimeOfOverdueConnections.addAndGet(longestCheckoutTime);
+    state.accumulatedCheckoutTime.addAndGet(longestCheckoutTime);
+    oldestActiveConnection.invalidate();
+    try {
+      oldestActiveConnection.rollbackIfNeeded();
+    } catch (SQLException e) {
+      /*
+         Just log a message for debug and continue to execute the following
+         statement like nothing happend.
+         The claimed connection is checked out like any other, this will help
+         to not intterupt current executing thread and give current thread a
+         chance to join the next competion for another valid/good database
+         connection. If it is bad, it is discarded when validated.
+       */
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + ".");
+    }
+    return oldestActiveConnection.getEntry();
+  }
+
+  /*
+   * Removes a connection from the pool and closes it
+   *
+   * @param entry - the connection of the pool
+   * @param owner - the connection it is checked out as, or null if it is reserved
+   * @return True if the connection was still reserved or checked out as owner
+   */
+  private boolean discard(ConnectionBag.Entry entry, PooledConnection owner) {
+    if (!bag.remove(entry, owner)) {
+      return false;
+    }
+    connectionCount.decrementAndGet();
+    fireConnectionClosed();
+    try {
+      entry.getRealConnection().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+    return true;
+  }
+
+  private void startMonitoringIfNeeded() {
+    if (!monitored) {
+      synchronized (this) {
+        if (!monitored) {
+          monitored = true;
+          // the timelines are only sampled for the pools somebody watches
+          if (poolMBeanEnabled) {
+            registerMBean();
+            metrics.startSampling();
+          } else if (!listeners.isEmpty()) {
+            metrics.startSampling();
+          }
+        }
+      }
+    }
+  }
+
+  private void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis:type=PoolMetrics,name="
+          + ObjectName.quote(poolName != null ? poolName : Integer.toHexString(System.identityHashCode(this))));
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(metrics, name);
+      mbeanName = name;
+    } catch (Exception e) {
+      log.warn("Could not register the metrics of the pool as an MBean. Cause: " + e);
+    }
+  }
+
+  private synchronized void stopMonitoring() {
+    monitored = false;
+    metrics.stopSampling();
+    if (mbeanName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      } catch (Exception e) {
+        // ignore
+      }
+      mbeanName = null;
+    }
+  }
+
+  private void fireConnectionCreated(long nanos) {
+    metrics.connectionCreated(nanos);
+    for (PoolListener listener : listeners) {
+      try {
+        listener.connectionCreated(nanos);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
+  private void fireConnectionClosed() {
+    metrics.connectionClosed();
+    for (PoolListener listener : listeners) {
+      try {
+        listener.connectionClosed();
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
+  private void fireConnectionValidated(long nanos, boolean valid) {
+    metrics.connectionValidated(nanos, valid);
+    for (PoolListener listener : listeners) {
+      try {
+        listener.connectionValidated(nanos, valid);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
+  private void fireConnectionCheckedOut(long waitNanos) {
+    metrics.connectionCheckedOut(waitNanos);
+    for (PoolListener listener : listeners) {
+      try {
+        listener.connectionCheckedOut(waitNanos);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
+  private void fireConnectionReturned(long usageNanos) {
+    metrics.connectionReturned(usageNanos);
+    for (PoolListener listener : listeners) {
+      try {
+        listener.connectionReturned(usageNanos);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
+  private void fireCheckoutRejected() {
+    metrics.checkoutRejected();
+    for (PoolListener listener : listeners) {
+      try {
+        listener.checkoutRejected();
+      } catch (RuntimeException e) {
+        log.warn("Pool listener " + listener + " failed. Cause: " + e);
+      }
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -499,6 +1086,7 @@ public class PooledDataSource implements DataSource {
    * @return True if the connection is still usable
    */
   protected boolean pingConnection(PooledConnection conn) {
+    long start = System.nanoTime();
     boolean result = true;
 
     try {
@@ -544,6 +1132,7 @@ public class PooledDataSource implements DataSource {
         }
       }
     }
+    fireConnectionValidated(System.nanoTime() - start, result);
     return result;
   }
 
@@ -557,7 +1146,7 @@ public class PooledDataSource implements DataSource {
     if (Proxy.isProxyClass(conn.getClass())) {
       InvocationHandler handler = Proxy.getInvocationHandler(conn);
       if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
+        return ((PooledConnection) handler).getUntrackedConnection();
       }
     }
     return conn;
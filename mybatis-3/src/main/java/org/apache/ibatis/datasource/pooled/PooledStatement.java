@@ -0,0 +1,155 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * A prepared statement of a {@link PooledConnection} that goes back to the {@link StatementCache} of its connection
+ * when it is closed, with its parameters cleared and its settings restored.
+ *
+ * @since 3.5.0
+ */
+final class PooledStatement implements InvocationHandler {
+
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+
+  private final PooledConnection connection;
+  private final StatementCache.Key key;
+  private final PreparedStatement realStatement;
+  private final PreparedStatement proxyStatement;
+  private final Map<Method, Object> changedSettings = new LinkedHashMap<Method, Object>();
+  private boolean batched;
+  private boolean cacheable = true;
+  private boolean closed;
+
+  PooledStatement(PooledConnection connection, StatementCache.Key key, PreparedStatement realStatement) {
+    this.connection = connection;
+    this.key = key;
+    this.realStatement = realStatement;
+    this.proxyStatement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, this);
+  }
+
+  PreparedStatement getProxyStatement() {
+    return proxyStatement;
+  }
+
+  StatementCache.Key getKey() {
+    return key;
+  }
+
+  PreparedStatement getRealStatement() {
+    return realStatement;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    try {
+      if (Object.class.equals(method.getDeclaringClass())) {
+        return method.invoke(this, args);
+      }
+      if ("close".equals(methodName)) {
+        close();
+        return null;
+      }
+      if ("isClosed".equals(methodName)) {
+        return closed || realStatement.isClosed();
+      }
+      if (closed) {
+        throw new SQLException("Error accessing PooledStatement. Statement is closed.");
+      }
+      if ("getConnection".equals(methodName)) {
+        return connection.getProxyConnection();
+      }
+      if ("addBatch".equals(methodName)) {
+        batched = true;
+      } else if (methodName.startsWith("set") && args != null && args.length == 1) {
+        rememberSetting(method);
+      }
+      return method.invoke(realStatement, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  /*
+   * Closes the statement, returning it to the cache of its connection
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    connection.closeStatement(this);
+  }
+
+  /*
+   * Brings the statement back to the state it was prepared in
+   *
+   * @return False if it cannot be reused
+   */
+  boolean reset() {
+    if (!cacheable) {
+      return false;
+    }
+    try {
+      realStatement.clearParameters();
+      if (batched) {
+        realStatement.clearBatch();
+      }
+      for (Map.Entry<Method, Object> setting : changedSettings.entrySet()) {
+        setting.getKey().invoke(realStatement, setting.getValue());
+      }
+      realStatement.clearWarnings();
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /*
+   * Remembers the original value of a statement setting (fetch size, query timeout...) before it is first changed,
+   * statements with settings that cannot be read are not cached
+   */
+  private void rememberSetting(Method setter) throws Exception {
+    if (!cacheable || changedSettings.containsKey(setter)) {
+      return;
+    }
+    String property = setter.getName().substring(3);
+    Method getter;
+    try {
+      getter = PreparedStatement.class.getMethod("get" + property);
+    } catch (NoSuchMethodException e) {
+      try {
+        getter = PreparedStatement.class.getMethod("is" + property);
+      } catch (NoSuchMethodException e2) {
+        cacheable = false;
+        return;
+      }
+    }
+    changedSettings.put(setter, getter.invoke(realStatement));
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The prepared statements of a connection of the pool that are not in use, least recently used first.
+ * <p>
+ * A statement is taken out of the cache while it is in use, so that the same statement is never used twice at
+ * the same time, and put back when it is closed. The statements evicted beyond the size of the cache are closed.
+ *
+ * @since 3.5.0
+ */
+final class StatementCache {
+
+  private final Map<Key, PreparedStatement> statements;
+  private final List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+
+  StatementCache(final int size) {
+    this.statements = new LinkedHashMap<Key, PreparedStatement>(size, .75F, true) {
+      private static final long serialVersionUID = 4918372410349231761L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+        boolean tooBig = size() > size;
+        if (tooBig) {
+          evicted.add(eldest.getValue());
+        }
+        return tooBig;
+      }
+    };
+  }
+
+  /**
+   * @return the cached statement, removed from the cache, or null if there is none
+   */
+  synchronized PreparedStatement take(Key key) {
+    return statements.remove(key);
+  }
+
+  /**
+   * Caches a statement that is not in use anymore, closing the least recently used one if the cache is full.
+   *
+   * @return false if another statement is cached for the same key
+   */
+  boolean offer(Key key, PreparedStatement statement) {
+    List<PreparedStatement> toClose;
+    synchronized (this) {
+      if (statements.containsKey(key)) {
+        return false;
+      }
+      statements.put(key, statement);
+      if (evicted.isEmpty()) {
+        return true;
+      }
+      toClose = new ArrayList<PreparedStatement>(evicted);
+      evicted.clear();
+    }
+    // outside the lock, closing may be a round trip to the database
+    for (PreparedStatement eldest : toClose) {
+      close(eldest);
+    }
+    return true;
+  }
+
+  synchronized int size() {
+    return statements.size();
+  }
+
+  static void close(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * The SQL and the options a statement was prepared with.
+   */
+  static final class Key {
+
+    private final String sql;
+    private final Class<?>[] parameterTypes;
+    private final Object[] options;
+    private final int hashCode;
+
+    /**
+     * @param method one of the {@code prepareStatement} methods of {@link java.sql.Connection}
+     * @param args its arguments, the SQL first
+     */
+    Key(Method method, Object[] args) {
+      this.sql = (String) args[0];
+      this.parameterTypes = method.getParameterTypes();
+      this.options = Arrays.copyOfRange(args, 1, args.length);
+      this.hashCode = 31 * sql.hashCode() + Arrays.deepHashCode(options);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hashCode == other.hashCode && sql.equals(other.sql) && Arrays.equals(parameterTypes, other.parameterTypes)
+          && Arrays.deepEquals(options, other.options);
+    }
+
+    @Override
+    public String toString() {
+      return sql;
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of increasing width, with their total, without locking.
+ *
+ * @since 3.5.0
+ */
+final class TimeHistogram {
+
+  // upper bounds in milliseconds, the last bucket is unbounded
+  static final long[] BUCKET_LIMITS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+  private final LongAdder totalNanos = new LongAdder();
+
+  void record(long nanos) {
+    totalNanos.add(nanos);
+    long millis = nanos / 1000000L;
+    int bucket = 0;
+    while (bucket < BUCKET_LIMITS.length && millis >= BUCKET_LIMITS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+  }
+
+  long getCount() {
+    long count = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  double getAverageMillis() {
+    long count = getCount();
+    return count == 0 ? 0 : totalNanos.sum() / 1000000.0 / count;
+  }
+
+  long[] getBuckets() {
+    long[] histogram = new long[buckets.length()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = buckets.get(i);
+    }
+    return histogram;
+  }
+
+}
@@ -59,11 +59,13 @@ public abstract class BaseExecutor implements Executor {
 
   protected int queryStack;
   private boolean closed;
+  // has changes that are not committed yet
+  private boolean dirty;
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
+    this.localCache = newLocalCache(configuration);
     this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
     this.closed = false;
     this.configuration = configuration;
@@ -112,6 +114,7 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache();
+    dirty = true;
     return doUpdate(ms, parameter);
   }
 
@@ -170,6 +173,11 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else if (localCache instanceof BoundedLocalCache) {
+        // nothing refers to the local cache anymore until the next query
+        for (Object evictedKey : ((BoundedLocalCache) localCache).evict()) {
+          localOutputParameterCache.removeObject(evictedKey);
+        }
       }
     }
     return list;
@@ -199,12 +207,15 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    // statement id, offset, limit, sql, parameters and environment id
+    int expectedUpdateCount = parameterMappings.size() + 5;
+    Integer componentLimit = configuration.getCacheKeyComponentLimit();
+    CacheKey cacheKey = componentLimit == null ? new CacheKey(expectedUpdateCount) : new CacheKey(expectedUpdateCount, componentLimit);
     cacheKey.update(ms.getId()); // Mapper Id
     cacheKey.update(rowBounds.getOffset()); // 偏移量
     cacheKey.update(rowBounds.getLimit()); // 条数
     cacheKey.update(boundSql.getSql()); // SQL语句
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // 所有参数值
     for (ParameterMapping parameterMapping : parameterMappings) {
@@ -246,6 +257,7 @@ public abstract class BaseExecutor implements Executor {
     if (required) {
       transaction.commit();
     }
+    dirty = false;
   }
 
   @Override
@@ -257,6 +269,7 @@ public abstract class BaseExecutor implements Executor {
       } finally {
         if (required) {
           transaction.rollback();
+          dirty = false;
         }
       }
     }
@@ -282,6 +295,15 @@ public abstract class BaseExecutor implements Executor {
   protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
       throws SQLException;
 
+  private static PerpetualCache newLocalCache(Configuration configuration) {
+    Integer maxSize = configuration.getLocalCacheSize();
+    Long maxBytes = configuration.getLocalCacheMaxBytes();
+    if (maxSize == null && maxBytes == null) {
+      return new PerpetualCache("LocalCache");
+    }
+    return new BoundedLocalCache("LocalCache", maxSize == null ? 0 : maxSize, maxBytes == null ? 0 : maxBytes);
+  }
+
   protected void closeStatement(Statement statement) {
     if (statement != null) {
       try {
@@ -327,7 +349,7 @@ public abstract class BaseExecutor implements Executor {
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
     try {
       // 调用doQuery（）方法查询
-      list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      list = coalesceOrDoQuery(ms, parameter, rowBounds, resultHandler, key, boundSql);
     } finally {
       localCache.removeObject(key);
     }
@@ -339,6 +361,22 @@ public abstract class BaseExecutor implements Executor {
     return list;
   }
 
+  private <E> List<E> coalesceOrDoQuery(final MappedStatement ms, final Object parameter, final RowBounds rowBounds,
+      final ResultHandler resultHandler, CacheKey key, final BoundSql boundSql) throws SQLException {
+    // only outermost queries wait for other sessions, so that two queries never wait for each other,
+    // and only sessions without uncommitted changes, which would see other results
+    if (ms.getCoalesceMode() == CoalesceMode.NONE || resultHandler != null || queryStack > 1 || dirty
+        || ms.getStatementType() == StatementType.CALLABLE || !configuration.getQueryCoalescer().isCoalescable(ms)) {
+      return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+    }
+    return configuration.getQueryCoalescer().query(key, ms.getCoalesceMode(), new QueryCoalescer.Query<E>() {
+      @Override
+      public List<E> execute() throws SQLException {
+        return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      }
+    });
+  }
+
   protected Connection getConnection(Log statementLog) throws SQLException {
     Connection connection = transaction.getConnection();
     if (statementLog.isDebugEnabled()) {
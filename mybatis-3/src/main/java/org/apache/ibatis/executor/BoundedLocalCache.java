@@ -0,0 +1,128 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.ObjectSizeWeigher;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+
+/**
+ * Session local cache bounded by a number of entries and/or an estimated number of bytes.
+ * <p>
+ * It never evicts on its own: the executor calls {@link #evict()} once the outermost query has completed and its
+ * deferred loads have been resolved, so that the entries a nested query or a deferred load still needs are never
+ * removed. Queries that are still executing are not counted and are never evicted. The least recently used
+ * entries go first.
+ */
+class BoundedLocalCache extends PerpetualCache {
+
+  private static final Weigher WEIGHER = new ObjectSizeWeigher();
+
+  private final int maxSize;
+  private final long maxBytes;
+  private final Map<Object, Long> weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+  private long weight;
+
+  /**
+   * @param maxSize the maximum number of entries, 0 or less for no limit
+   * @param maxBytes the maximum estimated number of bytes, 0 or less for no limit
+   */
+  BoundedLocalCache(String id, int maxSize, long maxBytes) {
+    super(id);
+    this.maxSize = maxSize;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    forget(key);
+    if (value != EXECUTION_PLACEHOLDER) {
+      long entryWeight = maxBytes > 0 && value != null ? WEIGHER.weigh(key, value) : 0;
+      weights.put(key, entryWeight);
+      weight += entryWeight;
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    // touch
+    weights.get(key);
+    return super.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    forget(key);
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    weights.clear();
+    weight = 0;
+    super.clear();
+  }
+
+  /**
+   * @return the estimated number of bytes retained by the completed queries, 0 if the cache is not bounded by bytes
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Removes the least recently used entries beyond the bounds.
+   *
+   * @return the removed keys
+   */
+  public List<Object> evict() {
+    if (!isOverflowing()) {
+      return Collections.emptyList();
+    }
+    List<Object> evicted = new ArrayList<Object>();
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while (isOverflowing() && eldest.hasNext()) {
+      Map.Entry<Object, Long> entry = eldest.next();
+      weight -= entry.getValue();
+      eldest.remove();
+      super.removeObject(entry.getKey());
+      evicted.add(entry.getKey());
+    }
+    return evicted;
+  }
+
+  private boolean isOverflowing() {
+    return (maxSize > 0 && weights.size() > maxSize) || (maxBytes > 0 && weight > maxBytes);
+  }
+
+  private void forget(Object key) {
+    Long previous = weights.remove(key);
+    if (previous != null) {
+      weight -= previous;
+    }
+  }
+
+}
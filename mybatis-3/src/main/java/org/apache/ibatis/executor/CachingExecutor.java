@@ -17,16 +17,25 @@ package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheMetrics;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.*;
+import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -69,7 +78,18 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
     // 如果需要刷新，则更新缓存
-    flushCacheIfRequired(ms);
+    Cache cache = ms.getCache();
+    if (cache instanceof TableDependencyCache && ms.isFlushCacheRequired()) {
+      // 只清除依赖于被修改表的缓存项
+      Set<String> tables = ms.getTables();
+      if (tables.isEmpty()) {
+        // 未声明表时才需要生成SQL来解析表名
+        tables = ms.getTables(ms.getBoundSql(parameterObject));
+      }
+      tcm.evictTables(cache, tables);
+    } else {
+      flushCacheIfRequired(ms);
+    }
     return delegate.update(ms, parameterObject);
   }
 
@@ -102,9 +122,30 @@ public class CachingExecutor implements Executor {
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
           // 如果缓存数据不存在，则从数据库中查询数据
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          long start = System.nanoTime();
+          try {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          } catch (SQLException e) {
+            tcm.abortLoad(cache, key, e);
+            throw e;
+          } catch (RuntimeException e) {
+            tcm.abortLoad(cache, key, e);
+            throw e;
+          }
           // 將数据存放到MappedStatement对象对应的二级缓存中
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          CacheMetrics metrics = ms.getConfiguration().getCacheMetrics(cache.getId());
+          if (metrics != null) {
+            metrics.recordLoad(System.nanoTime() - start);
+          }
+          Object value = ExpiringCache.withExpiry(list, ms.getExpireAfterWrite(), ms.getExpireAfterAccess());
+          if (ms.getConfiguration().hasRefreshAheadCache(cache.getId())) {
+            value = RefreshAheadCache.withLoader(value, new StatementLoader(ms, parameterObject, rowBounds));
+          }
+          if (cache instanceof TableDependencyCache) {
+            tcm.putObject(cache, key, value, ms.getTables(boundSql));
+          } else {
+            tcm.putObject(cache, key, value); // issue #578 and #116
+          }
         }
         return list;
       }
@@ -176,4 +217,40 @@ public class CachingExecutor implements Executor {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  /**
+   * Runs a select again, in its own transaction, to refresh its cached result ahead of time.
+   * The parameter object is the one of the original call.
+   */
+  private static class StatementLoader implements RefreshAheadCache.Loader {
+    private final MappedStatement ms;
+    private final Object parameterObject;
+    private final RowBounds rowBounds;
+
+    StatementLoader(MappedStatement ms, Object parameterObject, RowBounds rowBounds) {
+      this.ms = ms;
+      this.parameterObject = parameterObject;
+      this.rowBounds = rowBounds;
+    }
+
+    @Override
+    public Object load() throws Exception {
+      Configuration configuration = ms.getConfiguration();
+      Environment environment = configuration.getEnvironment();
+      TransactionFactory transactionFactory = environment.getTransactionFactory() != null
+          ? environment.getTransactionFactory() : new ManagedTransactionFactory();
+      Transaction tx = transactionFactory.newTransaction(environment.getDataSource(), null, false);
+      // not a CachingExecutor, it would return the entry being refreshed
+      Executor executor = new SimpleExecutor(configuration, tx);
+      for (Interceptor interceptor : configuration.getInterceptors()) {
+        executor = (Executor) interceptor.plugin(executor);
+      }
+      try {
+        List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER);
+        return ExpiringCache.withExpiry(list, ms.getExpireAfterWrite(), ms.getExpireAfterAccess());
+      } finally {
+        executor.close(false);
+      }
+    }
+  }
+
 }
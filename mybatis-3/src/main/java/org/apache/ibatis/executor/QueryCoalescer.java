@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.CoalesceMode;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Lets concurrent executions of the same select, from any session of a configuration, share one query.
+ * <p>
+ * The first execution of a cache key runs the query; the executions of the same key that arrive while it runs
+ * wait for it and get its results, either the same list or a copy depending on the {@link CoalesceMode} of the
+ * statement. If the query fails, or its results cannot be copied, every waiting execution runs its own query.
+ * <p>
+ * Statements whose results are completed by nested selects are never coalesced: those selects are deferred until
+ * the outermost query of the session returns, or loaded lazily through that session, so the results are not
+ * complete, nor owned by the session, when the query returns.
+ */
+public class QueryCoalescer {
+
+  private static final Log log = LogFactory.getLog(QueryCoalescer.class);
+
+  private final ConcurrentMap<CacheKey, InFlightQuery> inFlightQueries = new ConcurrentHashMap<CacheKey, InFlightQuery>();
+  private final ConcurrentMap<String, Boolean> coalescableStatements = new ConcurrentHashMap<String, Boolean>();
+
+  public <E> List<E> query(CacheKey key, CoalesceMode mode, Query<E> query) throws SQLException {
+    InFlightQuery inFlight = new InFlightQuery();
+    InFlightQuery leader = inFlightQueries.putIfAbsent(key, inFlight);
+    if (leader == null) {
+      return lead(key, mode, inFlight, query);
+    }
+    leader.joiners.incrementAndGet();
+    try {
+      leader.done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return query.execute();
+    }
+    List<E> results = leader.results(mode);
+    return results != null ? results : query.execute();
+  }
+
+  /**
+   * @return false if the results of the statement are completed by nested selects
+   */
+  public boolean isCoalescable(MappedStatement ms) {
+    Boolean coalescable = coalescableStatements.get(ms.getId());
+    if (coalescable == null) {
+      coalescable = !hasNestedQueries(ms.getConfiguration(), ms.getResultMaps(), new HashSet<String>());
+      coalescableStatements.put(ms.getId(), coalescable);
+    }
+    return coalescable;
+  }
+
+  /**
+   * @return the number of queries other executions can currently join
+   */
+  public int getInFlightCount() {
+    return inFlightQueries.size();
+  }
+
+  private <E> List<E> lead(CacheKey key, CoalesceMode mode, InFlightQuery inFlight, Query<E> query)
+      throws SQLException {
+    List<E> results = null;
+    try {
+      results = query.execute();
+      return results;
+    } finally {
+      // no execution joins once the query is removed, the ones already joined decide whether the results are copied
+      inFlightQueries.remove(key, inFlight);
+      if (results != null && inFlight.joiners.get() > 0) {
+        publish(mode, inFlight, results);
+      }
+      inFlight.done.countDown();
+    }
+  }
+
+  private void publish(CoalesceMode mode, InFlightQuery inFlight, List<?> results) {
+    if (mode == CoalesceMode.COPY) {
+      try {
+        if (!(results instanceof Serializable)) {
+          throw new IllegalArgumentException("the result list is not serializable");
+        }
+        // before the results are handed back and possibly modified
+        inFlight.serializedResults = SerializedCache.serialize((Serializable) results);
+      } catch (RuntimeException e) {
+        log.debug("Could not copy the results of a coalesced query, the waiting executions run their own. Cause: " + e);
+      }
+    } else {
+      inFlight.results = results;
+    }
+  }
+
+  private static boolean hasNestedQueries(Configuration configuration, Collection<ResultMap> resultMaps,
+      Set<String> visited) {
+    for (ResultMap resultMap : resultMaps) {
+      if (!visited.add(resultMap.getId())) {
+        continue;
+      }
+      if (resultMap.hasNestedQueries()) {
+        return true;
+      }
+      for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+        if (hasNestedQueries(configuration, resultMapping.getNestedResultMapId(), visited)) {
+          return true;
+        }
+      }
+      Discriminator discriminator = resultMap.getDiscriminator();
+      if (discriminator != null) {
+        for (String resultMapId : discriminator.getDiscriminatorMap().values()) {
+          if (hasNestedQueries(configuration, resultMapId, visited)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasNestedQueries(Configuration configuration, String resultMapId, Set<String> visited) {
+    return resultMapId != null && configuration.hasResultMap(resultMapId)
+        && hasNestedQueries(configuration, Collections.singletonList(configuration.getResultMap(resultMapId)), visited);
+  }
+
+  /**
+   * The query of an execution, run once for all the executions that join it.
+   */
+  public interface Query<E> {
+    List<E> execute() throws SQLException;
+  }
+
+  private static class InFlightQuery {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger joiners = new AtomicInteger();
+    private volatile List<?> results;
+    private volatile byte[] serializedResults;
+
+    @SuppressWarnings("unchecked")
+    <E> List<E> results(CoalesceMode mode) {
+      if (mode == CoalesceMode.COPY) {
+        byte[] serialized = serializedResults;
+        return serialized == null ? null : (List<E>) SerializedCache.deserialize(serialized);
+      }
+      return (List<E>) results;
+    }
+  }
+
+}
@@ -23,14 +23,22 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.EnumerableCache;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.TinyLfuCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -46,6 +54,20 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private boolean tableTracking;
+  private Long maxBytes;
+  private Class<? extends Weigher> weigher;
+  private Long expireAfterWrite;
+  private Long expireAfterAccess;
+  private boolean statementExpiry;
+  private Long refreshAfterWrite;
+  private Long maxStaleness;
+  private RefreshAheadCache refreshAheadCache;
+  private ExpiringCache expiringCache;
+  private CacheMetrics metrics;
+  private WeightedCache weightedCache;
+  private Cache baseCache;
+  private Cache snapshotView;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -84,6 +106,50 @@ public class CacheBuilder {
     return this;
   }
   
+  public CacheBuilder tableTracking(boolean tableTracking) {
+    this.tableTracking = tableTracking;
+    return this;
+  }
+
+  public CacheBuilder maxBytes(Long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  public CacheBuilder weigher(Class<? extends Weigher> weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
+  public CacheBuilder expireAfterWrite(Long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+    return this;
+  }
+
+  public CacheBuilder expireAfterAccess(Long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+    return this;
+  }
+
+  /**
+   * @param statementExpiry whether statements using the cache set their own expiry, so that the cache must expire
+   *          entries even without a default expiry
+   */
+  public CacheBuilder statementExpiry(boolean statementExpiry) {
+    this.statementExpiry = statementExpiry;
+    return this;
+  }
+
+  public CacheBuilder refreshAfterWrite(Long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+    return this;
+  }
+
+  public CacheBuilder maxStaleness(Long maxStaleness) {
+    this.maxStaleness = maxStaleness;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -93,15 +159,57 @@ public class CacheBuilder {
     setDefaultImplementations();
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
+    baseCache = cache;
+    metrics = cache instanceof LoggingCache ? ((LoggingCache) cache).getMetrics() : new CacheMetrics(cache);
+    setMetrics(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      if (maxBytes != null) {
+        // the weighted cache evicts by itself, entries evicted below it would stay weighed
+        removeEvictionDecorators();
+      }
       for (Class<? extends Cache> decorator : decorators) {
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
+        setMetrics(cache);
+      }
+      if (maxBytes != null) {
+        // below SerializedCache, so read-write caches are weighed by their serialized length
+        cache = setWeightedDecorator(cache);
+      }
+      cache = setStandardDecorators(cache, true);
+    } else if (TinyLfuCache.class.equals(cache.getClass())) {
+      // does its own locking, so reads must not be serialized by a SynchronizedCache
+      // and every decorator above it must be thread safe on its own
+      if (clearInterval != null) {
+        throw new CacheException("Cache '" + id + "' cannot have a flushInterval with eviction TINYLFU.");
+      }
+      if (maxBytes != null) {
+        throw new CacheException("Cache '" + id + "' cannot have maxBytes with eviction TINYLFU, bound it by size instead.");
+      }
+      if (isExpiring()) {
+        // ExpiringCache locks every read to advance its timer wheel
+        throw new CacheException("Cache '" + id + "' cannot expire its entries with eviction TINYLFU.");
+      }
+      cache = setStandardDecorators(cache, false);
+    } else {
+      if (isExpiring()) {
+        throw new CacheException("Cache '" + id + "' of type " + cache.getClass().getName()
+            + " cannot expire its entries, configure the expiry of the cache implementation instead.");
+      }
+      if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
+        cache = new LoggingCache(cache, metrics);
+      }
+    }
+    if (snapshotView == null) {
+      // custom caches are not decorated by setStandardDecorators
+      snapshotView = cache;
+    }
+    if (tableTracking) {
+      cache = new TableDependencyCache(cache);
+      if (size != null) {
+        ((TableDependencyCache) cache).setSize(size);
       }
-      cache = setStandardDecorators(cache);
-    } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      cache = new LoggingCache(cache);
     }
     return cache;
   }
@@ -113,9 +221,79 @@ public class CacheBuilder {
         decorators.add(LruCache.class);
       }
     }
+    // eviction="TINYLFU" names a self-contained concurrent cache rather than a decorator
+    if (PerpetualCache.class.equals(implementation) && decorators.remove(TinyLfuCache.class)) {
+      implementation = TinyLfuCache.class;
+    }
   }
 
-  private Cache setStandardDecorators(Cache cache) {
+  /**
+   * @return the statistics of the built cache
+   */
+  public CacheMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the cache the decorators were applied to
+   */
+  public Cache getBaseCache() {
+    return baseCache;
+  }
+
+  /**
+   * @return the outermost thread safe decorator that neither blocks nor reloads entries, to read a snapshot from
+   */
+  public Cache getSnapshotView() {
+    return snapshotView;
+  }
+
+  /**
+   * @return the decorator that bounds the cache by weight, or null if it was built without {@code maxBytes}
+   */
+  public WeightedCache getWeightedCache() {
+    return weightedCache;
+  }
+
+  /**
+   * @return the decorator that expires entries, or null if neither the cache nor its statements set an expiry
+   */
+  public ExpiringCache getExpiringCache() {
+    return expiringCache;
+  }
+
+  /**
+   * @return the decorator that reloads entries ahead of time, or null if it was built without {@code refreshAfterWrite}
+   */
+  public RefreshAheadCache getRefreshAheadCache() {
+    return refreshAheadCache;
+  }
+
+  private void removeEvictionDecorators() {
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!LruCache.class.equals(decorator)) {
+        throw new CacheException("Cache '" + id + "' cannot combine maxBytes with " + decorator.getSimpleName()
+            + ", maxBytes evicts the least recently used entries.");
+      }
+    }
+    decorators.clear();
+  }
+
+  private Cache setWeightedDecorator(Cache cache) {
+    weightedCache = new WeightedCache(cache);
+    weightedCache.setMaxBytes(maxBytes);
+    weightedCache.setMetrics(metrics);
+    if (weigher != null) {
+      try {
+        weightedCache.setWeigher(weigher.newInstance());
+      } catch (Exception e) {
+        throw new CacheException("Could not instantiate weigher (" + weigher + "). Cause: " + e, e);
+      }
+    }
+    return weightedCache;
+  }
+
+  private Cache setStandardDecorators(Cache cache, boolean synchronize) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
@@ -128,8 +306,38 @@ public class CacheBuilder {
       if (readWrite) {
         cache = new SerializedCache(cache);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
+      if (isExpiring()) {
+        // above SerializedCache, it unwraps the per statement expiry of the values
+        expiringCache = new ExpiringCache(cache);
+        if (expireAfterWrite != null) {
+          expiringCache.setExpireAfterWrite(expireAfterWrite);
+        }
+        if (expireAfterAccess != null) {
+          expiringCache.setExpireAfterAccess(expireAfterAccess);
+        }
+        if (baseCache instanceof EnumerableCache) {
+          expiringCache.setKeySource((EnumerableCache) baseCache);
+        }
+        expiringCache.setMetrics(metrics);
+        cache = expiringCache;
+      }
+      cache = new LoggingCache(cache, metrics);
+      if (synchronize) {
+        cache = new SynchronizedCache(cache);
+      }
+      snapshotView = cache;
+      if (refreshAfterWrite != null) {
+        // above SynchronizedCache, reloaded values are put from another thread
+        refreshAheadCache = new RefreshAheadCache(cache);
+        refreshAheadCache.setRefreshAfterWrite(refreshAfterWrite);
+        if (maxStaleness != null) {
+          refreshAheadCache.setMaxStaleness(maxStaleness);
+        }
+        if (size != null) {
+          refreshAheadCache.setSize(size);
+        }
+        cache = refreshAheadCache;
+      }
       if (blocking) {
         cache = new BlockingCache(cache);
       }
@@ -139,6 +347,17 @@ public class CacheBuilder {
     }
   }
 
+  private boolean isExpiring() {
+    return expireAfterWrite != null || expireAfterAccess != null || statementExpiry;
+  }
+
+  private void setMetrics(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("metrics")) {
+      metaCache.setValue("metrics", metrics);
+    }
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
@@ -0,0 +1,28 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * How concurrent executions of a select with the same cache key share a single query.
+ */
+public enum CoalesceMode {
+  /** Every execution runs its own query. */
+  NONE,
+  /** The executions that join an in-flight query get the very same result list, which must not be modified. */
+  SHARE,
+  /** The executions that join an in-flight query get their own copy of its (serializable) results. */
+  COPY
+}
@@ -21,12 +21,14 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.SqlTableParser;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -49,6 +51,10 @@ public final class MappedStatement {
   private String[] keyColumns;
   private String databaseId;
   private String[] resultSets;
+  private Set<String> tables;
+  private Long expireAfterWrite;
+  private Long expireAfterAccess;
+  private CoalesceMode coalesceMode;
 
   private Cache cache; // 二级缓存实例
   private SqlSource sqlSource; // 解析SQL语句生成的SqlSource实例
@@ -71,9 +77,11 @@ public final class MappedStatement {
       mappedStatement.id = id;
       mappedStatement.sqlSource = sqlSource;
       mappedStatement.statementType = StatementType.PREPARED;
+      mappedStatement.coalesceMode = CoalesceMode.NONE;
       mappedStatement.parameterMap = new ParameterMap.Builder(configuration, "defaultParameterMap", null, new ArrayList<ParameterMapping>()).build();
       mappedStatement.resultMaps = new ArrayList<ResultMap>();
       mappedStatement.sqlCommandType = sqlCommandType;
+      mappedStatement.tables = Collections.emptySet();
       mappedStatement.keyGenerator = configuration.isUseGeneratedKeys() && SqlCommandType.INSERT.equals(sqlCommandType) ? Jdbc3KeyGenerator.INSTANCE : NoKeyGenerator.INSTANCE;
       String logId = id;
       if (configuration.getLogPrefix() != null) {
@@ -181,6 +189,26 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringToArray(resultSet);
       return this;
     }
+
+    public Builder tables(String tables) {
+      mappedStatement.tables = SqlTableParser.parseDelimited(tables);
+      return this;
+    }
+
+    public Builder expireAfterWrite(Long expireAfterWrite) {
+      mappedStatement.expireAfterWrite = expireAfterWrite;
+      return this;
+    }
+
+    public Builder expireAfterAccess(Long expireAfterAccess) {
+      mappedStatement.expireAfterAccess = expireAfterAccess;
+      return this;
+    }
+
+    public Builder coalesceMode(CoalesceMode coalesceMode) {
+      mappedStatement.coalesceMode = coalesceMode == null ? CoalesceMode.NONE : coalesceMode;
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -290,6 +318,43 @@ public final class MappedStatement {
     return resultSets;
   }
   
+  /**
+   * @return the normalized names of the tables declared for this statement, empty if none
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  /**
+   * @return the declared tables, or the tables found in the SQL if none are declared
+   */
+  public Set<String> getTables(BoundSql boundSql) {
+    return tables.isEmpty() ? SqlTableParser.parse(boundSql.getSql()) : tables;
+  }
+
+  /**
+   * @return milliseconds the results of this statement stay in the second level cache after they were put,
+   *         null for the cache default
+   */
+  public Long getExpireAfterWrite() {
+    return expireAfterWrite;
+  }
+
+  /**
+   * @return milliseconds the results of this statement stay in the second level cache after they were last read,
+   *         null for the cache default
+   */
+  public Long getExpireAfterAccess() {
+    return expireAfterAccess;
+  }
+
+  /**
+   * @return how concurrent executions with the same cache key, from any session, share a single query
+   */
+  public CoalesceMode getCoalesceMode() {
+    return coalesceMode;
+  }
+
   public BoundSql getBoundSql(Object parameterObject) {
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
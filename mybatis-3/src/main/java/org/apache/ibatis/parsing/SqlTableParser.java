@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables a SQL statement reads or writes.
+ * <p>
+ * This is not a SQL parser. It looks for the names that follow FROM, JOIN, INTO, UPDATE and USING
+ * (including comma separated FROM lists) and skips literals and comments. It may report names that are
+ * not tables, which only makes cache invalidation coarser, but statements whose tables are hidden
+ * (views, functions, stored procedures) should declare them instead.
+ * Names are lower cased, unquoted and stripped from their schema so that they can be compared.
+ */
+public final class SqlTableParser {
+
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "from", "join", "into", "update", "using"));
+
+  private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+      "select", "where", "set", "on", "as", "values", "value", "lateral", "only", "group", "order", "having",
+      "limit", "offset", "union", "inner", "outer", "left", "right", "full", "cross", "natural", "join",
+      "for", "with", "nowait", "returning", "default", "ignore", "low_priority", "high_priority", "delayed"));
+
+  private SqlTableParser() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /**
+   * @param sql the statement
+   * @return the normalized names of the tables the statement uses, empty if none could be found
+   */
+  public static Set<String> parse(String sql) {
+    if (sql == null) {
+      return Collections.emptySet();
+    }
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String keyword = tokens.get(i).toLowerCase(Locale.ENGLISH);
+      if (!TABLE_KEYWORDS.contains(keyword)) {
+        continue;
+      }
+      int next = i + 1;
+      if (!isTableName(tokens, next)) {
+        continue;
+      }
+      // "on duplicate key update col = ..." names a column
+      if ("update".equals(keyword) && next + 1 < tokens.size() && "=".equals(tokens.get(next + 1))) {
+        continue;
+      }
+      tables.add(normalize(tokens.get(next)));
+      if ("from".equals(keyword)) {
+        // from a [as] x, b [as] y
+        next++;
+        while (next < tokens.size()) {
+          if ("as".equalsIgnoreCase(tokens.get(next))) {
+            next++;
+          }
+          if (isTableName(tokens, next)) {
+            next++;
+          }
+          if (next + 1 < tokens.size() && ",".equals(tokens.get(next)) && isTableName(tokens, next + 1)) {
+            tables.add(normalize(tokens.get(next + 1)));
+            next += 2;
+          } else {
+            break;
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  /**
+   * @param delimitedTables comma separated table names, possibly schema qualified or quoted
+   * @return the normalized table names, empty if none
+   */
+  public static Set<String> parseDelimited(String delimitedTables) {
+    if (delimitedTables == null || delimitedTables.trim().length() == 0) {
+      return Collections.emptySet();
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    for (String table : delimitedTables.split(",")) {
+      if (table.trim().length() > 0) {
+        tables.add(normalize(table.trim()));
+      }
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  private static boolean isTableName(List<String> tokens, int index) {
+    if (index >= tokens.size()) {
+      return false;
+    }
+    String token = tokens.get(index);
+    char first = token.charAt(0);
+    if (!Character.isLetter(first) && first != '_' && first != '"' && first != '`' && first != '[') {
+      return false;
+    }
+    return !RESERVED_WORDS.contains(token.toLowerCase(Locale.ENGLISH));
+  }
+
+  private static String normalize(String name) {
+    int dot = lastUnquotedDot(name);
+    String table = dot < 0 ? name : name.substring(dot + 1);
+    if (table.length() > 1) {
+      char first = table.charAt(0);
+      if (first == '"' || first == '`' || first == '[') {
+        table = table.substring(1, table.length() - 1);
+      }
+    }
+    return table.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static int lastUnquotedDot(String name) {
+    char quote = 0;
+    int dot = -1;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '[') {
+        quote = ']';
+      } else if (c == '.') {
+        dot = i;
+      }
+    }
+    return dot;
+  }
+
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (isNameStart(c)) {
+        int start = i;
+        i = skipName(sql, i);
+        // schema qualified names are a single token
+        while (i + 1 < length && sql.charAt(i) == '.' && isNameStart(sql.charAt(i + 1))) {
+          i = skipName(sql, i + 1);
+        }
+        tokens.add(sql.substring(start, i));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isNameStart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '"' || c == '`' || c == '[';
+  }
+
+  private static int skipName(String sql, int start) {
+    char c = sql.charAt(start);
+    if (c == '"' || c == '`') {
+      return skipQuoted(sql, start, c);
+    }
+    if (c == '[') {
+      return skipQuoted(sql, start, ']');
+    }
+    int i = start;
+    while (i < sql.length()) {
+      char n = sql.charAt(i);
+      if (!Character.isLetterOrDigit(n) && n != '_' && n != '$' && n != '#') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipQuoted(String sql, int start, char quote) {
+    int end = sql.indexOf(quote, start + 1);
+    return end < 0 ? sql.length() : end + 1;
+  }
+
+}
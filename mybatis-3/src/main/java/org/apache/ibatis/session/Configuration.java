@@ -21,11 +21,20 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheSnapshot;
+import org.apache.ibatis.cache.EnumerableCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.TinyLfuCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
@@ -72,8 +81,14 @@ import org.apache.ibatis.type.TypeAliasRegistry;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
+import java.lang.management.ManagementFactory;
 import java.util.*;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 /**
  * @author Clinton Begin
  */
@@ -97,6 +112,14 @@ public class Configuration {
   protected Class<? extends Log> logImpl;
   protected Class<? extends VFS> vfsImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected Integer localCacheSize;
+  protected Long localCacheMaxBytes;
+  protected Integer cacheKeyComponentLimit;
+  protected boolean cacheMBeansEnabled;
+  protected String cacheMBeansName;
+  protected final List<CacheMetrics> registeredCacheMetrics = new ArrayList<CacheMetrics>();
+  protected String cacheSnapshotFile;
+  protected Set<String> cacheSnapshotCaches = new HashSet<String>();
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[]{"equals", "clone", "hashCode", "toString"}));
   protected Integer defaultStatementTimeout;
@@ -125,12 +148,18 @@ public class Configuration {
 
   protected final MapperRegistry mapperRegistry = new MapperRegistry(this);
   protected final InterceptorChain interceptorChain = new InterceptorChain();
+  protected final QueryCoalescer queryCoalescer = new QueryCoalescer();
+  protected final CacheSnapshot cacheSnapshot = new CacheSnapshot(this);
   protected final TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();
   protected final TypeAliasRegistry typeAliasRegistry = new TypeAliasRegistry();
   protected final LanguageDriverRegistry languageRegistry = new LanguageDriverRegistry();
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected final Map<String, WeightedCache> weightedCaches = new StrictMap<WeightedCache>("Weighted caches collection");
+  protected final Map<String, CacheMetrics> cacheMetrics = new StrictMap<CacheMetrics>("Cache metrics collection");
+  protected final Map<String, RefreshAheadCache> refreshAheadCaches = new StrictMap<RefreshAheadCache>("Refresh-ahead caches collection");
+  protected final Map<String, ExpiringCache> expiringCaches = new StrictMap<ExpiringCache>("Expiring caches collection");
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -172,6 +201,8 @@ public class Configuration {
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -431,6 +462,86 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  /**
+   * Bounds the session local cache to the given number of entries, the least recently used results are evicted
+   * once the outermost query completes. {@code null} keeps every result until the session commits or closes.
+   */
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public Long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  /**
+   * Bounds the session local cache to the given estimated number of bytes, like {@link #setLocalCacheSize(Integer)}.
+   */
+  public void setLocalCacheMaxBytes(Long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  public Integer getCacheKeyComponentLimit() {
+    return cacheKeyComponentLimit;
+  }
+
+  /**
+   * Makes the executors create compact cache keys that keep a fingerprint of the statement parameters
+   * and at most the given number of the components themselves. {@code null} keeps every component.
+   */
+  public void setCacheKeyComponentLimit(Integer cacheKeyComponentLimit) {
+    this.cacheKeyComponentLimit = cacheKeyComponentLimit;
+  }
+
+  public boolean isCacheMBeansEnabled() {
+    return cacheMBeansEnabled;
+  }
+
+  /**
+   * Registers the {@link CacheMetrics} of the caches built from now on as MBeans of the platform MBean server.
+   */
+  public void setCacheMBeansEnabled(boolean cacheMBeansEnabled) {
+    this.cacheMBeansEnabled = cacheMBeansEnabled;
+  }
+
+  public String getCacheMBeansName() {
+    return cacheMBeansName;
+  }
+
+  /**
+   * Names this configuration in the names of its cache MBeans, the environment id (or {@code default}) if null.
+   * MBeans registered under the same name, e.g. by the configuration a redeployment replaces, are replaced.
+   */
+  public void setCacheMBeansName(String cacheMBeansName) {
+    this.cacheMBeansName = cacheMBeansName;
+  }
+
+  public String getCacheSnapshotFile() {
+    return cacheSnapshotFile;
+  }
+
+  /**
+   * Sets the file the {@link CacheSnapshot} saves the second level caches to and restores them from.
+   */
+  public void setCacheSnapshotFile(String cacheSnapshotFile) {
+    this.cacheSnapshotFile = cacheSnapshotFile;
+  }
+
+  public Set<String> getCacheSnapshotCaches() {
+    return cacheSnapshotCaches;
+  }
+
+  /**
+   * Sets the ids of the caches built from now on that are snapshotted, {@code *} for all of them.
+   */
+  public void setCacheSnapshotCaches(Set<String> cacheSnapshotCaches) {
+    this.cacheSnapshotCaches = cacheSnapshotCaches;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -552,6 +663,13 @@ public class Configuration {
     return statementHandler;
   }
 
+  /**
+   * @return shares the in-flight queries of the statements that coalesce them among the sessions
+   */
+  public QueryCoalescer getQueryCoalescer() {
+    return queryCoalescer;
+  }
+
   public Executor newExecutor(Transaction transaction) {
     return newExecutor(transaction, defaultExecutorType);
   }
@@ -617,6 +735,127 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  public void addWeightedCache(WeightedCache weightedCache) {
+    weightedCaches.put(weightedCache.getId(), weightedCache);
+  }
+
+  public void addCacheMetrics(CacheMetrics metrics) {
+    cacheMetrics.put(metrics.getId(), metrics);
+    if (cacheMBeansEnabled) {
+      registerCacheMBean(metrics);
+    }
+  }
+
+  /**
+   * @param id the cache id
+   * @return the statistics of the cache, or null if it was not built from a mapper
+   */
+  public CacheMetrics getCacheMetrics(String id) {
+    return cacheMetrics.containsKey(id) ? cacheMetrics.get(id) : null;
+  }
+
+  /**
+   * Unregisters the cache MBeans of this configuration, so that they do not keep it and its class loader alive
+   * once it is not used anymore.
+   */
+  public void unregisterCacheMBeans() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    synchronized (registeredCacheMetrics) {
+      for (CacheMetrics metrics : registeredCacheMetrics) {
+        // null if replaced by the metrics of another configuration of the same name
+        ObjectName name = metrics.getObjectName();
+        if (name == null) {
+          continue;
+        }
+        try {
+          server.unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+          // unregistered meanwhile
+        } catch (MBeanRegistrationException e) {
+          throw new CacheException("Could not unregister the cache MBean " + name + ". Cause: " + e, e);
+        }
+      }
+      registeredCacheMetrics.clear();
+    }
+  }
+
+  private void registerCacheMBean(CacheMetrics metrics) {
+    String configurationName = cacheMBeansName != null ? cacheMBeansName
+        : environment != null ? environment.getId() : "default";
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis:type=CacheMetrics,configuration="
+          + ObjectName.quote(configurationName) + ",id=" + ObjectName.quote(metrics.getId()));
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(metrics, name);
+      synchronized (registeredCacheMetrics) {
+        registeredCacheMetrics.add(metrics);
+      }
+    } catch (Exception e) {
+      throw new CacheException("Could not register the metrics of cache " + metrics.getId() + " as an MBean. Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Registers a cache to the {@link CacheSnapshot} if the {@code cacheSnapshotCaches} setting names it.
+   *
+   * @param cache the cache statements use
+   * @param view a thread safe decorator of the cache that neither blocks nor reloads entries
+   * @param baseCache the cache the decorators were applied to, which must list its keys
+   */
+  public void addSnapshotCache(Cache cache, Cache view, Cache baseCache) {
+    if (cacheSnapshotFile == null
+        || !(cacheSnapshotCaches.contains("*") || cacheSnapshotCaches.contains(cache.getId()))) {
+      return;
+    }
+    if (!(baseCache instanceof EnumerableCache)) {
+      throw new CacheException("Cache " + cache.getId() + " cannot be snapshotted because "
+          + baseCache.getClass().getName() + " does not implement " + EnumerableCache.class.getName());
+    }
+    cacheSnapshot.addCache(cache, view, (EnumerableCache) baseCache);
+  }
+
+  /**
+   * @return saves the snapshotted caches on shutdown and restores them when the next factory is built
+   */
+  public CacheSnapshot getCacheSnapshot() {
+    return cacheSnapshot;
+  }
+
+  public void addRefreshAheadCache(RefreshAheadCache refreshAheadCache) {
+    refreshAheadCaches.put(refreshAheadCache.getId(), refreshAheadCache);
+  }
+
+  /**
+   * @param id the cache id
+   * @return true if the entries of the cache are reloaded ahead of time, so they must be put with a loader
+   */
+  public boolean hasRefreshAheadCache(String id) {
+    return refreshAheadCaches.containsKey(id);
+  }
+
+  public void addExpiringCache(ExpiringCache expiringCache) {
+    expiringCaches.put(expiringCache.getId(), expiringCache);
+  }
+
+  /**
+   * @param id the cache id
+   * @return true if every entry of the cache can expire on its own, so statements may set their own expiry
+   */
+  public boolean hasExpiringCache(String id) {
+    return expiringCaches.containsKey(id);
+  }
+
+  /**
+   * @param id the cache id
+   * @return the estimated number of bytes retained by the cache, or null if the cache is not bounded by weight
+   */
+  public Long getCacheWeight(String id) {
+    return weightedCaches.containsKey(id) ? weightedCaches.get(id).getWeight() : null;
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
@@ -89,6 +89,9 @@ public class SqlSessionFactoryBuilder {
   }
     
   public SqlSessionFactory build(Configuration config) {
+    if (config.getCacheSnapshotFile() != null) {
+      config.getCacheSnapshot().restore();
+    }
     return new DefaultSqlSessionFactory(config);
   }
 
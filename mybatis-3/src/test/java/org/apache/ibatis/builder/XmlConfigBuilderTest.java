@@ -91,6 +91,10 @@ public class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isFalse();
       assertThat(config.isSafeRowBoundsEnabled()).isFalse();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.SESSION);
+      assertNull(config.getLocalCacheSize());
+      assertNull(config.getLocalCacheMaxBytes());
+      assertNull(config.getCacheKeyComponentLimit());
+      assertThat(config.isCacheMBeansEnabled()).isFalse();
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.OTHER);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString")));
       assertThat(config.isSafeResultHandlerEnabled()).isTrue();
@@ -184,6 +188,9 @@ public class XmlConfigBuilderTest {
         assertThat(config.isMapUnderscoreToCamelCase()).isTrue();
         assertThat(config.isSafeRowBoundsEnabled()).isTrue();
         assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.STATEMENT);
+        assertThat(config.getLocalCacheSize()).isEqualTo(1000);
+        assertThat(config.getLocalCacheMaxBytes()).isEqualTo(8L * 1024 * 1024);
+        assertThat(config.getCacheKeyComponentLimit()).isEqualTo(4);
         assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.NULL);
         assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx")));
         assertThat(config.isSafeResultHandlerEnabled()).isFalse();
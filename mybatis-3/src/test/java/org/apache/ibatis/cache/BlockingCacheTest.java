@@ -0,0 +1,165 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockingCacheTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldShareLoadedValueWithWaitingThreads() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject("key");
+      }
+    });
+    assertStillWaiting(waiter);
+
+    cache.putObject("key", "value");
+    assertEquals("value", waiter.get(1, TimeUnit.SECONDS));
+    assertEquals(0, inFlightLoads(cache).size());
+  }
+
+  @Test
+  public void shouldPropagateLoadFailureToWaitingThreads() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject("key");
+      }
+    });
+    assertStillWaiting(waiter);
+
+    SQLException failure = new SQLException("connection refused");
+    cache.abortLoad("key", failure);
+    try {
+      waiter.get(1, TimeUnit.SECONDS);
+      fail("Expected a CacheException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+      assertSame(failure, e.getCause().getCause());
+    }
+    assertEquals(0, inFlightLoads(cache).size());
+  }
+
+  @Test
+  public void shouldHandOverLoadAfterRelease() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() {
+        Object value = cache.getObject("key");
+        cache.putObject("key", "loaded by waiter");
+        return value;
+      }
+    });
+    assertStillWaiting(waiter);
+
+    cache.removeObject("key");
+    assertNull(waiter.get(1, TimeUnit.SECONDS));
+    assertEquals("loaded by waiter", cache.getObject("key"));
+    assertEquals(0, inFlightLoads(cache).size());
+  }
+
+  @Test
+  public void shouldNotKeepEntriesForLoadedKeys() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    for (int i = 0; i < 1000; i++) {
+      assertNull(cache.getObject(i));
+      cache.putObject(i, i);
+      assertEquals(i, cache.getObject(i));
+    }
+    assertEquals(0, inFlightLoads(cache).size());
+  }
+
+  @Test
+  public void shouldFailWhenTimeoutExpires() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    assertNull(cache.getObject("key"));
+
+    Future<Object> waiter = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject("key");
+      }
+    });
+    try {
+      waiter.get(1, TimeUnit.SECONDS);
+      fail("Expected a CacheException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+    }
+  }
+
+  private void assertStillWaiting(Future<Object> waiter) throws Exception {
+    try {
+      waiter.get(100, TimeUnit.MILLISECONDS);
+      fail("The second thread should wait for the first load");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+  private Map<?, ?> inFlightLoads(BlockingCache cache) {
+    try {
+      Field field = BlockingCache.class.getDeclaredField("loads");
+      field.setAccessible(true);
+      return (Map<?, ?>) field.get(cache);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class BulkCacheTest {
+
+  @Test
+  public void shouldCommitInOneBulkPut() {
+    RecordingBulkCache remote = new RecordingBulkCache("remote");
+    TransactionalCache txCache = new TransactionalCache(new LoggingCache(remote));
+    assertNull(txCache.getObject("missed"));
+    txCache.putObject("a", 1);
+    txCache.putObject("b", 2);
+    assertEquals(0, remote.bulkPuts);
+    txCache.commit();
+    assertEquals(1, remote.bulkPuts);
+    assertEquals(0, remote.singlePuts);
+    assertEquals(1, remote.getObject("a"));
+    assertEquals(2, remote.getObject("b"));
+    assertTrue(remote.containsKey("missed"));
+  }
+
+  @Test
+  public void shouldReleaseMissedEntriesInOneBulkRemove() {
+    RecordingBulkCache remote = new RecordingBulkCache("remote");
+    TransactionalCache txCache = new TransactionalCache(new LoggingCache(remote));
+    txCache.getObject("a");
+    txCache.getObject("b");
+    txCache.rollback();
+    assertEquals(1, remote.bulkRemoves);
+  }
+
+  @Test
+  public void shouldFallBackToSingleKeyCalls() {
+    Cache cache = new PerpetualCache("default");
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    entries.put("a", 1);
+    entries.put("b", 2);
+    cache.putObjects(entries);
+    assertEquals(2, cache.getSize());
+    Map<Object, Object> values = cache.getObjects(Arrays.asList("a", "c"));
+    assertEquals(Collections.<Object, Object>singletonMap("a", 1), values);
+    cache.removeObjects(Arrays.asList("a", "b"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldForwardBulkCallsThroughDecorators() {
+    RecordingBulkCache remote = new RecordingBulkCache("remote");
+    ExpiringCache expiringCache = new ExpiringCache(new SerializedCache(remote));
+    expiringCache.setExpireAfterWrite(60000);
+    RefreshAheadCache cache = new RefreshAheadCache(expiringCache);
+    cache.setRefreshAfterWrite(60000);
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    entries.put("a", 1);
+    entries.put("b", null);
+    cache.putObjects(entries);
+    assertEquals(Collections.<Object, Object>singletonMap("a", 1), cache.getObjects(Arrays.asList("a", "b", "c")));
+    cache.removeObjects(Arrays.asList("a", "b"));
+    assertEquals(1, remote.bulkPuts);
+    assertEquals(0, remote.singlePuts);
+    assertEquals(1, remote.bulkGets);
+    assertEquals(1, remote.bulkRemoves);
+  }
+
+  @Test
+  public void shouldCountBulkRequests() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("default"));
+    cache.putObject("a", 1);
+    cache.getObjects(Arrays.asList("a", "b", "c"));
+    assertEquals(3, cache.getMetrics().getRequests());
+    assertEquals(1, cache.getMetrics().getHits());
+  }
+
+  @Test
+  public void shouldIndexTablesOfBulkPuts() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    entries.put("blogs", 1);
+    entries.put("authors", 2);
+    Map<Object, java.util.Set<String>> tables = new HashMap<Object, java.util.Set<String>>();
+    tables.put("blogs", new HashSet<String>(Arrays.asList("blog")));
+    tables.put("authors", new HashSet<String>(Arrays.asList("author")));
+    cache.putObjects(entries, tables);
+    cache.evictTables(Arrays.asList("blog"));
+    assertNull(cache.getObject("blogs"));
+    assertEquals(2, cache.getObject("authors"));
+  }
+
+  @Test
+  public void shouldReleaseBlockedKeysOnBulkPut() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(5000);
+    assertNull(cache.getObject("a"));
+    Thread other = new Thread() {
+      @Override
+      public void run() {
+        assertEquals(1, cache.getObject("a"));
+      }
+    };
+    other.start();
+    cache.putObjects(Collections.singletonMap("a", 1));
+    other.join();
+  }
+
+  private static class RecordingBulkCache extends PerpetualCache {
+    private int bulkGets;
+    private int bulkPuts;
+    private int singlePuts;
+    private int bulkRemoves;
+    private final Map<Object, Object> keys = new HashMap<Object, Object>();
+
+    RecordingBulkCache(String id) {
+      super(id);
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      singlePuts++;
+      super.putObject(key, value);
+    }
+
+    boolean containsKey(Object key) {
+      return keys.containsKey(key);
+    }
+
+    @Override
+    public Map<Object, Object> getObjects(Collection<?> keys) {
+      bulkGets++;
+      Map<Object, Object> values = new HashMap<Object, Object>();
+      for (Object key : keys) {
+        if (getObject(key) != null) {
+          values.put(key, getObject(key));
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public void putObjects(Map<?, ?> entries) {
+      bulkPuts++;
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        keys.put(entry.getKey(), entry.getValue());
+        super.putObject(entry.getKey(), entry.getValue());
+      }
+    }
+
+    @Override
+    public void removeObjects(Collection<?> keys) {
+      bulkRemoves++;
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.TinyLfuCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Measures read/write throughput of the second level cache chains built by {@link CacheBuilder}
+ * with 8 to 64 threads. Excluded from the default build, run it with
+ * {@code mvn test -Dtest=CacheContentionBenchmarkTest -Dmaven.surefire.excludeGroups=}.
+ */
+@Category(SlowTests.class)
+public class CacheContentionBenchmarkTest {
+
+  private static final int CACHE_SIZE = 1024;
+  private static final int KEY_SPACE = 8 * CACHE_SIZE;
+  private static final long RUN_MILLIS = 1000;
+
+  @Test
+  public void compareEvictionPolicies() throws Exception {
+    System.out.println(String.format("%-8s %8s %16s %10s", "eviction", "threads", "ops/s", "hit ratio"));
+    for (int threads = 8; threads <= 64; threads *= 2) {
+      run("LRU", LruCache.class, threads);
+      run("FIFO", FifoCache.class, threads);
+      run("TINYLFU", TinyLfuCache.class, threads);
+    }
+  }
+
+  private void run(String name, Class<? extends Cache> eviction, int threads) throws Exception {
+    final Cache cache = new CacheBuilder("benchmark")
+        .implementation(PerpetualCache.class)
+        .addDecorator(eviction)
+        .size(CACHE_SIZE)
+        .readWrite(false)
+        .build();
+    final Integer[] keys = skewedKeys();
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      cache.putObject(keys[i], keys[i]);
+    }
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong operations = new AtomicLong();
+    final AtomicLong hits = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int offset = t * 7919;
+      workers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long localOperations = 0;
+          long localHits = 0;
+          int index = offset;
+          while (running.get()) {
+            Integer key = keys[index++ & (keys.length - 1)];
+            if (cache.getObject(key) == null) {
+              cache.putObject(key, key);
+            } else {
+              localHits++;
+            }
+            localOperations++;
+          }
+          operations.addAndGet(localOperations);
+          hits.addAndGet(localHits);
+        }
+      });
+      workers[t].start();
+    }
+    start.countDown();
+    Thread.sleep(RUN_MILLIS);
+    running.set(false);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    System.out.println(String.format("%-8s %8d %16d %10.3f", name, threads,
+        operations.get() * 1000 / RUN_MILLIS, (double) hits.get() / operations.get()));
+  }
+
+  /**
+   * Zipf-like distribution over {@link #KEY_SPACE} keys, so that a small set of hot keys dominates.
+   */
+  private Integer[] skewedKeys() {
+    Random random = new Random(42);
+    Integer[] keys = new Integer[1 << 20];
+    for (int i = 0; i < keys.length; i++) {
+      double u = random.nextDouble();
+      keys[i] = (int) (Math.pow(KEY_SPACE, u) - 1);
+    }
+    return keys;
+  }
+
+}
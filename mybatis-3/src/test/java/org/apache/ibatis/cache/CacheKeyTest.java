@@ -28,6 +28,8 @@ import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 
 public class CacheKeyTest {
@@ -90,6 +92,122 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCompactCacheKeysEqual() {
+    Date date = new Date();
+    CacheKey key1 = compactKey(1, new Object[] { 1, "hello", null, new Date(date.getTime()), new byte[] { 1 } });
+    CacheKey key2 = compactKey(1, new Object[] { 1, "hello", null, new Date(date.getTime()), new byte[] { 1 } });
+    assertTrue(key1.isCompact());
+    assertTrue(key1.equals(key2));
+    assertTrue(key2.equals(key1));
+    assertTrue(key1.hashCode() == key2.hashCode());
+    assertTrue(key1.toString().equals(key2.toString()));
+  }
+
+  @Test
+  public void shouldTestCompactCacheKeysNotEqualBeyondComponentLimit() {
+    CacheKey key1 = compactKey(0, new Object[] { "select * from t where id in (?, ?)", 1, "Aa" });
+    CacheKey key2 = compactKey(0, new Object[] { "select * from t where id in (?, ?)", 1, "BB" });
+    // "Aa" and "BB" share the same hash code
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertFalse(key1.equals(key2));
+    assertFalse(key2.equals(key1));
+  }
+
+  @Test
+  public void shouldTestCompactCacheKeysNotEqualDueToType() {
+    CacheKey key1 = compactKey(0, new Object[] { 1 });
+    CacheKey key2 = compactKey(0, new Object[] { 1L });
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldExposeComponentsAndFingerprint() {
+    CacheKey key = new CacheKey(new Object[] { "select 1", 1 });
+    assertEquals(Arrays.<Object>asList("select 1", 1), key.getComponents());
+    assertArrayEquals(new byte[0], key.getFingerprint());
+    CacheKey compact = compactKey(1, new Object[] { "select 1", 1 });
+    assertEquals(Arrays.<Object>asList("select 1"), compact.getComponents());
+    assertArrayEquals(compactKey(1, new Object[] { "select 1", 1 }).getFingerprint(), compact.getFingerprint());
+    assertFalse(Arrays.equals(compactKey(1, new Object[] { "select 1", 2 }).getFingerprint(), compact.getFingerprint()));
+    assertEquals(32, compact.getFingerprint().length);
+  }
+
+  @Test
+  public void shouldNotShareFingerprintWithClone() throws Exception {
+    CacheKey key = compactKey(0, new Object[] { 1, "hello" });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    key.update("world");
+    clone.update("there");
+    assertFalse(key.equals(clone));
+    assertEquals(compactKey(0, new Object[] { 1, "hello", "world" }), key);
+    assertEquals(compactKey(0, new Object[] { 1, "hello", "there" }), clone);
+  }
+
+  @Test
+  public void shouldOnlyKeepComponentsUpToTheLimit() {
+    Object[] components = new Object[1000];
+    for (int i = 0; i < components.length; i++) {
+      components[i] = i;
+    }
+    CacheKey key = compactKey(2, components);
+    assertEquals(1000, key.getUpdateCount());
+    String[] parts = key.toString().split(":");
+    assertEquals(5, parts.length);
+    assertEquals("0", parts[3]);
+    assertEquals("1", parts[4]);
+  }
+
+  @Test
+  public void shouldAlwaysKeepComponentsThatCannotBeFingerprinted() {
+    Object component = new Object();
+    CacheKey key1 = compactKey(0, new Object[] { "hello", component });
+    CacheKey key2 = compactKey(0, new Object[] { "hello", new Object() });
+    assertTrue(key1.toString().endsWith(component.toString()));
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldNotShareComponentsWithClone() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    key.update("world");
+    clone.update("there");
+    assertFalse(key.equals(clone));
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "world" }), key);
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "there" }), clone);
+  }
+
+  @Test
+  public void compactSerializationTest() throws Exception {
+    CacheKey cacheKey = compactKey(1, new Object[] { "serializable", 1, 2L });
+    Assert.assertEquals(cacheKey, serialize(cacheKey));
+    Assert.assertNotEquals(compactKey(1, new Object[] { "serializable", 1, 3L }), serialize(cacheKey));
+  }
+
+  @Test
+  public void shouldReadKeysSerializedBeforeCompactKeys() throws Exception {
+    // new CacheKey(new Object[] { "serializable", 1, 2L, null }) written by MyBatis 3.4
+    byte[] bytes = Base64.getDecoder().decode("rO0ABXNyACBvcmcuYXBhY2hlLmliYXRpcy5jYWNoZS5DYWNoZUtleQ/p1bTNM6iCAgAFSgAIY2hl"
+        + "Y2tzdW1JAAVjb3VudEkACGhhc2hjb2RlSQAKbXVsdGlwbGllckwACnVwZGF0ZUxpc3R0ABBMamF2YS91dGlsL0xpc3Q7eHAAAAAAM1JZ"
+        + "AwAAAASueUK4AAAAJXNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAAEdwQAAAAEdAAMc2VyaWFsaXph"
+        + "Ymxlc3IAEWphdmEubGFuZy5JbnRlZ2VyEuKgpPeBhzgCAAFJAAV2YWx1ZXhyABBqYXZhLmxhbmcuTnVtYmVyhqyVHQuU4IsCAAB4cAAA"
+        + "AAFzcgAOamF2YS5sYW5nLkxvbmc7i+SQzI8j3wIAAUoABXZhbHVleHEAfgAHAAAAAAAAAAJweA==");
+    CacheKey cacheKey = (CacheKey) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    assertEquals(new CacheKey(new Object[] { "serializable", 1, 2L, null }), cacheKey);
+    assertFalse(cacheKey.isCompact());
+    cacheKey.update("more");
+    assertEquals(new CacheKey(new Object[] { "serializable", 1, 2L, null, "more" }), cacheKey);
+  }
+
+  private static CacheKey compactKey(int componentLimit, Object[] components) {
+    CacheKey key = new CacheKey(components.length, componentLimit);
+    key.updateAll(components);
+    return key;
+  }
+
   @Test (expected = NotSerializableException.class)
   public void serializationExceptionTest() throws Exception {
     CacheKey cacheKey = new CacheKey();
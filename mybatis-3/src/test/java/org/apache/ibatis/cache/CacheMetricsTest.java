@@ -0,0 +1,149 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CacheMetricsTest {
+
+  @Test
+  public void shouldCountRequestsPutsRemovalsAndClears() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("default"));
+    cache.putObject(1, "one");
+    cache.putObject(2, null);
+    cache.getObject(1);
+    cache.getObject(1);
+    cache.getObject(2);
+    cache.removeObject(1);
+    cache.clear();
+    CacheMetrics metrics = cache.getMetrics();
+    assertEquals(3, metrics.getRequests());
+    assertEquals(2, metrics.getHits());
+    assertEquals(1, metrics.getMisses());
+    assertEquals(2.0 / 3.0, metrics.getHitRatio(), 0.0001);
+    assertEquals(1, metrics.getPuts());
+    assertEquals(2, metrics.getRemovals());
+    assertEquals(1, metrics.getClears());
+  }
+
+  @Test
+  public void shouldCountEvictionsOfTheBuiltCache() {
+    CacheBuilder builder = new CacheBuilder("evicting");
+    Cache cache = builder.size(2).build();
+    CacheMetrics metrics = builder.getMetrics();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, metrics.getPuts());
+    assertEquals(3, metrics.getEvictions());
+    assertEquals(2, metrics.getSize());
+    assertEquals("evicting", metrics.getId());
+  }
+
+  @Test
+  public void shouldBuildLoadTimeHistogram() {
+    CacheMetrics metrics = new CacheMetrics(new PerpetualCache("default"));
+    metrics.recordLoad(500000L);
+    metrics.recordLoad(3000000L);
+    metrics.recordLoad(4000000L);
+    metrics.recordLoad(60000000000L);
+    long[] histogram = metrics.getLoadTimeHistogram();
+    assertEquals(metrics.getLoadTimeBucketLimits().length + 1, histogram.length);
+    assertEquals(1, histogram[0]);
+    assertEquals(2, histogram[2]);
+    assertEquals(1, histogram[histogram.length - 1]);
+    assertEquals(4, metrics.getLoads());
+    assertEquals((0.5 + 3 + 4 + 60000) / 4, metrics.getAverageLoadMillis(), 0.0001);
+  }
+
+  @Test
+  public void shouldCountAcrossThreads() throws Exception {
+    final CacheMetrics metrics = new CacheMetrics(new PerpetualCache("default"));
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            metrics.recordPut();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, metrics.getPuts());
+  }
+
+  @Test
+  public void shouldRegisterMBeans() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setCacheMBeansEnabled(true);
+    LoggingCache cache = new LoggingCache(new PerpetualCache("org.apache.ibatis.domain.BlogMapper"));
+    configuration.addCacheMetrics(cache.getMetrics());
+    cache.getObject(1);
+    assertSame(cache.getMetrics(), configuration.getCacheMetrics("org.apache.ibatis.domain.BlogMapper"));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.ibatis:type=CacheMetrics,configuration=\"default\",id="
+        + ObjectName.quote("org.apache.ibatis.domain.BlogMapper"));
+    try {
+      assertEquals(1L, server.getAttribute(name, "Requests"));
+      assertEquals(0L, server.getAttribute(name, "Hits"));
+    } finally {
+      configuration.unregisterCacheMBeans();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void shouldRegisterMBeansUnderTheConfiguredName() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.ibatis:type=CacheMetrics,configuration=\"shop\",id=\"default\"");
+    Configuration previous = new Configuration();
+    previous.setCacheMBeansEnabled(true);
+    previous.setCacheMBeansName("shop");
+    previous.addCacheMetrics(new CacheMetrics(new PerpetualCache("default")));
+    // a redeployed configuration replaces the MBeans of the previous one
+    Configuration configuration = new Configuration();
+    configuration.setCacheMBeansEnabled(true);
+    configuration.setCacheMBeansName("shop");
+    CacheMetrics metrics = new CacheMetrics(new PerpetualCache("default"));
+    metrics.recordPut();
+    configuration.addCacheMetrics(metrics);
+    try {
+      assertEquals(1L, server.getAttribute(name, "Puts"));
+      previous.unregisterCacheMBeans();
+      assertTrue(server.isRegistered(name));
+    } finally {
+      configuration.unregisterCacheMBeans();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+}
@@ -0,0 +1,180 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheSnapshotTest {
+
+  private File file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = File.createTempFile("caches", ".snapshot");
+    file.delete();
+  }
+
+  @After
+  public void deleteFile() {
+    file.delete();
+  }
+
+  @Test
+  public void shouldRestoreSavedEntries() {
+    Configuration configuration = newConfiguration("*");
+    Cache cache = newCache(configuration, "blog", "title");
+    cache.putObject(key(1), "first");
+    cache.putObject(key(2), "second");
+    cache.putObject(key(3), new Object());
+    assertEquals(2, configuration.getCacheSnapshot().save());
+
+    Configuration restarted = newConfiguration("*");
+    Cache restartedCache = newCache(restarted, "blog", "title");
+    assertEquals(2, restarted.getCacheSnapshot().restore());
+    assertEquals("first", restartedCache.getObject(key(1)));
+    assertEquals("second", restartedCache.getObject(key(2)));
+    assertNull(restartedCache.getObject(key(3)));
+    assertEquals(0, restarted.getCacheSnapshot().restore());
+  }
+
+  @Test
+  public void shouldOnlySnapshotNamedCaches() {
+    Configuration configuration = newConfiguration("blog");
+    newCache(configuration, "blog", "title").putObject(key(1), "blog");
+    newCache(configuration, "author", "name").putObject(key(1), "author");
+    assertEquals(1, configuration.getCacheSnapshot().save());
+
+    Configuration restarted = newConfiguration("blog,author");
+    Cache blogCache = newCache(restarted, "blog", "title");
+    Cache authorCache = newCache(restarted, "author", "name");
+    assertEquals(1, restarted.getCacheSnapshot().restore());
+    assertEquals("blog", blogCache.getObject(key(1)));
+    assertNull(authorCache.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldDiscardCachesWhoseMappingsChanged() {
+    Configuration configuration = newConfiguration("*");
+    newCache(configuration, "blog", "title").putObject(key(1), "blog");
+    newCache(configuration, "author", "name").putObject(key(1), "author");
+    configuration.getCacheSnapshot().save();
+
+    Configuration restarted = newConfiguration("*");
+    Cache blogCache = newCache(restarted, "blog", "subject");
+    Cache authorCache = newCache(restarted, "author", "name");
+    assertEquals(1, restarted.getCacheSnapshot().restore());
+    assertNull(blogCache.getObject(key(1)));
+    assertEquals("author", authorCache.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldIgnoreAnIncompleteSnapshot() throws Exception {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] { 'M', 'B', 'C', 'S', 0, 0, 0, 1, 0, 0 });
+    out.close();
+    Configuration configuration = newConfiguration("*");
+    Cache cache = newCache(configuration, "blog", "title");
+    assertEquals(0, configuration.getCacheSnapshot().restore());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldRestoreThroughTheDecorators() {
+    Configuration configuration = newConfiguration("*");
+    Cache cache = newCache(configuration, "blog", "title");
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(key(i), i);
+    }
+    configuration.getCacheSnapshot().save();
+
+    Configuration restarted = newConfiguration("*");
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(restarted, "resource");
+    assistant.setCurrentNamespace("blog");
+    // read-write, blocking and bounded to 5 entries by the LRU decorator
+    Cache restartedCache = assistant.useNewCache(null, null, null, 5, true, true, new Properties());
+    addStatement(restarted, restartedCache, "blog", "title");
+    assertEquals(10, restarted.getCacheSnapshot().restore());
+    assertEquals(5, restartedCache.getSize());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectCachesThatCannotListTheirKeys() {
+    Configuration configuration = newConfiguration("*");
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(configuration, "resource");
+    assistant.setCurrentNamespace("blog");
+    assistant.useNewCache(CustomCache.class, null, null, null, false, false, new Properties());
+  }
+
+  private Configuration newConfiguration(String caches) {
+    Configuration configuration = new Configuration();
+    configuration.setCacheSnapshotFile(file.getPath());
+    configuration.setCacheSnapshotCaches(new HashSet<String>(Arrays.asList(caches.split(","))));
+    return configuration;
+  }
+
+  private Cache newCache(Configuration configuration, String namespace, String property) {
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(configuration, "resource");
+    assistant.setCurrentNamespace(namespace);
+    Cache cache = assistant.useNewCache(null, null, null, null, false, false, new Properties());
+    addStatement(configuration, cache, namespace, property);
+    return cache;
+  }
+
+  private void addStatement(Configuration configuration, Cache cache, String namespace, String property) {
+    List<ResultMapping> mappings = Collections.singletonList(
+        new ResultMapping.Builder(configuration, property, property, String.class).build());
+    ResultMap resultMap = new ResultMap.Builder(configuration, namespace + ".map", HashMap.class, mappings).build();
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, namespace + ".select",
+        new StaticSqlSource(configuration, "select * from " + namespace), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).cache(cache).build());
+  }
+
+  private static CacheKey key(int id) {
+    CacheKey key = new CacheKey();
+    key.update("select");
+    key.update(id);
+    return key;
+  }
+
+  public static class CustomCache extends LoggingCache {
+    public CustomCache(String id) {
+      super(new PerpetualCache(id));
+    }
+  }
+
+}
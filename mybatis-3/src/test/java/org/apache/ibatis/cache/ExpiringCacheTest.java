@@ -0,0 +1,158 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void shouldExpireEntriesAfterWrite() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(1000);
+    cache.putObject(1, "one");
+    cache.time = 500;
+    cache.putObject(2, "two");
+    assertEquals("one", cache.getObject(1));
+    cache.time = 1000;
+    assertNull(cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+    assertEquals(1, cache.getSize());
+    cache.time = 1500;
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldExtendEntriesOnAccess() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterAccess(1000);
+    cache.putObject(1, "one");
+    for (int i = 1; i <= 5; i++) {
+      cache.time = i * 900;
+      assertEquals("one", cache.getObject(1));
+    }
+    cache.time = 4500 + 1000;
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldNotExtendEntriesPastWriteExpiry() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(2000);
+    cache.setExpireAfterAccess(1000);
+    cache.putObject(1, "one");
+    cache.time = 900;
+    assertEquals("one", cache.getObject(1));
+    cache.time = 1800;
+    assertEquals("one", cache.getObject(1));
+    cache.time = 2000;
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldUsePerValueExpiry() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(60000);
+    cache.putObject(1, ExpiringCache.withExpiry("one", 100L, null));
+    cache.putObject(2, "two");
+    assertEquals("one", cache.getObject(1));
+    cache.time = 100;
+    assertNull(cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+  }
+
+  @Test
+  public void shouldExpireLongDeadlines() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(24L * 60 * 60 * 1000);
+    cache.putObject(1, "one");
+    cache.time = 24L * 60 * 60 * 1000 - 1;
+    assertEquals("one", cache.getObject(1));
+    cache.time = 24L * 60 * 60 * 1000;
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldKeepEntriesWithoutExpiry() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.putObject(1, "one");
+    cache.time = Integer.MAX_VALUE;
+    assertEquals("one", cache.getObject(1));
+  }
+
+  @Test
+  public void shouldRemoveAndClear() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(1000);
+    cache.putObject(1, "one");
+    cache.putObject(2, "two");
+    cache.removeObject(1);
+    assertNull(cache.getObject(1));
+    cache.clear();
+    assertNull(cache.getObject(2));
+    cache.putObject(2, "two");
+    cache.time = 999;
+    assertEquals("two", cache.getObject(2));
+  }
+
+  @Test
+  public void shouldUnwrapValues() {
+    Object value = ExpiringCache.withExpiry("one", 100L, null);
+    assertNotSame("one", value);
+    assertEquals("one", ExpiringCache.unwrap(value));
+    assertSame("one", ExpiringCache.withExpiry("one", null, null));
+  }
+
+  @Test
+  public void shouldForgetTheExpiryOfEntriesEvictedBelow() {
+    PerpetualCache base = new PerpetualCache("default");
+    LruCache lru = new LruCache(base);
+    lru.setSize(10);
+    ManualClockCache cache = new ManualClockCache(lru);
+    cache.setExpireAfterWrite(1000);
+    cache.setKeySource(base);
+    CacheMetrics metrics = new CacheMetrics(cache);
+    cache.setMetrics(metrics);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(10, cache.getSize());
+    assertEquals(999, cache.getObject(999));
+    cache.time = 2000;
+    assertEquals(0, cache.getSize());
+    // the expiries of the entries the LRU evicted were dropped instead of firing at their deadline
+    assertTrue(metrics.getEvictions() < 100);
+  }
+
+  private static class ManualClockCache extends ExpiringCache {
+    private long time;
+
+    ManualClockCache(Cache delegate) {
+      super(delegate);
+    }
+
+    @Override
+    protected long now() {
+      return time;
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfCachedValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>();
+    value.add("hello");
+    cache.putObject("key", value);
+    Object copy = cache.getObject("key");
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveAndClear() {
+    OffHeapCache cache = new OffHeapCache("default");
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    cache.removeObject(3);
+    assertNull(cache.getObject(3));
+    cache.putObject(4, null);
+    assertNull(cache.getObject(4));
+    assertEquals(8, cache.getSize());
+    cache.clear();
+    assertNull(cache.getObject(5));
+    assertEquals(0, cache.getSize());
+    cache.putObject(5, "again");
+    assertEquals("again", cache.getObject(5));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedWhenSlabsAreFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize("1k");
+    cache.setMaxBytes("2k");
+    char[] chars = new char[200];
+    String value = new String(chars);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, value);
+      assertEquals(value, cache.getObject(0));
+    }
+    assertEquals(value, cache.getObject(0));
+    assertEquals(value, cache.getObject(99));
+    assertNull(cache.getObject(1));
+    assertEquals(2048, cache.getAllocatedBytes());
+  }
+
+  @Test
+  public void shouldGiveSlabsToTheSizesOfNewValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize("1k");
+    cache.setMaxBytes("2k");
+    String big = new String(new char[200]).replace('\0', 'x');
+    for (int i = 0; i < 8; i++) {
+      cache.putObject("big" + i, big);
+    }
+    assertEquals(8, cache.getSize());
+    String small = new String(new char[20]).replace('\0', 'x');
+    for (int i = 0; i < 32; i++) {
+      cache.putObject("small" + i, small);
+    }
+    for (int i = 0; i < 32; i++) {
+      assertEquals(small, cache.getObject("small" + i));
+    }
+    assertNull(cache.getObject("big7"));
+    assertEquals(32, cache.getSize());
+    assertEquals(2048, cache.getAllocatedBytes());
+  }
+
+  @Test
+  public void shouldKeepTheSlabsOfRecentlyUsedSizes() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize("1k");
+    cache.setMaxBytes("2k");
+    String big = new String(new char[200]).replace('\0', 'x');
+    String small = new String(new char[20]).replace('\0', 'x');
+    cache.putObject("small", small);
+    // the slab of the small value is not taken while it is used more recently than the big ones
+    for (int i = 0; i < 16; i++) {
+      cache.putObject("big" + i, big);
+      assertEquals(small, cache.getObject("small"));
+    }
+    assertEquals(big, cache.getObject("big15"));
+  }
+
+  @Test
+  public void shouldNotCacheValuesBiggerThanASlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize("1k");
+    cache.putObject("big", new byte[2048]);
+    assertNull(cache.getObject("big"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldHonourSize() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSize(5);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+    assertNull(cache.getObject(0));
+    assertEquals(9, cache.getObject(9));
+  }
+
+  @Test
+  public void shouldMapSlabsToFile() throws Exception {
+    File file = File.createTempFile("offheap", ".cache");
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setFile(file.getAbsolutePath());
+    cache.setMaxBytes("4m");
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+    assertEquals(4L * 1024 * 1024, file.length());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableValues() {
+    new OffHeapCache("default").putObject("key", new Object());
+  }
+
+}
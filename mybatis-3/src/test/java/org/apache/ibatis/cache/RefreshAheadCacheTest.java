@@ -0,0 +1,159 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class RefreshAheadCacheTest {
+
+  @Test
+  public void shouldReturnStaleValueAndRefreshInBackground() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    CountingLoader loader = new CountingLoader();
+    cache.putObject(1, RefreshAheadCache.withLoader("v0", loader));
+    cache.time = 999;
+    assertEquals("v0", cache.getObject(1));
+    assertEquals(0, cache.pending.size());
+    cache.time = 1000;
+    assertEquals("v0", cache.getObject(1));
+    assertEquals("v0", cache.getObject(1));
+    // a single reload at a time
+    assertEquals(1, cache.pending.size());
+    cache.runPending();
+    assertEquals("v1", cache.getObject(1));
+    assertEquals(1, loader.count);
+  }
+
+  @Test
+  public void shouldMissWhenTooStale() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setMaxStaleness(500);
+    cache.putObject(1, RefreshAheadCache.withLoader("v0", new CountingLoader()));
+    cache.time = 1200;
+    assertEquals("v0", cache.getObject(1));
+    cache.time = 1500;
+    assertNull(cache.getObject(1));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldDiscardReloadOfRemovedEntry() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.putObject(1, RefreshAheadCache.withLoader("v0", new CountingLoader()));
+    cache.time = 1000;
+    cache.getObject(1);
+    cache.putObject(1, null);
+    cache.runPending();
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldDiscardReloadOfReplacedEntry() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.putObject(1, RefreshAheadCache.withLoader("v0", new CountingLoader()));
+    cache.time = 1000;
+    cache.getObject(1);
+    cache.putObject(1, RefreshAheadCache.withLoader("new", new CountingLoader()));
+    cache.runPending();
+    assertEquals("new", cache.getObject(1));
+  }
+
+  @Test
+  public void shouldRetryAfterFailedReload() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    FailingLoader loader = new FailingLoader();
+    cache.putObject(1, RefreshAheadCache.withLoader("v0", loader));
+    cache.time = 1000;
+    assertEquals("v0", cache.getObject(1));
+    cache.runPending();
+    assertEquals("v0", cache.getObject(1));
+    assertEquals(1, cache.pending.size());
+  }
+
+  @Test
+  public void shouldNotRefreshEntriesWithoutLoader() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.putObject(1, "v0");
+    cache.time = 5000;
+    assertEquals("v0", cache.getObject(1));
+    assertEquals(0, cache.pending.size());
+  }
+
+  @Test
+  public void shouldRemoveEntriesBeyondSize() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("default"));
+    cache.setSize(2);
+    for (int i = 0; i < 3; i++) {
+      cache.putObject(i, RefreshAheadCache.withLoader("v" + i, new CountingLoader()));
+    }
+    assertNull(cache.getObject(0));
+    assertEquals("v2", cache.getObject(2));
+  }
+
+  private static class CountingLoader implements RefreshAheadCache.Loader {
+    private int count;
+
+    @Override
+    public Object load() {
+      return "v" + (++count);
+    }
+  }
+
+  private static class FailingLoader implements RefreshAheadCache.Loader {
+    @Override
+    public Object load() throws Exception {
+      throw new IllegalStateException("database down");
+    }
+  }
+
+  private static class ManualClockCache extends RefreshAheadCache {
+    private long time;
+    private final List<Runnable> pending = new ArrayList<Runnable>();
+
+    ManualClockCache(Cache delegate) {
+      super(delegate);
+      setRefreshAfterWrite(1000);
+      setExecutor(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          pending.add(command);
+        }
+      });
+    }
+
+    @Override
+    protected long now() {
+      return time;
+    }
+
+    void runPending() {
+      List<Runnable> commands = new ArrayList<Runnable>(pending);
+      pending.clear();
+      for (Runnable command : commands) {
+        command.run();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.executor.CachingExecutor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class TableDependencyCacheTest {
+
+  @Test
+  public void shouldEvictOnlyEntriesThatDependOnTheTables() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.putObject("authors", "a", tables("author"));
+    cache.putObject("posts", "p", tables("post", "author"));
+    cache.putObject("blogs", "b", tables("blog"));
+    cache.evictTables(tables("author"));
+    assertNull(cache.getObject("authors"));
+    assertNull(cache.getObject("posts"));
+    assertEquals("b", cache.getObject("blogs"));
+  }
+
+  @Test
+  public void shouldEvictEntriesWithoutTablesOnAnyEviction() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.putObject("unknown", "u");
+    cache.putObject("blogs", "b", tables("blog"));
+    cache.evictTables(tables("author"));
+    assertNull(cache.getObject("unknown"));
+    assertEquals("b", cache.getObject("blogs"));
+  }
+
+  @Test
+  public void shouldEvictEldestEntriesWhenTheIndexOverflows() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.setSize(2);
+    cache.putObject(0, 0, tables("a"));
+    cache.putObject(1, 1, tables("a"));
+    cache.putObject(2, 2, tables("a"));
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    assertEquals(2, cache.getObject(2));
+    assertTrue(cache.dependsOn(2, tables("a")));
+    assertFalse(cache.dependsOn(0, tables("a")));
+  }
+
+  @Test
+  public void shouldEvictOnCommitOnly() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.putObject("authors", "a", tables("author"));
+    cache.putObject("blogs", "b", tables("blog"));
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.evictTables(tables("author"));
+    // hidden from the transaction that wrote the table but not from the others until commit
+    assertNull(txCache.getObject("authors"));
+    assertEquals("b", txCache.getObject("blogs"));
+    assertEquals("a", cache.getObject("authors"));
+    txCache.commit();
+    assertNull(cache.getObject("authors"));
+    assertEquals("b", cache.getObject("blogs"));
+  }
+
+  @Test
+  public void shouldDropPendingEntriesThatDependOnEvictedTables() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.putObject("authors", "a", tables("author"));
+    txCache.putObject("blogs", "b", tables("blog"));
+    txCache.evictTables(tables("author"));
+    txCache.commit();
+    assertNull(cache.getObject("authors"));
+    assertEquals("b", cache.getObject("blogs"));
+    assertTrue(cache.dependsOn("blogs", tables("blog")));
+  }
+
+  @Test
+  public void shouldClearWhenTheTablesAreUnknown() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.putObject("blogs", "b", tables("blog"));
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.evictTables(Collections.<String>emptySet());
+    txCache.commit();
+    assertNull(cache.getObject("blogs"));
+  }
+
+  @Test
+  public void shouldNotBuildTheSqlOfStatementsThatDeclareTheirTables() throws Exception {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    cache.putObject("authors", "a", tables("author"));
+    cache.putObject("blogs", "b", tables("blog"));
+    SqlSource sqlSource = new SqlSource() {
+      @Override
+      public BoundSql getBoundSql(Object parameterObject) {
+        throw new AssertionError("the declared tables must be used");
+      }
+    };
+    MappedStatement ms = new MappedStatement.Builder(new Configuration(), "updateAuthor", sqlSource, SqlCommandType.UPDATE)
+        .cache(cache).flushCacheRequired(true).tables("author").build();
+    Executor delegate = (Executor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Executor.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return "update".equals(method.getName()) ? Integer.valueOf(1) : null;
+          }
+        });
+    CachingExecutor executor = new CachingExecutor(delegate);
+    executor.update(ms, null);
+    executor.commit(true);
+    assertNull(cache.getObject("authors"));
+    assertEquals("b", cache.getObject("blogs"));
+  }
+
+  private static Set<String> tables(String... tables) {
+    return new HashSet<String>(Arrays.asList(tables));
+  }
+
+}
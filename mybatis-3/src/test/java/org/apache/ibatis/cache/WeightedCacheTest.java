@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class WeightedCacheTest {
+
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemsBeyondMaxBytes() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new FixedWeigher());
+    cache.setMaxBytes(300);
+    cache.putObject(0, 100);
+    cache.putObject(1, 100);
+    cache.putObject(2, 100);
+    assertEquals(100, cache.getObject(0));
+    cache.putObject(3, 100);
+    assertNull(cache.getObject(1));
+    assertEquals(100, cache.getObject(0));
+    assertEquals(300, cache.getWeight());
+    assertEquals(3, cache.getSize());
+  }
+
+  @Test
+  public void shouldNotCacheItemsHeavierThanMaxBytes() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new FixedWeigher());
+    cache.setMaxBytes(300);
+    cache.putObject(0, 100);
+    cache.putObject(1, 301);
+    assertNull(cache.getObject(1));
+    assertEquals(100, cache.getObject(0));
+    assertEquals(100, cache.getWeight());
+  }
+
+  @Test
+  public void shouldUpdateWeightOnReplaceRemoveAndClear() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new FixedWeigher());
+    cache.putObject(0, 100);
+    cache.putObject(0, 50);
+    assertEquals(50, cache.getWeight());
+    cache.putObject(1, 10);
+    cache.removeObject(0);
+    assertEquals(10, cache.getWeight());
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldWeighLargerListsHeavier() {
+    ObjectSizeWeigher weigher = new ObjectSizeWeigher();
+    assertTrue(weigher.weigh("key", rows(5000)) > 100 * weigher.weigh("key", rows(5)));
+    assertTrue(weigher.weigh("key", rows(5)) > 5 * ("name 0".length() * 2));
+  }
+
+  @Test
+  public void shouldWeighSerializedValuesByLength() throws Exception {
+    WeightedCache weightedCache = new WeightedCache(new PerpetualCache("default"));
+    Cache cache = new SerializedCache(weightedCache);
+    cache.putObject(0, rows(100));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(rows(100));
+    oos.flush();
+    assertEquals(new ObjectSizeWeigher().weigh(0, bos.toByteArray()), weightedCache.getWeight());
+  }
+
+  @Test
+  public void shouldParseByteSizes() {
+    assertEquals(65536L, WeightedCache.parseBytes("65536"));
+    assertEquals(512L * 1024, WeightedCache.parseBytes("512k"));
+    assertEquals(64L * 1024 * 1024, WeightedCache.parseBytes(" 64M "));
+    assertEquals(1024L * 1024 * 1024, WeightedCache.parseBytes("1gb"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInvalidByteSizes() {
+    WeightedCache.parseBytes("64 megabytes");
+  }
+
+  private static List<Row> rows(int count) {
+    List<Row> rows = new ArrayList<Row>();
+    for (int i = 0; i < count; i++) {
+      rows.add(new Row(i, "name " + i));
+    }
+    return rows;
+  }
+
+  private static class FixedWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return (Integer) value;
+    }
+  }
+
+  private static class Row implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int id;
+    private final String name;
+
+    Row(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.BaseDataTest;
+import org.junit.Test;
+
+public class PoolMetricsTest extends BaseDataTest {
+
+  @Test
+  public void shouldRecordCheckoutsReturnsAndConnections() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumIdleConnections(1);
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      PoolMetrics metrics = ds.getPoolMetrics();
+      assertEquals(2, metrics.getActiveConnections());
+      assertEquals(2, metrics.getCheckouts());
+      assertEquals(2, metrics.getCreatedConnections());
+      c1.close();
+      c2.close();
+      assertEquals(0, metrics.getActiveConnections());
+      assertEquals(1, metrics.getIdleConnections());
+      assertEquals(1, metrics.getTotalConnections());
+      assertEquals(1, metrics.getClosedConnections());
+      assertEquals(4, metrics.getValidations());
+      assertEquals(0, metrics.getFailedValidations());
+      assertEquals(2, sum(metrics.getWaitTimeHistogram()));
+      assertEquals(2, sum(metrics.getUsageTimeHistogram()));
+      assertEquals(2, sum(metrics.getCreationTimeHistogram()));
+      assertEquals(metrics.getBucketLimits().length + 1, metrics.getUsageTimeHistogram().length);
+      assertNotNull(metrics.toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldSampleTimelines() throws Exception {
+    ConnectionBag bag = new ConnectionBag();
+    PoolMetrics metrics = new PoolMetrics(bag);
+    metrics.sample();
+    ConnectionBag.Entry entry = new ConnectionBag.Entry(null, null, null);
+    bag.add(entry);
+    bag.release(entry);
+    metrics.sample();
+    assertArrayEquals(new int[] { 0, 1 }, metrics.getIdleConnectionsTimeline());
+    assertArrayEquals(new int[] { 0, 0 }, metrics.getActiveConnectionsTimeline());
+    long[] timestamps = metrics.getTimelineTimestamps();
+    assertEquals(2, timestamps.length);
+    assertTrue(timestamps[0] <= timestamps[1]);
+    for (int i = 0; i < PoolMetrics.TIMELINE_SIZE; i++) {
+      metrics.sample();
+    }
+    assertEquals(PoolMetrics.TIMELINE_SIZE, metrics.getWaitingThreadsTimeline().length);
+    assertEquals(1, metrics.getIdleConnectionsTimeline()[0]);
+  }
+
+  @Test
+  public void shouldNotifyListeners() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      final AtomicInteger events = new AtomicInteger();
+      ds.addPoolListener(new PoolListener() {
+        @Override
+        public void connectionCreated(long nanos) {
+          throw new IllegalStateException("should be ignored");
+        }
+
+        @Override
+        public void connectionClosed() {
+          events.incrementAndGet();
+        }
+
+        @Override
+        public void connectionValidated(long nanos, boolean valid) {
+          events.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedOut(long waitNanos) {
+          events.incrementAndGet();
+        }
+
+        @Override
+        public void connectionReturned(long usageNanos) {
+          events.incrementAndGet();
+        }
+
+        @Override
+        public void checkoutRejected() {
+          events.incrementAndGet();
+        }
+      });
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolCheckoutTimeout(10);
+      Connection c = ds.getConnection();
+      try {
+        ds.getConnection();
+        fail();
+      } catch (SQLTransientConnectionException e) {
+        // expected
+      }
+      c.close();
+      // validated, checked out, rejected, validated, returned
+      assertEquals(5, events.get());
+      assertTrue(ds.getPoolMetrics().isSampling());
+      assertEquals(1, ds.getPoolMetrics().getRejectedCheckouts());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRegisterMBean() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMBeanEnabled(true);
+      ds.setPoolName("metrics-test");
+      ds.getConnection().close();
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis:type=PoolMetrics,name=\"metrics-test\"");
+      assertTrue(server.isRegistered(name));
+      assertEquals(1L, server.getAttribute(name, "Checkouts"));
+      assertEquals(1, server.getAttribute(name, "IdleConnections"));
+      assertTrue(ds.getPoolMetrics().isSampling());
+    } finally {
+      ds.forceCloseAll();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName("org.apache.ibatis:type=PoolMetrics,name=\"metrics-test\"")));
+    assertFalse(ds.getPoolMetrics().isSampling());
+  }
+
+  @Test
+  public void shouldNotSampleUnwatchedPools() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.getConnection().close();
+      assertFalse(ds.getPoolMetrics().isSampling());
+      assertEquals(0, ds.getPoolMetrics().getIdleConnectionsTimeline().length);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private static long sum(long[] histogram) {
+    long sum = 0;
+    for (long count : histogram) {
+      sum += count;
+    }
+    return sum;
+  }
+
+}
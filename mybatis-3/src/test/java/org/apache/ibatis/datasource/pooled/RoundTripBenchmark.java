@@ -0,0 +1,186 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+
+/**
+ * Counts the calls a transaction makes to the JDBC driver through a {@link PooledDataSource}, with and without
+ * tracking the state of the connections and caching prepared statements. Round trips are the calls that go to the
+ * database with drivers that do not keep track of the session state themselves: preparing, executing and closing
+ * statements, ending transactions and changing or reading the transaction settings.
+ * <p>
+ * This is not a unit test, run it with {@code main} and optionally the number of transactions.
+ */
+public final class RoundTripBenchmark {
+
+  private static final Set<String> ROUND_TRIP_METHODS = new HashSet<String>(Arrays.asList(
+      "prepareStatement", "execute", "executeQuery", "executeUpdate", "close", "commit", "rollback",
+      "getAutoCommit", "setAutoCommit", "getTransactionIsolation", "setTransactionIsolation"));
+
+  private static final AtomicLong CALLS = new AtomicLong();
+  private static final AtomicLong ROUND_TRIPS = new AtomicLong();
+
+  private RoundTripBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    System.out.println("per transaction             update calls/round trips   select calls/round trips");
+    run("untracked", false, 0, transactions);
+    run("tracked", true, 0, transactions);
+    run("tracked + statement cache", true, 20, transactions);
+  }
+
+  private static void run(String name, boolean tracked, int statementCacheSize, int transactions) throws Exception {
+    PooledDataSource dataSource = new PooledDataSource(new UnpooledDataSource(CountingDriver.class.getName(), "jdbc:counting", null));
+    dataSource.setPoolTrackConnectionState(tracked);
+    dataSource.setPoolPreparedStatementCacheSize(statementCacheSize);
+    // warm up the pool and the statements
+    transaction(dataSource, true);
+    transaction(dataSource, false);
+    CALLS.set(0);
+    ROUND_TRIPS.set(0);
+    for (int i = 0; i < transactions; i++) {
+      transaction(dataSource, true);
+    }
+    double updateCalls = (double) CALLS.getAndSet(0) / transactions;
+    double updateRoundTrips = (double) ROUND_TRIPS.getAndSet(0) / transactions;
+    for (int i = 0; i < transactions; i++) {
+      transaction(dataSource, false);
+    }
+    double selectCalls = (double) CALLS.get() / transactions;
+    double selectRoundTrips = (double) ROUND_TRIPS.get() / transactions;
+    System.out.println(String.format("%-27s %8.1f / %-14.1f %8.1f / %.1f", name, updateCalls, updateRoundTrips,
+        selectCalls, selectRoundTrips));
+    dataSource.forceCloseAll();
+  }
+
+  /*
+   * A transaction as an executor runs it: an update that is committed, or a select that is not
+   */
+  private static void transaction(PooledDataSource dataSource, boolean update) throws SQLException {
+    JdbcTransaction transaction = new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false);
+    Connection connection = transaction.getConnection();
+    PreparedStatement statement = connection.prepareStatement(update ? "UPDATE T SET A = ?" : "SELECT A FROM T");
+    statement.setInt(1, 1);
+    if (update) {
+      statement.executeUpdate();
+    } else {
+      statement.executeQuery();
+    }
+    statement.close();
+    if (update) {
+      transaction.commit();
+    }
+    transaction.close();
+  }
+
+  public static class CountingDriver implements Driver {
+
+    @Override
+    public Connection connect(String url, Properties info) {
+      return acceptsURL(url) ? (Connection) counting(Connection.class) : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url.startsWith("jdbc:counting");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    public Logger getParentLogger() {
+      return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+    private static Object counting(final Class<?> type) {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+        private boolean autoCommit = true;
+        private int transactionIsolation = Connection.TRANSACTION_REPEATABLE_READ;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          String name = method.getName();
+          if (Object.class.equals(method.getDeclaringClass())) {
+            return "hashCode".equals(name) ? System.identityHashCode(proxy) : "equals".equals(name) ? proxy == args[0] : "counting";
+          }
+          CALLS.incrementAndGet();
+          if (ROUND_TRIP_METHODS.contains(name)) {
+            ROUND_TRIPS.incrementAndGet();
+          }
+          if ("prepareStatement".equals(name)) {
+            return counting(PreparedStatement.class);
+          } else if ("getAutoCommit".equals(name)) {
+            return autoCommit;
+          } else if ("setAutoCommit".equals(name)) {
+            autoCommit = (Boolean) args[0];
+          } else if ("getTransactionIsolation".equals(name)) {
+            return transactionIsolation;
+          } else if ("setTransactionIsolation".equals(name)) {
+            transactionIsolation = (Integer) args[0];
+          } else if ("close".equals(name)) {
+            closed = true;
+          } else if ("isClosed".equals(name)) {
+            return closed;
+          } else if (method.getReturnType() == int.class) {
+            return 0;
+          } else if (method.getReturnType() == boolean.class) {
+            return false;
+          }
+          return null;
+        }
+      });
+    }
+  }
+
+}
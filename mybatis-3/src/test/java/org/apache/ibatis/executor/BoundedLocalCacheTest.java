@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BoundedLocalCacheTest {
+
+  @Test
+  public void shouldOnlyEvictWhenAsked() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 2, 0);
+    for (int i = 0; i < 4; i++) {
+      cache.putObject(i, Arrays.asList(i));
+    }
+    assertEquals(4, cache.getSize());
+    assertEquals(Arrays.<Object>asList(0, 1), cache.evict());
+    assertEquals(2, cache.getSize());
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(3));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedFirst() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 2, 0);
+    cache.putObject(0, Arrays.asList(0));
+    cache.putObject(1, Arrays.asList(1));
+    cache.getObject(0);
+    cache.putObject(2, Arrays.asList(2));
+    assertEquals(Arrays.<Object>asList(1), cache.evict());
+    assertNotNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldNeverEvictExecutingQueries() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 1, 0);
+    cache.putObject(0, EXECUTION_PLACEHOLDER);
+    cache.putObject(1, Arrays.asList(1));
+    cache.putObject(2, Arrays.asList(2));
+    cache.evict();
+    assertSame(EXECUTION_PLACEHOLDER, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(2));
+  }
+
+  @Test
+  public void shouldEvictBeyondMaxBytes() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 0, 20000);
+    for (int i = 0; i < 10; i++) {
+      List<String> rows = new ArrayList<String>();
+      for (int j = 0; j < 100; j++) {
+        rows.add("row " + i + "-" + j);
+      }
+      cache.putObject(i, rows);
+    }
+    assertTrue(cache.getWeight() > 20000);
+    assertFalse(cache.evict().isEmpty());
+    assertTrue(cache.getWeight() <= 20000);
+    assertNotNull(cache.getObject(9));
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldForgetRemovedAndClearedEntries() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 1, 1000000);
+    cache.putObject(0, Arrays.asList(0));
+    cache.removeObject(0);
+    assertEquals(0, cache.getWeight());
+    cache.putObject(1, Arrays.asList(1));
+    cache.putObject(2, Arrays.asList(2));
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+    assertTrue(cache.evict().isEmpty());
+  }
+
+}
@@ -0,0 +1,213 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.CoalesceMode;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class QueryCoalescerTest {
+
+  @Test
+  public void shouldShareOneQueryAmongConcurrentExecutions() throws Exception {
+    List<List<String>> results = runConcurrently(CoalesceMode.SHARE, false);
+    for (List<String> result : results) {
+      assertSame(results.get(0), result);
+    }
+  }
+
+  @Test
+  public void shouldCopyResultsForJoiningExecutions() throws Exception {
+    List<List<String>> results = runConcurrently(CoalesceMode.COPY, false);
+    int copies = 0;
+    for (List<String> result : results) {
+      assertEquals(Arrays.asList("row"), result);
+      if (result != results.get(0)) {
+        copies++;
+      }
+    }
+    assertEquals(results.size() - 1, copies);
+  }
+
+  @Test
+  public void shouldRunOwnQueryWhenTheLeaderFails() throws Exception {
+    List<List<String>> results = runConcurrently(CoalesceMode.SHARE, true);
+    for (List<String> result : results) {
+      assertEquals(Arrays.asList("row"), result);
+    }
+  }
+
+  @Test
+  public void shouldNotCoalesceSequentialExecutions() throws Exception {
+    QueryCoalescer coalescer = new QueryCoalescer();
+    final AtomicInteger executions = new AtomicInteger();
+    QueryCoalescer.Query<String> query = new QueryCoalescer.Query<String>() {
+      @Override
+      public List<String> execute() {
+        executions.incrementAndGet();
+        return new ArrayList<String>(Arrays.asList("row"));
+      }
+    };
+    coalescer.query(key(), CoalesceMode.SHARE, query);
+    coalescer.query(key(), CoalesceMode.SHARE, query);
+    assertEquals(2, executions.get());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void shouldNotCopyResultsNobodyWaitsFor() throws Exception {
+    QueryCoalescer coalescer = new QueryCoalescer();
+    final SerializationCountingList results = new SerializationCountingList();
+    List<String> result = coalescer.query(key(), CoalesceMode.COPY, new QueryCoalescer.Query<String>() {
+      @Override
+      public List<String> execute() {
+        return results;
+      }
+    });
+    assertSame(results, result);
+    assertEquals(0, results.serializations);
+  }
+
+  @Test
+  public void shouldNotCoalesceStatementsWithNestedSelects() throws Exception {
+    Configuration configuration = new Configuration();
+    ResultMap postMap = new ResultMap.Builder(configuration, "postMap", HashMap.class, Collections.singletonList(
+        new ResultMapping.Builder(configuration, "comments", "id", Object.class).nestedQueryId("selectComments").build()))
+        .build();
+    configuration.addResultMap(postMap);
+    ResultMap blogMap = new ResultMap.Builder(configuration, "blogMap", HashMap.class, Collections.singletonList(
+        new ResultMapping.Builder(configuration, "posts").nestedResultMapId("postMap").build())).build();
+    ResultMap titleMap = new ResultMap.Builder(configuration, "titleMap", HashMap.class, Collections.singletonList(
+        new ResultMapping.Builder(configuration, "title", "title", String.class).build())).build();
+
+    QueryCoalescer coalescer = new QueryCoalescer();
+    assertFalse(coalescer.isCoalescable(select(configuration, "selectBlog", blogMap)));
+    assertTrue(coalescer.isCoalescable(select(configuration, "selectTitle", titleMap)));
+  }
+
+  private static MappedStatement select(Configuration configuration, String id, ResultMap resultMap) {
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, "select * from blog"),
+        SqlCommandType.SELECT).resultMaps(Collections.singletonList(resultMap)).build();
+  }
+
+  private List<List<String>> runConcurrently(final CoalesceMode mode, final boolean leaderFails) throws Exception {
+    final QueryCoalescer coalescer = new QueryCoalescer();
+    final CountDownLatch leaderStarted = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger executions = new AtomicInteger();
+    final List<List<String>> results = new ArrayList<List<String>>();
+    final QueryCoalescer.Query<String> query = new QueryCoalescer.Query<String>() {
+      @Override
+      public List<String> execute() throws SQLException {
+        int execution = executions.incrementAndGet();
+        if (execution == 1) {
+          leaderStarted.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          if (leaderFails) {
+            throw new SQLException("connection lost");
+          }
+        }
+        return new ArrayList<String>(Arrays.asList("row"));
+      }
+    };
+    Thread leader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          List<String> result = coalescer.query(key(), mode, query);
+          synchronized (results) {
+            results.add(0, result);
+          }
+        } catch (SQLException e) {
+          // expected when the leader fails
+        }
+      }
+    };
+    leader.start();
+    leaderStarted.await();
+    Thread[] followers = new Thread[4];
+    for (int i = 0; i < followers.length; i++) {
+      followers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            List<String> result = coalescer.query(key(), mode, query);
+            synchronized (results) {
+              results.add(result);
+            }
+          } catch (SQLException e) {
+            fail(e.toString());
+          }
+        }
+      };
+      followers[i].start();
+    }
+    while (coalescer.getInFlightCount() == 0) {
+      Thread.sleep(1);
+    }
+    // let the followers reach the in-flight query
+    Thread.sleep(100);
+    release.countDown();
+    leader.join();
+    for (Thread follower : followers) {
+      follower.join();
+    }
+    assertEquals(leaderFails ? 1 + followers.length : 1, executions.get());
+    assertEquals(leaderFails ? followers.length : 1 + followers.length, results.size());
+    return results;
+  }
+
+  private static CacheKey key() {
+    CacheKey key = new CacheKey();
+    key.update("selectBlog");
+    key.update(1);
+    return key;
+  }
+
+  private static class SerializationCountingList extends ArrayList<String> {
+    private static final long serialVersionUID = 1L;
+    private transient int serializations;
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      serializations++;
+      out.defaultWriteObject();
+    }
+  }
+
+}
@@ -21,10 +21,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
@@ -75,6 +77,326 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldShareConnectionsBetweenThreads() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      ds.setPoolTimeToWait(100);
+      final AtomicInteger failures = new AtomicInteger();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 8; i++) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < 50; j++) {
+                Connection c = ds.getConnection();
+                c.getAutoCommit();
+                c.close();
+              }
+            } catch (SQLException e) {
+              failures.incrementAndGet();
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(0, failures.get());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 2);
+      assertEquals(400, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldClaimOverdueConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumCheckoutTime(20);
+      Connection leaked = ds.getConnection();
+      Thread.sleep(50);
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+      leaked.close();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldKeepMinimumIdleConnectionsInTheBackground() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMinimumIdleConnections(2);
+      Connection c = ds.getConnection();
+      assertTrue(waitForIdleConnections(ds, 2));
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      Connection c2 = ds.getConnection();
+      assertTrue(waitForIdleConnections(ds, 2));
+      c2.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsPastTheirLifetime() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumConnectionLifetime(100);
+      ds.setPoolHousekeepingPeriod(20);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      assertTrue(waitForIdleConnections(ds, 0));
+      assertTrue(realConnection.isClosed());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReplaceConnectionsPastTheirLifetimeForWaitingThreads() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumConnectionLifetime(100);
+      ds.setPoolTimeToWait(10000);
+      Connection c = ds.getConnection();
+      final Connection realConnection = PooledDataSource.unwrapConnection(c);
+      final List<Connection> handedOver = new ArrayList<Connection>();
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Connection waited = ds.getConnection();
+            handedOver.add(PooledDataSource.unwrapConnection(waited));
+            waited.close();
+          } catch (SQLException e) {
+            // fails the assertion below
+          }
+        }
+      };
+      waiter.start();
+      while (ds.getPoolState().getHadToWaitCount() == 0) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(150);
+      long start = System.currentTimeMillis();
+      c.close();
+      waiter.join();
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertTrue(realConnection.isClosed());
+      assertEquals(1, handedOver.size());
+      assertNotSame(realConnection, handedOver.get(0));
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsIdleForTooLong() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMinimumIdleConnections(1);
+      ds.setPoolMaximumIdleTime(50);
+      ds.setPoolHousekeepingPeriod(20);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertTrue(ds.getPoolState().getIdleConnectionCount() >= 3);
+      assertTrue(waitForIdleConnections(ds, 1));
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldFailWhenCheckoutTimesOut() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolCheckoutTimeout(100);
+      Connection c = ds.getConnection();
+      long start = System.currentTimeMillis();
+      try {
+        ds.getConnection();
+        fail("Should have timed out");
+      } catch (SQLTransientConnectionException e) {
+        assertTrue(System.currentTimeMillis() - start < 5000);
+      }
+      assertEquals(1, ds.getPoolState().getRejectedCount());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRejectWhenTooManyThreadsAreWaiting() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumWaitingThreads(1);
+      Connection c = ds.getConnection();
+      final List<Connection> handedOver = new ArrayList<Connection>();
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Connection waited = ds.getConnection();
+            handedOver.add(waited);
+            waited.close();
+          } catch (SQLException e) {
+            // fails the assertion below
+          }
+        }
+      };
+      waiter.start();
+      while (ds.getPoolState().getHadToWaitCount() == 0) {
+        Thread.sleep(10);
+      }
+      try {
+        ds.getConnection();
+        fail("Should have been rejected");
+      } catch (SQLTransientConnectionException e) {
+        assertEquals(1, ds.getPoolState().getRejectedCount());
+      }
+      c.close();
+      waiter.join();
+      assertEquals(1, handedOver.size());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReusePreparedStatementsOfAConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(2);
+      String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement(sql);
+      st.executeQuery().close();
+      PreparedStatement realStatement = st.unwrap(PreparedStatement.class);
+      st.close();
+      assertTrue(st.isClosed());
+      assertFalse(realStatement.isClosed());
+      c.close();
+
+      c = ds.getConnection();
+      PreparedStatement cached = c.prepareStatement(sql);
+      assertSame(realStatement, cached.unwrap(PreparedStatement.class));
+      PreparedStatement inUse = c.prepareStatement(sql);
+      assertNotSame(realStatement, inUse.unwrap(PreparedStatement.class));
+      c.close();
+      assertTrue(cached.isClosed());
+      assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(2, ds.getPoolState().getStatementCacheMissCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldApplyConnectionSettingsOnlyWhenTheConnectionIsUsed() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      assertTrue(realConnection.getAutoCommit());
+      c.setAutoCommit(false);
+      assertFalse(c.getAutoCommit());
+      assertTrue(realConnection.getAutoCommit());
+      c.setAutoCommit(true);
+      c.close();
+      assertTrue(realConnection.getAutoCommit());
+
+      c = ds.getConnection();
+      c.setAutoCommit(false);
+      PreparedStatement st = c.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      assertFalse(realConnection.getAutoCommit());
+      st.executeQuery().close();
+      st.close();
+      c.commit();
+      c.setAutoCommit(true);
+      assertTrue(realConnection.getAutoCommit());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldAskTheSettingsAgainAfterTheConnectionWasUnwrapped() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      Connection c = ds.getConnection();
+      assertTrue(c.getAutoCommit());
+      PooledDataSource.unwrapConnection(c).setAutoCommit(false);
+      c.close();
+
+      c = ds.getConnection();
+      assertFalse(c.getAutoCommit());
+      c.setAutoCommit(true);
+      PreparedStatement st = c.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      assertTrue(PooledDataSource.unwrapConnection(c).getAutoCommit());
+      st.close();
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldApplyConnectionSettingsAtOnceIfNotTracked() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolTrackConnectionState(false);
+      Connection c = ds.getConnection();
+      c.setAutoCommit(false);
+      assertFalse(PooledDataSource.unwrapConnection(c).getAutoCommit());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private boolean waitForIdleConnections(PooledDataSource ds, int count) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      if (ds.getPoolState().getIdleConnectionCount() == count) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
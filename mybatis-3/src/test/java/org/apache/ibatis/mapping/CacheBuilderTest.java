@@ -18,7 +18,16 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ObjectSizeWeigher;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.TinyLfuCache;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
@@ -43,6 +52,117 @@ public class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
+  @Test
+  public void testTinyLfuEvictionIsNotSynchronized() throws Exception {
+    Cache cache = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(TinyLfuCache.class)
+        .size(10).readWrite(false).build();
+
+    Assertions.assertThat(cache).isInstanceOf(LoggingCache.class);
+    TinyLfuCache tinyLfuCache = unwrap(cache);
+    for (int i = 0; i < 20; i++) {
+      tinyLfuCache.putObject(i, i);
+    }
+    Assertions.assertThat(tinyLfuCache.getSize()).isEqualTo(10);
+  }
+
+  @Test
+  public void testTinyLfuEvictionRejectsFlushInterval() throws Exception {
+    when(new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(TinyLfuCache.class)
+        .clearInterval(60000L)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache 'test' cannot have a flushInterval with eviction TINYLFU.");
+  }
+
+  @Test
+  public void testTinyLfuEvictionRejectsMaxBytes() throws Exception {
+    when(new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(TinyLfuCache.class)
+        .maxBytes(1024L)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache 'test' cannot have maxBytes with eviction TINYLFU, bound it by size instead.");
+  }
+
+  @Test
+  public void testTinyLfuEvictionRejectsExpiry() throws Exception {
+    when(new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(TinyLfuCache.class)
+        .expireAfterAccess(60000L)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache 'test' cannot expire its entries with eviction TINYLFU.");
+  }
+
+  @Test
+  public void testTableTrackingIsOutermost() throws Exception {
+    Cache cache = new CacheBuilder("test").implementation(PerpetualCache.class).blocking(true).tableTracking(true).build();
+
+    Assertions.assertThat(cache).isInstanceOf(TableDependencyCache.class);
+    Assertions.assertThat((Cache) unwrap(cache)).isInstanceOf(BlockingCache.class);
+  }
+
+  @Test
+  public void testMaxBytesBoundsTheCacheByWeight() throws Exception {
+    CacheBuilder builder = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(LruCache.class)
+        .maxBytes(1024L).readWrite(true);
+    Cache cache = builder.build();
+
+    WeightedCache weightedCache = builder.getWeightedCache();
+    Assertions.assertThat(weightedCache.getMaxBytes()).isEqualTo(1024L);
+    cache.putObject("key", "value");
+    Assertions.assertThat(weightedCache.getWeight()).isGreaterThan(0L).isLessThanOrEqualTo(1024L);
+  }
+
+  @Test
+  public void testMaxBytesTracksEveryEntryBeyondTheDefaultSize() throws Exception {
+    CacheBuilder builder = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(LruCache.class)
+        .maxBytes(64L * 1024 * 1024);
+    Cache cache = builder.build();
+
+    long entryWeight = new ObjectSizeWeigher().weigh(0, "value");
+    for (int i = 0; i < 2000; i++) {
+      cache.putObject(i, "value");
+    }
+    Assertions.assertThat(cache.getSize()).isEqualTo(2000);
+    Assertions.assertThat(builder.getWeightedCache().getWeight()).isEqualTo(2000 * entryWeight);
+  }
+
+  @Test
+  public void testMaxBytesEvictsBySize() throws Exception {
+    CacheBuilder builder = new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(LruCache.class)
+        .maxBytes(64L * 1024 * 1024).size(10);
+    Cache cache = builder.build();
+
+    long entryWeight = new ObjectSizeWeigher().weigh(0, "value");
+    for (int i = 0; i < 2000; i++) {
+      cache.putObject(i, "value");
+    }
+    Assertions.assertThat(cache.getSize()).isEqualTo(10);
+    Assertions.assertThat(builder.getWeightedCache().getWeight()).isEqualTo(10 * entryWeight);
+  }
+
+  @Test
+  public void testMaxBytesRejectsOtherEvictions() throws Exception {
+    when(new CacheBuilder("test").implementation(PerpetualCache.class).addDecorator(FifoCache.class)
+        .maxBytes(1024L)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache 'test' cannot combine maxBytes with FifoCache, maxBytes evicts the least recently used entries.");
+  }
+
+  @Test
+  public void testStatementExpiryInstallsAnExpiringCache() throws Exception {
+    CacheBuilder builder = new CacheBuilder("test").implementation(PerpetualCache.class).statementExpiry(true);
+    Cache cache = builder.build();
+
+    Assertions.assertThat(builder.getExpiringCache()).isNotNull();
+    cache.putObject("key", ExpiringCache.withExpiry("value", 60000L, null));
+    Assertions.assertThat(cache.getObject("key")).isEqualTo("value");
+  }
+
+  @Test
+  public void testCustomCacheRejectsExpiry() throws Exception {
+    when(new CacheBuilder("test").implementation(InitializingCache.class).statementExpiry(true)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache 'test' of type " + InitializingCache.class.getName()
+          + " cannot expire its entries, configure the expiry of the cache implementation instead.");
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache){
     Field field;
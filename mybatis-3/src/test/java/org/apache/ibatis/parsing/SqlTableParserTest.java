@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SqlTableParserTest {
+
+  @Test
+  public void shouldFindTablesOfSelects() {
+    assertEquals(tables("blog", "author", "post"), SqlTableParser.parse(
+        "select * from Blog b join author a on a.id = b.author_id left outer join POST p on p.blog_id = b.id where b.id = ?"));
+    assertEquals(tables("blog", "author"), SqlTableParser.parse("SELECT b.id FROM blog b, author AS a WHERE a.id = b.author_id"));
+    assertEquals(tables("blog", "post"), SqlTableParser.parse(
+        "select * from blog where id in (select blog_id from post where subject = 'from comment')"));
+  }
+
+  @Test
+  public void shouldFindTablesOfWrites() {
+    assertEquals(tables("author"), SqlTableParser.parse("insert into Author (id, username) values (?, ?)"));
+    assertEquals(tables("author"), SqlTableParser.parse("update author set username = ? where id = ?"));
+    assertEquals(tables("author"), SqlTableParser.parse("delete from author where id = ?"));
+    assertEquals(tables("author"), SqlTableParser.parse(
+        "insert into author (id, username) values (?, ?) on duplicate key update username = ?"));
+  }
+
+  @Test
+  public void shouldNormalizeNames() {
+    assertEquals(tables("author"), SqlTableParser.parse("select * from \"ibtest\".\"Author\""));
+    assertEquals(tables("author"), SqlTableParser.parse("select * from `Author` -- from comment\n"));
+    assertEquals(tables("author", "blog"), SqlTableParser.parseDelimited(" ibtest.AUTHOR , [Blog]"));
+  }
+
+  @Test
+  public void shouldReturnEmptySetWhenNoTableIsFound() {
+    assertTrue(SqlTableParser.parse("call next_id(?)").isEmpty());
+    assertTrue(SqlTableParser.parse(null).isEmpty());
+    assertTrue(SqlTableParser.parseDelimited(" ").isEmpty());
+  }
+
+  private static Set<String> tables(String... tables) {
+    return new LinkedHashSet<String>(Arrays.asList(tables));
+  }
+
+}
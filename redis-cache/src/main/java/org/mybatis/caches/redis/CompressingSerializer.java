@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Compresses the values of another serializer that are at least {@code threshold} bytes long.
+ * <p>
+ * Values are compressed with {@link Deflater#BEST_SPEED}, which already shrinks result lists several times since
+ * they repeat the same class and property names, and are stored with a one byte header telling whether they were
+ * compressed. Since every value has a header, all nodes must use the same setting and the caches must be cleared
+ * when it changes. Values that do not shrink are stored as is.
+ */
+final class CompressingSerializer implements Serializer {
+
+  private static final byte RAW = 0;
+  private static final byte DEFLATED = 1;
+
+  private static final ThreadLocal<Codec> CODECS = new ThreadLocal<Codec>() {
+    @Override
+    protected Codec initialValue() {
+      return new Codec();
+    }
+  };
+
+  private final Serializer delegate;
+  private final int threshold;
+
+  CompressingSerializer(Serializer delegate, int threshold) {
+    this.delegate = delegate;
+    this.threshold = threshold;
+  }
+
+  @Override
+  public byte[] serialize(Object object) {
+    byte[] bytes = delegate.serialize(object);
+    if (bytes.length >= threshold) {
+      byte[] compressed = CODECS.get().compress(bytes);
+      if (compressed != null) {
+        return compressed;
+      }
+    }
+    byte[] raw = new byte[bytes.length + 1];
+    raw[0] = RAW;
+    System.arraycopy(bytes, 0, raw, 1, bytes.length);
+    return raw;
+  }
+
+  @Override
+  public Object unserialize(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    if (bytes.length > 0 && bytes[0] == RAW) {
+      return delegate.unserialize(Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+    if (bytes.length > 4 && bytes[0] == DEFLATED) {
+      return delegate.unserialize(CODECS.get().decompress(bytes));
+    }
+    throw new CacheException("Unknown compression header, was the value stored without compression?");
+  }
+
+  private static final class Codec {
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] chunk = new byte[8192];
+
+    /**
+     * @return the compressed value with its header, null if it did not shrink
+     */
+    byte[] compress(byte[] bytes) {
+      ReusableBuffer buffer = ReusableBuffer.acquire();
+      try {
+        buffer.write(DEFLATED);
+        buffer.write(bytes.length >>> 24);
+        buffer.write(bytes.length >>> 16);
+        buffer.write(bytes.length >>> 8);
+        buffer.write(bytes.length);
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        while (!deflater.finished()) {
+          buffer.write(chunk, 0, deflater.deflate(chunk));
+          if (buffer.size() > bytes.length) {
+            return null;
+          }
+        }
+        return buffer.toByteArray();
+      } finally {
+        buffer.release();
+      }
+    }
+
+    byte[] decompress(byte[] bytes) {
+      int length = (bytes[1] & 0xff) << 24 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 8 | (bytes[4] & 0xff);
+      byte[] value = new byte[length];
+      inflater.reset();
+      inflater.setInput(bytes, 5, bytes.length - 5);
+      try {
+        int offset = 0;
+        while (offset < length && !inflater.finished()) {
+          int inflated = inflater.inflate(value, offset, length - offset);
+          if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          offset += inflated;
+        }
+        if (offset != length) {
+          throw new CacheException("Truncated compressed value, expected " + length + " bytes but got " + offset);
+        }
+      } catch (DataFormatException e) {
+        throw new CacheException("Corrupted compressed value", e);
+      }
+      return value;
+    }
+
+  }
+
+}
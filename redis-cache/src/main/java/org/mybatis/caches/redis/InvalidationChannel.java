@@ -0,0 +1,49 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Collection;
+
+/**
+ * Broadcasts the removals and clears of {@link RedisCache}s to the near caches of every node.
+ * <p>
+ * Select the implementation with the {@code redis.invalidationChannel} property: {@code redis} (the default)
+ * uses Redis pub/sub, {@code local} only reaches the caches of the same JVM, any other value is the name of a
+ * class implementing this interface with a public no-arg constructor.
+ */
+public interface InvalidationChannel {
+
+  /**
+   * Starts delivering the invalidations of a cache to a listener, including the ones published by this node.
+   */
+  void subscribe(String cacheId, Listener listener);
+
+  void publishRemoval(String cacheId, Collection<String> fields);
+
+  void publishClear(String cacheId);
+
+  interface Listener {
+
+    void onRemoval(Collection<String> fields);
+
+    /**
+     * Also called when invalidations may have been missed, e.g. after the channel reconnected.
+     */
+    void onClear();
+
+  }
+
+}
@@ -16,7 +16,6 @@
 package org.mybatis.caches.redis;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -33,11 +32,12 @@ public enum JDKSerializer implements Serializer {
 
   public byte[] serialize(Object object) {
     ObjectOutputStream oos = null;
-    ByteArrayOutputStream baos = null;
+    // reuses the buffer of the thread instead of growing a new one for every value
+    ReusableBuffer baos = ReusableBuffer.acquire();
     try {
-      baos = new ByteArrayOutputStream();
       oos = new ObjectOutputStream(baos);
       oos.writeObject(object);
+      oos.flush();
       return baos.toByteArray();
     } catch (Exception e) {
       throw new CacheException(e);
@@ -49,6 +49,7 @@ public enum JDKSerializer implements Serializer {
           // ignore IOException
         }
       }
+      baos.release();
     }
   }
 
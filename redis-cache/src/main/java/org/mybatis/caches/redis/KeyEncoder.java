@@ -0,0 +1,235 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.reflection.ArrayUtil;
+
+/**
+ * Encodes cache keys into the 128-bit digest used as their hash field.
+ * <p>
+ * The digest is the first half of a SHA-256, like the fingerprint of a compact {@link CacheKey}, so that
+ * parameters cannot be crafted, nor happen, to make two keys share a field. It is computed from the content of the components of a {@link CacheKey}, not from their hash codes, so
+ * that every node maps a key to the same field. Components of other types than strings, numbers, dates, booleans,
+ * characters, enums and arrays of those are digested through their {@code toString()}, which is what identified
+ * them before. A field is returned as a string of 16 characters, one per byte, so that it can be used as is by the
+ * near cache, the write-behind buffer and the invalidation channel.
+ * <p>
+ * If keys are verified, the {@code toString()} of the key is stored in front of every value and a value stored
+ * for another key is read as a miss.
+ */
+final class KeyEncoder {
+
+  static final int FIELD_LENGTH = 16;
+
+  private final boolean verify;
+
+  KeyEncoder(boolean verify) {
+    this.verify = verify;
+  }
+
+  String encode(Object key) {
+    Digest digest = new Digest();
+    // values are not stored the same way, so neither are their fields
+    digest.mix(verify ? 1 : 0);
+    digest.add(key);
+    return digest.toField();
+  }
+
+  static byte[] toBytes(String field) {
+    byte[] bytes = new byte[field.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) field.charAt(i);
+    }
+    return bytes;
+  }
+
+  byte[] wrap(Object key, byte[] value) {
+    if (!verify) {
+      return value;
+    }
+    byte[] keyBytes = utf8(key.toString());
+    byte[] wrapped = new byte[4 + keyBytes.length + value.length];
+    writeInt(wrapped, keyBytes.length);
+    System.arraycopy(keyBytes, 0, wrapped, 4, keyBytes.length);
+    System.arraycopy(value, 0, wrapped, 4 + keyBytes.length, value.length);
+    return wrapped;
+  }
+
+  /**
+   * @return the value, or null if none was stored or if it was stored for another key with the same digest
+   */
+  byte[] unwrap(Object key, byte[] stored) {
+    if (!verify || stored == null) {
+      return stored;
+    }
+    byte[] keyBytes = utf8(key.toString());
+    if (stored.length < 4 + keyBytes.length || readInt(stored) != keyBytes.length) {
+      return null;
+    }
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (stored[4 + i] != keyBytes[i]) {
+        return null;
+      }
+    }
+    byte[] value = new byte[stored.length - 4 - keyBytes.length];
+    System.arraycopy(stored, 4 + keyBytes.length, value, 0, value.length);
+    return value;
+  }
+
+  private static byte[] utf8(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeInt(byte[] bytes, int value) {
+    bytes[0] = (byte) (value >>> 24);
+    bytes[1] = (byte) (value >>> 16);
+    bytes[2] = (byte) (value >>> 8);
+    bytes[3] = (byte) value;
+  }
+
+  private static int readInt(byte[] bytes) {
+    return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+  }
+
+  /**
+   * SHA-256 over the typed content of the components.
+   */
+  private static final class Digest {
+
+    private final MessageDigest digest;
+    private final byte[] word = new byte[8];
+
+    Digest() {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void add(Object object) {
+      if (object == null) {
+        mix(0);
+      } else if (object instanceof CacheKey) {
+        CacheKey cacheKey = (CacheKey) object;
+        mix(1);
+        mix(cacheKey.getUpdateCount());
+        if (cacheKey.isCompact()) {
+          // the components a compact key did not keep are only known through its fingerprint
+          mixBytes(cacheKey.getFingerprint());
+        }
+        for (Object component : cacheKey.getComponents()) {
+          add(component);
+        }
+      } else if (object instanceof String) {
+        mix(2);
+        mixChars((String) object);
+      } else if (object instanceof Integer || object instanceof Long || object instanceof Short
+          || object instanceof Byte) {
+        mix(object instanceof Integer ? 3 : object instanceof Long ? 4 : object instanceof Short ? 5 : 6);
+        mix(((Number) object).longValue());
+      } else if (object instanceof Double || object instanceof Float) {
+        mix(object instanceof Double ? 7 : 8);
+        mix(Double.doubleToLongBits(((Number) object).doubleValue()));
+      } else if (object instanceof BigDecimal || object instanceof BigInteger) {
+        mix(object instanceof BigDecimal ? 9 : 10);
+        mixChars(object.toString());
+      } else if (object instanceof Boolean) {
+        mix(((Boolean) object) ? 11 : 12);
+      } else if (object instanceof Character) {
+        mix(13);
+        mix((Character) object);
+      } else if (object instanceof Timestamp) {
+        mix(14);
+        mix(((Timestamp) object).getTime());
+        mix(((Timestamp) object).getNanos());
+      } else if (object.getClass() == Date.class || object.getClass() == java.sql.Date.class
+          || object.getClass() == java.sql.Time.class) {
+        mix(15);
+        mixChars(object.getClass().getName());
+        mix(((Date) object).getTime());
+      } else if (object instanceof Enum) {
+        // the name, unlike the ordinal, survives reordering the constants
+        mix(16);
+        mixChars(((Enum<?>) object).getDeclaringClass().getName());
+        mixChars(((Enum<?>) object).name());
+      } else if (object instanceof byte[]) {
+        mix(17);
+        mixBytes((byte[]) object);
+      } else if (object instanceof Object[]) {
+        Object[] objects = (Object[]) object;
+        mix(18);
+        mixChars(object.getClass().getName());
+        mix(objects.length);
+        for (Object o : objects) {
+          add(o);
+        }
+      } else {
+        mix(19);
+        mixChars(object.getClass().getName());
+        mixChars(ArrayUtil.toString(object));
+      }
+    }
+
+    String toField() {
+      byte[] bytes = digest.digest();
+      char[] field = new char[FIELD_LENGTH];
+      for (int i = 0; i < FIELD_LENGTH; i++) {
+        field[i] = (char) (bytes[i] & 0xff);
+      }
+      return new String(field);
+    }
+
+    private void mixChars(String value) {
+      int length = value.length();
+      mix(length);
+      byte[] bytes = new byte[length * 2];
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        bytes[2 * i] = (byte) (c >>> 8);
+        bytes[2 * i + 1] = (byte) c;
+      }
+      digest.update(bytes);
+    }
+
+    private void mixBytes(byte[] bytes) {
+      mix(bytes.length);
+      digest.update(bytes);
+    }
+
+    private void mix(long value) {
+      for (int i = 0; i < 8; i++) {
+        word[i] = (byte) (value >>> (56 - 8 * i));
+      }
+      digest.update(word);
+    }
+
+  }
+
+}
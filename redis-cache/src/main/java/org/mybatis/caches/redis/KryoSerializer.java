@@ -15,8 +15,12 @@
  */
 package org.mybatis.caches.redis;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -24,6 +28,10 @@ import com.esotericsoftware.kryo.io.Output;
 
 /**
  * SerializeUtil with Kryo, which is faster and more space consuming.
+ * <p>
+ * Kryo instances are not thread safe, so every thread uses its own, along with an output buffer that is reused
+ * for every value. Classes registered with {@link #setRegisteredClasses(List)} are written as a small id instead
+ * of their name.
  *
  * @author Lei Jiang(ladd.cn@gmail.com)
  */
@@ -31,47 +39,76 @@ public enum KryoSerializer implements Serializer {
   //Enum singleton, which is preferred approach since Java 1.5
   INSTANCE;
 
-  private Kryo kryo;
-  private Output output;
-  private Input input;
+  private static final byte[] EMPTY = new byte[0];
+
+  private volatile List<Class<?>> registeredClasses;
+  private volatile ThreadLocal<KryoHolder> holders;
   /**
    * Classes which can not resolved by default kryo serializer, 
    * which occurs very rare(https://github.com/EsotericSoftware/kryo#using-standard-java-serialization)
    * For these classes, we will use fallbackSerializer(use JDKSerializer now) to resolve.
    */
-  private HashSet<Class<?>> unnormalClassSet;
+  private Set<Class<?>> unnormalClassSet;
 
   /**
    * Hash codes of unnormal bytes which can not resolved by default kryo serializer,
    * which will be resolved by  fallbackSerializer
    */
-  private HashSet<Integer> unnormalBytesHashCodeSet;
+  private Set<Integer> unnormalBytesHashCodeSet;
   private Serializer fallbackSerializer;
 
   private KryoSerializer() {
-    kryo = new Kryo();
-    output = new Output(200, -1);
-    input = new Input();
-    unnormalClassSet = new HashSet<Class<?>>();
-    unnormalBytesHashCodeSet = new HashSet<Integer>();
+    registeredClasses = Collections.emptyList();
+    holders = newHolders(registeredClasses);
+    unnormalClassSet = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+    unnormalBytesHashCodeSet = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
     fallbackSerializer = JDKSerializer.INSTANCE;//use JDKSerializer as fallback 
   }
 
+  /**
+   * Registers classes so that their instances are written with an id instead of the class name. The ids follow
+   * the order of the classes, so every node must register the same classes in the same order.
+   *
+   * @param classes the classes to register, empty for none
+   */
+  public synchronized void setRegisteredClasses(List<Class<?>> classes) {
+    if (!registeredClasses.equals(classes)) {
+      registeredClasses = Collections.unmodifiableList(new ArrayList<Class<?>>(classes));
+      // threads create a new Kryo on their next use
+      holders = newHolders(registeredClasses);
+    }
+  }
+
+  public List<Class<?>> getRegisteredClasses() {
+    return registeredClasses;
+  }
+
+  private static ThreadLocal<KryoHolder> newHolders(final List<Class<?>> classes) {
+    return new ThreadLocal<KryoHolder>() {
+      @Override
+      protected KryoHolder initialValue() {
+        return new KryoHolder(classes);
+      }
+    };
+  }
+
   public byte[] serialize(Object object) {
-    output.clear();
     if (!unnormalClassSet.contains(object.getClass())) {
       /**
        * In the following cases:
        * 1. This class occurs for the first time.
        * 2. This class have occurred and can be resolved by default kryo serializer 
        */
+      KryoHolder holder = holders.get();
       try {
-        kryo.writeClassAndObject(output, object);
-        return output.toBytes();
+        holder.kryo.writeClassAndObject(holder.output, object);
+        return holder.output.toBytes();
       } catch (Exception e) {
         // For unnormal class occurred for the first time, exception will be thrown
         unnormalClassSet.add(object.getClass());
         return fallbackSerializer.serialize(object);//use fallback Serializer to resolve
+      } finally {
+        holder.release();
       }
     } else {
       //For unnormal class
@@ -90,13 +127,16 @@ public enum KryoSerializer implements Serializer {
        * 1. This bytes occurs for the first time.
        * 2. This bytes have occurred and can be resolved by default kryo serializer 
        */
+      KryoHolder holder = holders.get();
       try {
-        input.setBuffer(bytes);
-        return kryo.readClassAndObject(input);
+        holder.input.setBuffer(bytes);
+        return holder.kryo.readClassAndObject(holder.input);
       } catch (Exception e) {
         // For unnormal bytes occurred for the first time, exception will be thrown
         unnormalBytesHashCodeSet.add(hashCode);
         return fallbackSerializer.unserialize(bytes);//use fallback Serializer to resolve
+      } finally {
+        holder.input.setBuffer(EMPTY);
       }
     } else {
       //For unnormal bytes
@@ -104,4 +144,28 @@ public enum KryoSerializer implements Serializer {
     }
   }
 
+  private static final class KryoHolder {
+
+    private final Kryo kryo;
+    private Output output;
+    private final Input input;
+
+    KryoHolder(List<Class<?>> classes) {
+      kryo = new Kryo();
+      for (Class<?> type : classes) {
+        kryo.register(type);
+      }
+      output = new Output(ReusableBuffer.INITIAL_SIZE, -1);
+      input = new Input();
+    }
+
+    void release() {
+      output.clear();
+      if (output.getBuffer().length > ReusableBuffer.MAX_RETAINED_SIZE) {
+        output = new Output(ReusableBuffer.INITIAL_SIZE, -1);
+      }
+    }
+
+  }
+
 }
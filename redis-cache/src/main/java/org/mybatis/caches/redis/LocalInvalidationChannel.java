@@ -0,0 +1,64 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers the invalidations to the listeners of the same JVM only, for single node applications and tests.
+ */
+final class LocalInvalidationChannel implements InvalidationChannel {
+
+  private final ConcurrentMap<String, List<Listener>> listeners = new ConcurrentHashMap<String, List<Listener>>();
+
+  @Override
+  public void subscribe(String cacheId, Listener listener) {
+    List<Listener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners == null) {
+      List<Listener> newListeners = new CopyOnWriteArrayList<Listener>();
+      cacheListeners = listeners.putIfAbsent(cacheId, newListeners);
+      if (cacheListeners == null) {
+        cacheListeners = newListeners;
+      }
+    }
+    cacheListeners.add(listener);
+  }
+
+  @Override
+  public void publishRemoval(String cacheId, Collection<String> fields) {
+    List<Listener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners != null) {
+      for (Listener listener : cacheListeners) {
+        listener.onRemoval(fields);
+      }
+    }
+  }
+
+  @Override
+  public void publishClear(String cacheId) {
+    List<Listener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners != null) {
+      for (Listener listener : cacheListeners) {
+        listener.onClear();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least recently used, in-process copy of the hottest entries of a {@link RedisCache}.
+ * <p>
+ * The values are kept serialized, like in Redis, and every hit deserializes its own copy, so a caller that
+ * changes the objects it gets does not change the ones other sessions get. The entries a node removes are invalidated on every node through an
+ * {@link InvalidationChannel}; since a value read from Redis may be invalidated before it is put here, every
+ * invalidation bumps a generation and a value read before the last invalidation is not kept.
+ */
+final class NearCache implements InvalidationChannel.Listener {
+
+  private final Map<String, Entry> entries;
+  private final long timeToLive;
+  private long generation;
+
+  /**
+   * @param size the maximum number of entries
+   * @param timeToLive how long an entry is kept in milliseconds, 0 for ever
+   */
+  NearCache(final int size, long timeToLive) {
+    this.timeToLive = timeToLive;
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75F, true) {
+      private static final long serialVersionUID = 4567302543719384017L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > size;
+      }
+    };
+  }
+
+  /**
+   * @return the generation to pass to {@link #put(String, byte[], long)} for a value read or written from now on
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  synchronized byte[] get(String field) {
+    Entry entry = entries.get(field);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt != 0 && entry.expiresAt <= System.currentTimeMillis()) {
+      entries.remove(field);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * @param generation the generation before the value was read, the value is dropped if it was invalidated since
+   */
+  synchronized void put(String field, byte[] value, long generation) {
+    if (value == null) {
+      entries.remove(field);
+    } else if (generation == this.generation) {
+      entries.put(field, new Entry(value, timeToLive == 0 ? 0 : System.currentTimeMillis() + timeToLive));
+    }
+  }
+
+  synchronized int getSize() {
+    return entries.size();
+  }
+
+  @Override
+  public synchronized void onRemoval(Collection<String> fields) {
+    generation++;
+    for (String field : fields) {
+      entries.remove(field);
+    }
+  }
+
+  @Override
+  public synchronized void onClear() {
+    generation++;
+    entries.clear();
+  }
+
+  private static final class Entry {
+    private final byte[] value;
+    private final long expiresAt;
+
+    Entry(byte[] value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+}
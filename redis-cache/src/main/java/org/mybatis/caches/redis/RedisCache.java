@@ -15,52 +15,142 @@
  */
 package org.mybatis.caches.redis;
 
+import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * Cache adapter for Redis.
+ * <p>
+ * If {@code nearCacheSize} is set, the hottest entries are also kept in a {@link NearCache} of this node, which
+ * is kept coherent with the other nodes through the configured {@link InvalidationChannel}.
+ * <p>
+ * Entries are stored in a {@link VersionedHash}, so every operation takes a single round trip and a clear does
+ * not block Redis. Keys are stored as the 128-bit digest of a {@link KeyEncoder} rather than as their
+ * {@code toString()}, which holds the whole SQL statement and its parameters; {@code verifyKeys} also stores the
+ * {@code toString()} along with the value to detect digest collisions.
+ * <p>
+ * The namespaces are spread by {@link RedisShards} over the nodes listed in {@code redis.nodes}, whose pools
+ * are shared by every cache.
+ * <p>
+ * If {@code writeBehindSize} is set, puts are only serialized on the calling thread and written by a
+ * {@link WriteBehindBuffer}, so committing a transaction does not wait for Redis. The buffer discards the pending
+ * writes of the entries other nodes remove, which they only publish if they also have a near cache or a
+ * write-behind buffer.
  *
  * @author Eduardo Macarron
  */
-public final class RedisCache implements Cache {
+public final class RedisCache implements Cache, InitializingObject {
 
   private final ReadWriteLock readWriteLock = new DummyReadWriteLock();
 
   private String id;
 
-  private static JedisPool pool;
+  private static RedisShards shards;
+
+  private final RedisNode node;
+
+  private static InvalidationChannel sharedInvalidationChannel;
 
   private final RedisConfig redisConfig;
 
+  private final VersionedHash hash;
+
+  private KeyEncoder keyEncoder = new KeyEncoder(false);
+
   private Integer timeout;
 
+  private int nearCacheSize;
+
+  private NearCache nearCache;
+
+  private InvalidationChannel invalidationChannel;
+
+  private int writeBehindSize;
+
+  private WriteBehindBuffer writeBehindBuffer;
+
   public RedisCache(final String id) {
     if (id == null) {
       throw new IllegalArgumentException("Cache instances require an ID");
     }
     this.id = id;
+    this.hash = new VersionedHash(id);
     // 通过RedisConfigurationBuilder对象，获取Redis配置信息
     redisConfig = RedisConfigurationBuilder.getInstance().parseConfiguration();
-    // 实例化JedisPool，与Redis服务器建立连接
-    pool = new JedisPool(redisConfig, redisConfig.getHost(), redisConfig.getPort(), redisConfig.getConnectionTimeout(),
-        redisConfig.getSoTimeout(), redisConfig.getPassword(), redisConfig.getDatabase(), redisConfig.getClientName(),
-        redisConfig.isSsl(), redisConfig.getSslSocketFactory(), redisConfig.getSslParameters(),
-        redisConfig.getHostnameVerifier());
-}
+    // 获取命名空间所在的Redis节点，连接池由所有缓存共享
+    node = getShards(redisConfig).getNode(id);
+  }
+
+  private static synchronized RedisShards getShards(RedisConfig redisConfig) {
+    if (shards == null) {
+      shards = new RedisShards(redisConfig);
+    }
+    return shards;
+  }
+
+  @Override
+  public void initialize() {
+    if (nearCacheSize > 0 || writeBehindSize > 0) {
+      invalidationChannel = getInvalidationChannel(redisConfig);
+    }
+    if (nearCacheSize > 0) {
+      nearCache = new NearCache(nearCacheSize, timeout == null ? 0 : timeout * 1000L);
+      invalidationChannel.subscribe(id, nearCache);
+    }
+    if (writeBehindSize > 0) {
+      writeBehindBuffer = new WriteBehindBuffer(id, writeBehindSize, new WriteBehindBuffer.Writer() {
+        @Override
+        public void write(final Map<String, byte[]> batch) {
+          execute(new RedisCallback() {
+            @Override
+            public Object doWithRedis(Jedis jedis) {
+              Map<byte[], byte[]> entries = new HashMap<byte[], byte[]>();
+              for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                entries.put(KeyEncoder.toBytes(entry.getKey()), entry.getValue());
+              }
+              hash.put(jedis, entries, timeout);
+              return null;
+            }
+          });
+        }
+      });
+      // so that the entries other nodes remove are not written back by this one
+      invalidationChannel.subscribe(id, writeBehindBuffer);
+    }
+  }
+
+  private static synchronized InvalidationChannel getInvalidationChannel(RedisConfig redisConfig) {
+    if (sharedInvalidationChannel == null) {
+      String name = redisConfig.getInvalidationChannel();
+      if ("redis".equalsIgnoreCase(name)) {
+        sharedInvalidationChannel = new RedisInvalidationChannel(redisConfig, shards.getNodes().get(0));
+      } else if ("local".equalsIgnoreCase(name)) {
+        sharedInvalidationChannel = new LocalInvalidationChannel();
+      } else {
+        try {
+          sharedInvalidationChannel = (InvalidationChannel) Resources.classForName(name).newInstance();
+        } catch (Exception e) {
+          throw new CacheException("Could not instantiate invalidation channel: '" + name + "'.", e);
+        }
+      }
+    }
+    return sharedInvalidationChannel;
+  }
 
   // TODO Review this is UNUSED
   private Object execute(RedisCallback callback) {
-    Jedis jedis = pool.getResource();
-    try {
-      return callback.doWithRedis(jedis);
-    } finally {
-      jedis.close();
-    }
+    return node.execute(id, false, callback);
   }
 
   @Override
@@ -70,60 +160,256 @@ public final class RedisCache implements Cache {
 
   @Override
   public int getSize() {
-    return (Integer) execute(new RedisCallback() {
+    Integer size = (Integer) execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        Map<byte[], byte[]> result = jedis.hgetAll(id.getBytes());
-        return result.size();
+        return hash.size(jedis);
       }
     });
+    // null while the node is skipped
+    return size == null ? 0 : size;
+  }
+
+  /**
+   * Runs a callback that deletes fields once the pending writes of the fields were discarded, so that the
+   * write-behind buffer cannot write them back afterwards.
+   *
+   * @param fields the fields the callback deletes, null for all of them
+   */
+  private Object executeDelete(Collection<String> fields, RedisCallback callback) {
+    if (writeBehindBuffer == null) {
+      return node.execute(id, true, callback);
+    }
+    writeBehindBuffer.lock();
+    try {
+      if (fields == null) {
+        writeBehindBuffer.discardAll();
+      } else {
+        writeBehindBuffer.discard(fields);
+      }
+      return node.execute(id, true, callback);
+    } finally {
+      writeBehindBuffer.unlock();
+    }
   }
 
   @Override
   public void putObject(final Object key, final Object value) {
-    execute(new RedisCallback() {
-      @Override
-      public Object doWithRedis(Jedis jedis) {
-        final byte[] idBytes = id.getBytes();
-        jedis.hset(idBytes, key.toString().getBytes(), redisConfig.getSerializer().serialize(value));
-        if (timeout != null && jedis.ttl(idBytes) == -1) {
-          jedis.expire(idBytes, timeout);
+    final String field = keyEncoder.encode(key);
+    final byte[] serialized = redisConfig.getSerializer().serialize(value);
+    final byte[] bytes = keyEncoder.wrap(key, serialized);
+    // before the write, so that the value is not kept if another node removes it meanwhile
+    long generation = nearCache != null ? nearCache.getGeneration() : 0;
+    if (writeBehindBuffer != null) {
+      writeBehindBuffer.offer(field, bytes);
+    } else {
+      execute(new RedisCallback() {
+        @Override
+        public Object doWithRedis(Jedis jedis) {
+          hash.put(jedis, Collections.singletonMap(KeyEncoder.toBytes(field), bytes), timeout);
+          return null;
         }
-        return null;
-      }
-    });
+      });
+    }
+    if (nearCache != null) {
+      nearCache.put(field, value != null ? serialized : null, generation);
+    }
   }
 
   @Override
   public Object getObject(final Object key) {
-    return execute(new RedisCallback() {
+    final String field = keyEncoder.encode(key);
+    long generation = 0;
+    if (nearCache != null) {
+      byte[] near = nearCache.get(field);
+      if (near != null) {
+        return redisConfig.getSerializer().unserialize(near);
+      }
+      generation = nearCache.getGeneration();
+    }
+    if (writeBehindBuffer != null) {
+      byte[] pending = writeBehindBuffer.get(field);
+      if (pending != null) {
+        return redisConfig.getSerializer().unserialize(keyEncoder.unwrap(key, pending));
+      }
+    }
+    byte[] bytes = (byte[]) execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        return redisConfig.getSerializer().unserialize(jedis.hget(id.getBytes(), key.toString().getBytes()));
+        return keyEncoder.unwrap(key, hash.get(jedis, KeyEncoder.toBytes(field)));
       }
     });
+    Object value = redisConfig.getSerializer().unserialize(bytes);
+    if (nearCache != null) {
+      nearCache.put(field, value != null ? bytes : null, generation);
+    }
+    return value;
   }
 
   @Override
   public Object removeObject(final Object key) {
-    return execute(new RedisCallback() {
+    final List<String> fields = Collections.singletonList(keyEncoder.encode(key));
+    Object result = executeDelete(fields, new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        return jedis.hdel(id, key.toString());
+        return hash.remove(jedis, Collections.singletonList(KeyEncoder.toBytes(fields.get(0))));
       }
     });
+    invalidate(fields);
+    return result;
   }
 
   @Override
   public void clear() {
-    execute(new RedisCallback() {
+    executeDelete(null, new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        jedis.del(id);
+        hash.clear(jedis);
         return null;
       }
     });
+    if (nearCache != null) {
+      nearCache.onClear();
+    }
+    if (invalidationChannel != null) {
+      invalidationChannel.publishClear(id);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> nearValues = new HashMap<Object, Object>();
+    final List<Object> keyList = new ArrayList<Object>();
+    final List<String> fieldList = new ArrayList<String>();
+    long generation = 0;
+    if (nearCache != null) {
+      generation = nearCache.getGeneration();
+    }
+    for (Object key : keys) {
+      String field = keyEncoder.encode(key);
+      byte[] near = nearCache != null ? nearCache.get(field) : null;
+      Object value = near != null ? redisConfig.getSerializer().unserialize(near) : null;
+      if (value == null && writeBehindBuffer != null) {
+        byte[] pending = writeBehindBuffer.get(field);
+        value = pending != null ? redisConfig.getSerializer().unserialize(keyEncoder.unwrap(key, pending)) : null;
+      }
+      if (value != null) {
+        nearValues.put(key, value);
+      } else {
+        keyList.add(key);
+        fieldList.add(field);
+      }
+    }
+    if (keyList.isEmpty()) {
+      return nearValues;
+    }
+    final List<byte[]> serializedList = new ArrayList<byte[]>(keyList.size());
+    Map<Object, Object> values = (Map<Object, Object>) execute(new RedisCallback() {
+      @Override
+      public Object doWithRedis(Jedis jedis) {
+        List<byte[]> fields = new ArrayList<byte[]>(fieldList.size());
+        for (String field : fieldList) {
+          fields.add(KeyEncoder.toBytes(field));
+        }
+        List<byte[]> values = hash.getAll(jedis, fields);
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        for (int i = 0; i < fields.size(); i++) {
+          byte[] value = keyEncoder.unwrap(keyList.get(i), values.get(i));
+          Object object = redisConfig.getSerializer().unserialize(value);
+          if (object != null) {
+            result.put(keyList.get(i), object);
+          }
+          serializedList.add(object != null ? value : null);
+        }
+        return result;
+      }
+    });
+    if (values == null) {
+      // the node is skipped
+      return nearValues;
+    }
+    if (nearCache != null) {
+      for (int i = 0; i < keyList.size(); i++) {
+        if (serializedList.get(i) != null) {
+          nearCache.put(fieldList.get(i), serializedList.get(i), generation);
+        }
+      }
+    }
+    values.putAll(nearValues);
+    return values;
+  }
+
+  @Override
+  public void putObjects(final Map<?, ?> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    final List<String> fieldList = new ArrayList<String>(entries.size());
+    final List<byte[]> serializedList = new ArrayList<byte[]>(entries.size());
+    final List<byte[]> valueList = new ArrayList<byte[]>(entries.size());
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      byte[] serialized = redisConfig.getSerializer().serialize(entry.getValue());
+      fieldList.add(keyEncoder.encode(entry.getKey()));
+      serializedList.add(entry.getValue() != null ? serialized : null);
+      valueList.add(keyEncoder.wrap(entry.getKey(), serialized));
+    }
+    // before the write, so that the values are not kept if another node removes them meanwhile
+    long generation = nearCache != null ? nearCache.getGeneration() : 0;
+    if (writeBehindBuffer != null) {
+      for (int i = 0; i < fieldList.size(); i++) {
+        writeBehindBuffer.offer(fieldList.get(i), valueList.get(i));
+      }
+    } else {
+      execute(new RedisCallback() {
+        @Override
+        public Object doWithRedis(Jedis jedis) {
+          Map<byte[], byte[]> fields = new HashMap<byte[], byte[]>();
+          for (int i = 0; i < fieldList.size(); i++) {
+            fields.put(KeyEncoder.toBytes(fieldList.get(i)), valueList.get(i));
+          }
+          // one script for the whole commit instead of one call per result
+          hash.put(jedis, fields, timeout);
+          return null;
+        }
+      });
+    }
+    if (nearCache != null) {
+      for (int i = 0; i < fieldList.size(); i++) {
+        nearCache.put(fieldList.get(i), serializedList.get(i), generation);
+      }
+    }
+  }
+
+  @Override
+  public void removeObjects(Collection<?> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    final List<String> fields = new ArrayList<String>();
+    for (Object key : keys) {
+      fields.add(keyEncoder.encode(key));
+    }
+    executeDelete(fields, new RedisCallback() {
+      @Override
+      public Object doWithRedis(Jedis jedis) {
+        List<byte[]> fieldBytes = new ArrayList<byte[]>(fields.size());
+        for (String field : fields) {
+          fieldBytes.add(KeyEncoder.toBytes(field));
+        }
+        return hash.remove(jedis, fieldBytes);
+      }
+    });
+    invalidate(fields);
+  }
 
+  private void invalidate(List<String> fields) {
+    if (nearCache != null) {
+      nearCache.onRemoval(fields);
+    }
+    if (invalidationChannel != null) {
+      invalidationChannel.publishRemoval(id, fields);
+    }
   }
 
   @Override
@@ -140,4 +426,49 @@ public final class RedisCache implements Cache {
     this.timeout = timeout;
   }
 
+  /**
+   * @param verifyKeys true to store the key along with every value, so that values of keys whose digests collide
+   *          are never mixed up, at the cost of storing the key again
+   */
+  public void setVerifyKeys(boolean verifyKeys) {
+    this.keyEncoder = new KeyEncoder(verifyKeys);
+  }
+
+  /**
+   * @param nearCacheSize the number of entries kept in the near cache of this node, 0 (the default) for none
+   */
+  public void setNearCacheSize(int nearCacheSize) {
+    this.nearCacheSize = nearCacheSize;
+  }
+
+  /**
+   * @param writeBehindSize the number of writes buffered for a background thread, 0 (the default) to write on put
+   */
+  public void setWriteBehindSize(int writeBehindSize) {
+    this.writeBehindSize = writeBehindSize;
+  }
+
+  /**
+   * @return the number of writes waiting in the write-behind buffer
+   */
+  public int getWriteBehindDepth() {
+    return writeBehindBuffer == null ? 0 : writeBehindBuffer.getDepth();
+  }
+
+  /**
+   * @return the number of writes dropped because the write-behind buffer was full or Redis failed
+   */
+  public long getDroppedWrites() {
+    return writeBehindBuffer == null ? 0 : writeBehindBuffer.getDroppedWrites();
+  }
+
+  /**
+   * Writes the buffered writes now, e.g. on shutdown.
+   */
+  public void flush() {
+    if (writeBehindBuffer != null) {
+      writeBehindBuffer.flush();
+    }
+  }
+
 }
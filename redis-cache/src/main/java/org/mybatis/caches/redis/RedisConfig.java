@@ -36,6 +36,11 @@ public class RedisConfig extends JedisPoolConfig {
   private SSLParameters sslParameters;
   private HostnameVerifier hostnameVerifier;
   private Serializer serializer = JDKSerializer.INSTANCE;
+  private String invalidationChannel = "redis";
+  private int compressionThreshold;
+  private String kryoClasses;
+  private String nodes;
+  private int nodeRetryInterval;
 
   public boolean isSsl() {
     return ssl;
@@ -142,4 +147,66 @@ public class RedisConfig extends JedisPoolConfig {
     this.serializer = serializer;
   }
 
+  public String getInvalidationChannel() {
+    return invalidationChannel;
+  }
+
+  /**
+   * @param invalidationChannel {@code redis}, {@code local} or the name of an {@link InvalidationChannel} class
+   */
+  public void setInvalidationChannel(String invalidationChannel) {
+    this.invalidationChannel = invalidationChannel;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * @param compressionThreshold the size in bytes from which serialized values are compressed, 0 to never compress
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public String getKryoClasses() {
+    return kryoClasses;
+  }
+
+  /**
+   * @param kryoClasses comma separated names of the classes registered to the Kryo serializer
+   */
+  public void setKryoClasses(String kryoClasses) {
+    if ("".equals(kryoClasses)) {
+      kryoClasses = null;
+    }
+    this.kryoClasses = kryoClasses;
+  }
+
+  public String getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @param nodes comma separated {@code host[:port][/database]} of the nodes the namespaces are spread over, none
+   *          to only use {@code host} and {@code port}
+   */
+  public void setNodes(String nodes) {
+    if ("".equals(nodes)) {
+      nodes = null;
+    }
+    this.nodes = nodes;
+  }
+
+  public int getNodeRetryInterval() {
+    return nodeRetryInterval;
+  }
+
+  /**
+   * @param nodeRetryInterval the milliseconds a node is skipped after a connection failure, 0 to throw the failures
+   */
+  public void setNodeRetryInterval(int nodeRetryInterval) {
+    this.nodeRetryInterval = nodeRetryInterval;
+  }
+
 }
@@ -17,7 +17,9 @@ package org.mybatis.caches.redis;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -96,9 +98,35 @@ final class RedisConfigurationBuilder {
 
     RedisConfig jedisConfig = new RedisConfig();
     setConfigProperties(config, jedisConfig);
+    setSerializerOptions(jedisConfig);
     return jedisConfig;
   }
 
+  /**
+   * Applies the options of the serializer once every property is known, since properties come in no order.
+   */
+  private void setSerializerOptions(RedisConfig jedisConfig) {
+    if (jedisConfig.getSerializer() == KryoSerializer.INSTANCE) {
+      List<Class<?>> classes = new ArrayList<Class<?>>();
+      if (jedisConfig.getKryoClasses() != null) {
+        for (String name : jedisConfig.getKryoClasses().split(",")) {
+          if (name.trim().length() > 0) {
+            try {
+              classes.add(Resources.classForName(name.trim()));
+            } catch (ClassNotFoundException e) {
+              throw new CacheException("Could not find class to register to Kryo: '" + name.trim() + "'.", e);
+            }
+          }
+        }
+      }
+      KryoSerializer.INSTANCE.setRegisteredClasses(classes);
+    }
+    if (jedisConfig.getCompressionThreshold() > 0) {
+      jedisConfig.setSerializer(
+          new CompressingSerializer(jedisConfig.getSerializer(), jedisConfig.getCompressionThreshold()));
+    }
+  }
+
   private void setConfigProperties(Properties properties, RedisConfig jedisConfig) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(jedisConfig);
@@ -0,0 +1,176 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Publishes the invalidations on a Redis pub/sub channel named after the database, on the first node if the
+ * namespaces are spread over several nodes.
+ * <p>
+ * A message is the id of the cache followed by the removed fields, or by nothing for a clear, each one prefixed
+ * by its length since the fields are digests of cache keys and may contain any character.
+ * Messages are received by a daemon thread on a dedicated connection that is reopened when it fails; since
+ * messages published meanwhile are lost, every near cache is cleared when the subscription is (re)established.
+ */
+final class RedisInvalidationChannel implements InvalidationChannel {
+
+  private static final long RECONNECT_DELAY = 1000;
+
+  private final RedisConfig redisConfig;
+  private final RedisNode node;
+  private final String channel;
+  private final ConcurrentMap<String, List<Listener>> listeners = new ConcurrentHashMap<String, List<Listener>>();
+  private Thread subscriber;
+
+  RedisInvalidationChannel(RedisConfig redisConfig, RedisNode node) {
+    this.redisConfig = redisConfig;
+    this.node = node;
+    this.channel = "mybatis:redis-cache:invalidation:" + node.getDatabase();
+  }
+
+  @Override
+  public void subscribe(String cacheId, Listener listener) {
+    List<Listener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners == null) {
+      List<Listener> newListeners = new CopyOnWriteArrayList<Listener>();
+      cacheListeners = listeners.putIfAbsent(cacheId, newListeners);
+      if (cacheListeners == null) {
+        cacheListeners = newListeners;
+      }
+    }
+    cacheListeners.add(listener);
+    startSubscriber();
+  }
+
+  @Override
+  public void publishRemoval(String cacheId, Collection<String> fields) {
+    StringBuilder message = new StringBuilder();
+    append(message, cacheId);
+    for (String field : fields) {
+      append(message, field);
+    }
+    publish(message.toString());
+  }
+
+  @Override
+  public void publishClear(String cacheId) {
+    publish(append(new StringBuilder(), cacheId).toString());
+  }
+
+  private void publish(final String message) {
+    node.execute(null, false, new RedisCallback() {
+      @Override
+      public Object doWithRedis(Jedis jedis) {
+        jedis.publish(channel, message);
+        return null;
+      }
+    });
+  }
+
+  private synchronized void startSubscriber() {
+    if (subscriber != null) {
+      return;
+    }
+    subscriber = new Thread("mybatis-redis-invalidation") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            subscribe();
+          } catch (Exception e) {
+            // connection lost, the near caches are cleared on the next subscription
+          }
+          try {
+            Thread.sleep(RECONNECT_DELAY);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    subscriber.setDaemon(true);
+    subscriber.start();
+  }
+
+  private void subscribe() {
+    // no read timeout, the connection is idle until a message is published
+    Jedis jedis = new Jedis(node.getHost(), node.getPort(), redisConfig.getConnectionTimeout(), 0,
+        redisConfig.isSsl(), redisConfig.getSslSocketFactory(), redisConfig.getSslParameters(),
+        redisConfig.getHostnameVerifier());
+    try {
+      if (redisConfig.getPassword() != null) {
+        jedis.auth(redisConfig.getPassword());
+      }
+      if (redisConfig.getClientName() != null) {
+        jedis.clientSetname(redisConfig.getClientName());
+      }
+      jedis.subscribe(new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+          for (List<Listener> cacheListeners : listeners.values()) {
+            for (Listener listener : cacheListeners) {
+              listener.onClear();
+            }
+          }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+          dispatch(message);
+        }
+      }, channel);
+    } finally {
+      jedis.close();
+    }
+  }
+
+  private void dispatch(String message) {
+    List<String> parts = new ArrayList<String>();
+    int start = 0;
+    while (start < message.length()) {
+      int colon = message.indexOf(':', start);
+      int end = colon + 1 + Integer.parseInt(message.substring(start, colon));
+      parts.add(message.substring(colon + 1, end));
+      start = end;
+    }
+    List<Listener> cacheListeners = listeners.get(parts.get(0));
+    if (cacheListeners == null) {
+      return;
+    }
+    List<String> fields = parts.subList(1, parts.size());
+    for (Listener listener : cacheListeners) {
+      if (fields.isEmpty()) {
+        listener.onClear();
+      } else {
+        listener.onRemoval(fields);
+      }
+    }
+  }
+
+  private static StringBuilder append(StringBuilder message, String part) {
+    return message.append(part.length()).append(':').append(part);
+  }
+
+}
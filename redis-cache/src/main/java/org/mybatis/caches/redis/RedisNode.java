@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * A Redis server, or one database of it, with its own pool.
+ * <p>
+ * If {@code nodeRetryInterval} is set, a node whose connection fails is skipped until that many milliseconds
+ * have passed: reads miss and writes are dropped, which only costs a trip to the database. Since entries that
+ * should have been removed meanwhile are still in the node, the namespaces whose removals were skipped are
+ * cleared before the node is used again. Otherwise connection failures are thrown as before.
+ */
+final class RedisNode {
+
+  private static final Log log = LogFactory.getLog(RedisNode.class);
+
+  private final String host;
+  private final int port;
+  private final int database;
+  private final JedisPool pool;
+  private final long retryInterval;
+  private volatile long downUntil;
+  private final Set<String> skippedRemovals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  RedisNode(RedisConfig redisConfig, String host, int port, int database) {
+    this.host = host;
+    this.port = port;
+    this.database = database;
+    this.retryInterval = redisConfig.getNodeRetryInterval();
+    this.pool = new JedisPool(redisConfig, host, port, redisConfig.getConnectionTimeout(), redisConfig.getSoTimeout(),
+        redisConfig.getPassword(), database, redisConfig.getClientName(), redisConfig.isSsl(),
+        redisConfig.getSslSocketFactory(), redisConfig.getSslParameters(), redisConfig.getHostnameVerifier());
+  }
+
+  String getHost() {
+    return host;
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  int getDatabase() {
+    return database;
+  }
+
+  JedisPool getPool() {
+    return pool;
+  }
+
+  /**
+   * @return false while the node is skipped after a connection failure
+   */
+  boolean isAvailable() {
+    return downUntil == 0 || System.currentTimeMillis() >= downUntil;
+  }
+
+  /**
+   * Runs a callback on a connection of this node.
+   *
+   * @param namespace the namespace the callback works on
+   * @param removal true if the callback removes entries of the namespace
+   * @return the result of the callback, null if the node is skipped
+   */
+  Object execute(String namespace, boolean removal, RedisCallback callback) {
+    if (!isAvailable()) {
+      if (removal) {
+        skippedRemovals.add(namespace);
+      }
+      return null;
+    }
+    try {
+      Jedis jedis = pool.getResource();
+      try {
+        clearSkippedRemovals(jedis);
+        Object result = callback.doWithRedis(jedis);
+        downUntil = 0;
+        return result;
+      } finally {
+        jedis.close();
+      }
+    } catch (JedisConnectionException e) {
+      if (retryInterval <= 0) {
+        throw e;
+      }
+      if (removal) {
+        skippedRemovals.add(namespace);
+      }
+      if (isAvailable()) {
+        log.warn("Skipping Redis node " + this + " for " + retryInterval + " ms. Cause: " + e);
+      }
+      downUntil = System.currentTimeMillis() + retryInterval;
+      return null;
+    }
+  }
+
+  private void clearSkippedRemovals(Jedis jedis) {
+    if (skippedRemovals.isEmpty()) {
+      return;
+    }
+    List<String> namespaces = new ArrayList<String>(skippedRemovals);
+    for (String namespace : namespaces) {
+      new VersionedHash(namespace).clear(jedis);
+      skippedRemovals.remove(namespace);
+    }
+    log.warn("Cleared namespaces " + namespaces + " of Redis node " + this + " whose removals were skipped");
+  }
+
+  void close() {
+    pool.destroy();
+  }
+
+  @Override
+  public String toString() {
+    return host + ":" + port + "/" + database;
+  }
+
+}
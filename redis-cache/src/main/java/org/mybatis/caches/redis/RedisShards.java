@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * The nodes the namespaces are spread over, by consistent hashing.
+ * <p>
+ * Every node is placed at {@link #POINTS_PER_NODE} points of a ring, computed like ketama from the MD5 of its
+ * address, and a namespace goes to the first node after the hash of its name. Adding or removing a node only
+ * moves the namespaces of its points, and every client listing the same nodes agrees on where a namespace is
+ * whatever the order of the list. A whole namespace lives on one node so that it can still be cleared at once.
+ */
+final class RedisShards {
+
+  static final int POINTS_PER_NODE = 160;
+
+  private final List<RedisNode> nodes;
+  private final TreeMap<Long, RedisNode> ring = new TreeMap<Long, RedisNode>();
+
+  RedisShards(RedisConfig redisConfig) {
+    List<RedisNode> list = new ArrayList<RedisNode>();
+    if (redisConfig.getNodes() == null) {
+      list.add(new RedisNode(redisConfig, redisConfig.getHost(), redisConfig.getPort(), redisConfig.getDatabase()));
+    } else {
+      for (String address : redisConfig.getNodes().split(",")) {
+        if (address.trim().length() > 0) {
+          list.add(parseNode(redisConfig, address.trim()));
+        }
+      }
+    }
+    if (list.isEmpty()) {
+      throw new CacheException("No Redis node in '" + redisConfig.getNodes() + "'");
+    }
+    this.nodes = Collections.unmodifiableList(list);
+    for (RedisNode node : nodes) {
+      for (int i = 0; i < POINTS_PER_NODE / 4; i++) {
+        byte[] digest = md5(node.toString() + "-" + i);
+        for (int j = 0; j < 4; j++) {
+          ring.put(point(digest, j), node);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param address {@code host[:port][/database]}, the port and database of the configuration by default
+   */
+  private static RedisNode parseNode(RedisConfig redisConfig, String address) {
+    String host = address;
+    int port = redisConfig.getPort();
+    int database = redisConfig.getDatabase();
+    try {
+      int slash = host.indexOf('/');
+      if (slash >= 0) {
+        database = Integer.parseInt(host.substring(slash + 1));
+        host = host.substring(0, slash);
+      }
+      int colon = host.lastIndexOf(':');
+      if (colon >= 0) {
+        port = Integer.parseInt(host.substring(colon + 1));
+        host = host.substring(0, colon);
+      }
+    } catch (NumberFormatException e) {
+      throw new CacheException("Invalid Redis node '" + address + "', expected host[:port][/database]", e);
+    }
+    return new RedisNode(redisConfig, host, port, database);
+  }
+
+  List<RedisNode> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @return the node of the namespace
+   */
+  RedisNode getNode(String namespace) {
+    Map.Entry<Long, RedisNode> point = ring.ceilingEntry(point(md5(namespace), 0));
+    return point != null ? point.getValue() : ring.firstEntry().getValue();
+  }
+
+  void close() {
+    for (RedisNode node : nodes) {
+      node.close();
+    }
+  }
+
+  private static long point(byte[] digest, int index) {
+    return ((long) (digest[3 + index * 4] & 0xff) << 24) | ((long) (digest[2 + index * 4] & 0xff) << 16)
+        | ((long) (digest[1 + index * 4] & 0xff) << 8) | (digest[index * 4] & 0xff);
+  }
+
+  private static byte[] md5(String value) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * An output buffer kept by each thread and reused by the serializers, so that serializing a value does not
+ * allocate a new buffer and grow it from scratch. A buffer that grew beyond {@link #MAX_RETAINED_SIZE} to hold a
+ * large value is shrunk when released.
+ */
+final class ReusableBuffer extends ByteArrayOutputStream {
+
+  static final int INITIAL_SIZE = 256;
+
+  static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+  private static final ThreadLocal<ReusableBuffer> BUFFERS = new ThreadLocal<ReusableBuffer>() {
+    @Override
+    protected ReusableBuffer initialValue() {
+      return new ReusableBuffer();
+    }
+  };
+
+  private boolean inUse;
+
+  private ReusableBuffer() {
+    super(INITIAL_SIZE);
+  }
+
+  /**
+   * @return the buffer of the calling thread, or a new one if it is already in use
+   */
+  static ReusableBuffer acquire() {
+    ReusableBuffer buffer = BUFFERS.get();
+    if (buffer.inUse) {
+      return new ReusableBuffer();
+    }
+    buffer.inUse = true;
+    return buffer;
+  }
+
+  void release() {
+    reset();
+    if (buf.length > MAX_RETAINED_SIZE) {
+      buf = new byte[INITIAL_SIZE];
+    }
+    inUse = false;
+  }
+
+}
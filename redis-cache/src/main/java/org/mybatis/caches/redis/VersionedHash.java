@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * The key layout of a {@link RedisCache}: the entries live in a hash per generation, {@code {id}:<generation>},
+ * and the current generation is the counter {@code {id}:version}.
+ * <p>
+ * Clearing the cache only increments the counter and unlinks the previous hash, which Redis 4 and later free in
+ * the background; older versions let it expire instead. Every operation is a script that reads the counter and
+ * works on the current hash atomically, so it costs a single round trip and a write can never land in a cleared
+ * generation.
+ * <p>
+ * The scripts only declare the counter in {@code KEYS}: the current hash is named after its value, read inside the
+ * script. This layout is therefore meant for standalone servers, sharded by the client with {@link RedisShards};
+ * Redis Cluster and proxies route and check a script by its declared keys only. The {@code {id}} hash tag still
+ * keeps every key of a cache on the same server for the setups that hash keys by their tag.
+ */
+final class VersionedHash {
+
+  // the hash is not in KEYS, see the class comment
+  private static final String CURRENT_HASH = "local hash = ARGV[1] .. (redis.call('GET', KEYS[1]) or '0')\n";
+
+  private static final LuaScript GET = new LuaScript(CURRENT_HASH
+      + "return redis.call('HGET', hash, ARGV[2])");
+
+  private static final LuaScript GET_ALL = new LuaScript(CURRENT_HASH
+      + "local values = {}\n"
+      + "for i = 2, #ARGV do values[i - 1] = redis.call('HGET', hash, ARGV[i]) end\n"
+      + "return values");
+
+  private static final LuaScript PUT = new LuaScript(CURRENT_HASH
+      + "for i = 3, #ARGV, 2 do redis.call('HSET', hash, ARGV[i], ARGV[i + 1]) end\n"
+      // the timeout applies to the whole hash from its first write
+      + "local timeout = tonumber(ARGV[2])\n"
+      + "if timeout > 0 and redis.call('TTL', hash) == -1 then redis.call('EXPIRE', hash, timeout) end\n"
+      + "return 0");
+
+  private static final LuaScript REMOVE = new LuaScript(CURRENT_HASH
+      + "local removed = 0\n"
+      + "for i = 2, #ARGV do removed = removed + redis.call('HDEL', hash, ARGV[i]) end\n"
+      + "return removed");
+
+  private static final LuaScript CLEAR = new LuaScript(CURRENT_HASH
+      + "redis.call('INCR', KEYS[1])\n"
+      + "local unlinked = redis.pcall('UNLINK', hash)\n"
+      + "if type(unlinked) == 'table' and unlinked.err then redis.call('EXPIRE', hash, 1) end\n"
+      + "return 0");
+
+  private static final LuaScript SIZE = new LuaScript(CURRENT_HASH
+      + "return redis.call('HLEN', hash)");
+
+  private final byte[] versionKey;
+  private final byte[] hashPrefix;
+
+  VersionedHash(String id) {
+    this.versionKey = ("{" + id + "}:version").getBytes();
+    this.hashPrefix = ("{" + id + "}:").getBytes();
+  }
+
+  byte[] get(Jedis jedis, byte[] field) {
+    return (byte[]) GET.eval(jedis, 1, versionKey, hashPrefix, field);
+  }
+
+  /**
+   * @return the values of the fields in the same order, null for the missing ones
+   */
+  @SuppressWarnings("unchecked")
+  List<byte[]> getAll(Jedis jedis, List<byte[]> fields) {
+    List<byte[]> params = new ArrayList<byte[]>(fields.size() + 2);
+    params.add(versionKey);
+    params.add(hashPrefix);
+    params.addAll(fields);
+    return (List<byte[]>) GET_ALL.eval(jedis, 1, params.toArray(new byte[params.size()][]));
+  }
+
+  /**
+   * @param timeout the time to live of the hash in seconds from its first write, null for none
+   */
+  void put(Jedis jedis, Map<byte[], byte[]> entries, Integer timeout) {
+    List<byte[]> params = new ArrayList<byte[]>(entries.size() * 2 + 3);
+    params.add(versionKey);
+    params.add(hashPrefix);
+    params.add(String.valueOf(timeout == null ? 0 : timeout).getBytes());
+    for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+      params.add(entry.getKey());
+      params.add(entry.getValue());
+    }
+    PUT.eval(jedis, 1, params.toArray(new byte[params.size()][]));
+  }
+
+  Long remove(Jedis jedis, List<byte[]> fields) {
+    List<byte[]> params = new ArrayList<byte[]>(fields.size() + 2);
+    params.add(versionKey);
+    params.add(hashPrefix);
+    params.addAll(fields);
+    return (Long) REMOVE.eval(jedis, 1, params.toArray(new byte[params.size()][]));
+  }
+
+  void clear(Jedis jedis) {
+    CLEAR.eval(jedis, 1, versionKey, hashPrefix);
+  }
+
+  int size(Jedis jedis) {
+    return ((Long) SIZE.eval(jedis, 1, versionKey, hashPrefix)).intValue();
+  }
+
+}
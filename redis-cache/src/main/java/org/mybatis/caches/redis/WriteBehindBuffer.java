@@ -0,0 +1,200 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Bounded buffer of the serialized values a {@link RedisCache} has yet to write, drained by a daemon thread.
+ * <p>
+ * Values put again before they are written replace the pending ones, and are dropped (and counted) when the buffer
+ * is full, which only costs a cache miss. Everything that was pending while a batch was written is written by the
+ * next batch, so batches get bigger when Redis gets slower. Removals and clears hold the {@link #lock()} so that
+ * a batch written concurrently cannot bring back the entries they delete. The removals and clears of the other
+ * nodes are received as an {@link InvalidationChannel.Listener}; a pending value they discard may still have been
+ * written by a batch that was running when they were received.
+ */
+final class WriteBehindBuffer implements InvalidationChannel.Listener {
+
+  private static final Log log = LogFactory.getLog(WriteBehindBuffer.class);
+
+  interface Writer {
+
+    void write(Map<String, byte[]> batch);
+
+  }
+
+  private final int capacity;
+  private final Writer writer;
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final ReentrantLock pendingLock = new ReentrantLock();
+  private final Condition notEmpty = pendingLock.newCondition();
+  private final AtomicLong droppedWrites = new AtomicLong();
+  // guarded by pendingLock
+  private Map<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+
+  WriteBehindBuffer(String name, int capacity, Writer writer) {
+    this.capacity = capacity;
+    this.writer = writer;
+    Thread flusher = new Thread("mybatis-redis-writer-" + name) {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            awaitPending();
+          } catch (InterruptedException e) {
+            return;
+          }
+          flush();
+        }
+      }
+    };
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * @return false if the buffer is full and the value was dropped
+   */
+  boolean offer(String field, byte[] value) {
+    pendingLock.lock();
+    try {
+      if (pending.size() >= capacity && !pending.containsKey(field)) {
+        droppedWrites.incrementAndGet();
+        return false;
+      }
+      pending.put(field, value);
+      notEmpty.signal();
+      return true;
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+  /**
+   * @return the serialized value waiting to be written, or null if there is none
+   */
+  byte[] get(String field) {
+    pendingLock.lock();
+    try {
+      return pending.get(field);
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+  /**
+   * Writes the pending values now.
+   */
+  void flush() {
+    writeLock.lock();
+    try {
+      Map<String, byte[]> batch;
+      pendingLock.lock();
+      try {
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = pending;
+        pending = new LinkedHashMap<String, byte[]>();
+      } finally {
+        pendingLock.unlock();
+      }
+      try {
+        writer.write(batch);
+      } catch (Exception e) {
+        droppedWrites.addAndGet(batch.size());
+        log.warn("Dropped " + batch.size() + " writes to Redis. Cause: " + e);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Waits for the batch being written, and keeps new batches from being written until {@link #unlock()}.
+   */
+  void lock() {
+    writeLock.lock();
+  }
+
+  void unlock() {
+    writeLock.unlock();
+  }
+
+  void discard(Collection<String> fields) {
+    pendingLock.lock();
+    try {
+      for (String field : fields) {
+        pending.remove(field);
+      }
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+  void discardAll() {
+    pendingLock.lock();
+    try {
+      pending.clear();
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+  @Override
+  public void onRemoval(Collection<String> fields) {
+    discard(fields);
+  }
+
+  @Override
+  public void onClear() {
+    discardAll();
+  }
+
+  int getDepth() {
+    pendingLock.lock();
+    try {
+      return pending.size();
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+  long getDroppedWrites() {
+    return droppedWrites.get();
+  }
+
+  private void awaitPending() throws InterruptedException {
+    pendingLock.lock();
+    try {
+      while (pending.isEmpty()) {
+        notEmpty.await();
+      }
+    } finally {
+      pendingLock.unlock();
+    }
+  }
+
+}
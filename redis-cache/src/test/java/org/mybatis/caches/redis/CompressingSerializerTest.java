@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.ibatis.cache.CacheException;
+import org.junit.Test;
+
+public class CompressingSerializerTest {
+
+  private final Serializer serializer = new CompressingSerializer(JDKSerializer.INSTANCE, 512);
+
+  @Test
+  public void shouldNotCompressSmallValues() {
+    SimpleBeanStudentInfo student = new SimpleBeanStudentInfo();
+    byte[] bytes = serializer.serialize(student);
+    assertEquals(JDKSerializer.INSTANCE.serialize(student).length + 1, bytes.length);
+    assertEquals(student, serializer.unserialize(bytes));
+  }
+
+  @Test
+  public void shouldCompressLargeValues() {
+    List<SimpleBeanStudentInfo> students = new ArrayList<SimpleBeanStudentInfo>();
+    for (int i = 0; i < 1000; i++) {
+      SimpleBeanStudentInfo student = new SimpleBeanStudentInfo();
+      student.setAge(i);
+      students.add(student);
+    }
+    byte[] bytes = serializer.serialize(students);
+    assertTrue(bytes.length < JDKSerializer.INSTANCE.serialize(students).length / 2);
+    assertEquals(students, serializer.unserialize(bytes));
+  }
+
+  @Test
+  public void shouldStoreIncompressibleValuesAsIs() {
+    byte[] random = new byte[4096];
+    new Random(0).nextBytes(random);
+    byte[] bytes = serializer.serialize(random);
+    assertEquals(JDKSerializer.INSTANCE.serialize(random).length + 1, bytes.length);
+    assertEquals(random.length, ((byte[]) serializer.unserialize(bytes)).length);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectValuesWithoutHeader() {
+    serializer.unserialize(new byte[] { 42, 1, 2, 3, 4, 5 });
+  }
+
+}
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.junit.Test;
+
+public final class KeyEncoderTest {
+
+  private final KeyEncoder encoder = new KeyEncoder(false);
+
+  @Test
+  public void shouldEncodeEqualKeysToTheSameField() {
+    String field = encoder.encode(key("select * from t where id = ?", 1, new Date(0)));
+    assertEquals(KeyEncoder.FIELD_LENGTH, field.length());
+    assertEquals(field, encoder.encode(key("select * from t where id = ?", 1, new Date(0))));
+    assertEquals(KeyEncoder.FIELD_LENGTH, KeyEncoder.toBytes(field).length);
+  }
+
+  @Test
+  public void shouldEncodeDifferentKeysToDifferentFields() {
+    String field = encoder.encode(key("select * from t where id = ?", 1));
+    assertFalse(field.equals(encoder.encode(key("select * from t where id = ?", 2))));
+    assertFalse(field.equals(encoder.encode(key("select * from t where id = ?", 1L))));
+    assertFalse(field.equals(encoder.encode(key("select * from t where id = ?", "1"))));
+    // "Aa" and "BB" share the same hash code
+    assertFalse(encoder.encode(key("Aa")).equals(encoder.encode(key("BB"))));
+  }
+
+  @Test
+  public void shouldEncodeCompactKeysFromTheirFingerprint() {
+    CacheKey key1 = new CacheKey(2, 1);
+    key1.updateAll(new Object[] { "select * from t where id = ?", 1 });
+    CacheKey key2 = new CacheKey(2, 1);
+    key2.updateAll(new Object[] { "select * from t where id = ?", 2 });
+    assertFalse(encoder.encode(key1).equals(encoder.encode(key2)));
+  }
+
+  @Test
+  public void shouldOnlyReturnValuesStoredForTheSameKey() {
+    KeyEncoder verifier = new KeyEncoder(true);
+    byte[] value = new byte[] { 1, 2, 3 };
+    assertArrayEquals(value, verifier.unwrap("a", verifier.wrap("a", value)));
+    assertNull(verifier.unwrap("b", verifier.wrap("a", value)));
+    assertNull(verifier.unwrap("a", null));
+    assertArrayEquals(value, encoder.wrap("a", value));
+    assertFalse(verifier.encode("a").equals(encoder.encode("a")));
+  }
+
+  private static CacheKey key(Object... components) {
+    return new CacheKey(components);
+  }
+
+}
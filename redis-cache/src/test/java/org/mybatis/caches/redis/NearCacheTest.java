@@ -0,0 +1,84 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public final class NearCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntries() {
+    NearCache cache = new NearCache(2, 0);
+    cache.put("a", value(1), cache.getGeneration());
+    cache.put("b", value(2), cache.getGeneration());
+    cache.get("a");
+    cache.put("c", value(3), cache.getGeneration());
+    assertEquals(2, cache.getSize());
+    assertArrayEquals(value(1), cache.get("a"));
+    assertNull(cache.get("b"));
+  }
+
+  @Test
+  public void shouldNotKeepValuesReadBeforeAnInvalidation() {
+    NearCache cache = new NearCache(10, 0);
+    long generation = cache.getGeneration();
+    cache.onRemoval(Collections.singletonList("other"));
+    cache.put("a", value(1), generation);
+    assertNull(cache.get("a"));
+    cache.put("a", value(1), cache.getGeneration());
+    assertArrayEquals(value(1), cache.get("a"));
+  }
+
+  @Test
+  public void shouldExpireEntries() throws Exception {
+    NearCache cache = new NearCache(10, 50);
+    cache.put("a", value(1), cache.getGeneration());
+    assertArrayEquals(value(1), cache.get("a"));
+    Thread.sleep(100);
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void shouldInvalidateEveryNodeThroughTheChannel() {
+    InvalidationChannel channel = new LocalInvalidationChannel();
+    NearCache node1 = new NearCache(10, 0);
+    NearCache node2 = new NearCache(10, 0);
+    channel.subscribe("users", node1);
+    channel.subscribe("users", node2);
+    channel.subscribe("orders", new NearCache(10, 0));
+    node1.put("a", value(1), node1.getGeneration());
+    node1.put("b", value(2), node1.getGeneration());
+    node2.put("a", value(1), node2.getGeneration());
+    channel.publishRemoval("users", Arrays.asList("a"));
+    assertNull(node1.get("a"));
+    assertNull(node2.get("a"));
+    assertArrayEquals(value(2), node1.get("b"));
+    channel.publishClear("users");
+    assertNull(node1.get("b"));
+  }
+
+  private static byte[] value(int value) {
+    return new byte[] { (byte) value };
+  }
+
+}
@@ -17,6 +17,10 @@ package org.mybatis.caches.redis;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.junit.After;
 import org.junit.Test;
 import org.mybatis.caches.redis.sslconfig.TestHostnameVerifier;
@@ -49,6 +53,21 @@ public class RedisConfigurationBuilderTest {
     assertEquals(TestHostnameVerifier.class, redisConfig.getHostnameVerifier().getClass());
   }
 
+  @Test
+  public void test2() throws Exception {
+    System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME, "test2.properties");
+    try {
+      RedisConfig redisConfig = RedisConfigurationBuilder.getInstance()
+          .parseConfiguration(this.getClass().getClassLoader());
+      assertEquals(CompressingSerializer.class, redisConfig.getSerializer().getClass());
+      assertEquals(512, redisConfig.getCompressionThreshold());
+      assertEquals(Arrays.<Class<?>>asList(ArrayList.class, SimpleBeanStudentInfo.class),
+          KryoSerializer.INSTANCE.getRegisteredClasses());
+    } finally {
+      KryoSerializer.INSTANCE.setRegisteredClasses(Collections.<Class<?>>emptyList());
+    }
+  }
+
   @After
   public void after() {
     System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME,
@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheException;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class RedisShardsTest {
+
+  @Test
+  public void shouldParseNodes() {
+    RedisConfig redisConfig = new RedisConfig();
+    redisConfig.setPort(6000);
+    redisConfig.setDatabase(3);
+    redisConfig.setNodes("a:1/2, b ,c:7");
+    List<RedisNode> nodes = new RedisShards(redisConfig).getNodes();
+    assertEquals(3, nodes.size());
+    assertEquals("a:1/2", nodes.get(0).toString());
+    assertEquals("b:6000/3", nodes.get(1).toString());
+    assertEquals("c:7/3", nodes.get(2).toString());
+  }
+
+  @Test
+  public void shouldUseHostAndPortWithoutNodes() {
+    RedisConfig redisConfig = new RedisConfig();
+    redisConfig.setHost("a");
+    redisConfig.setPort(1);
+    List<RedisNode> nodes = new RedisShards(redisConfig).getNodes();
+    assertEquals(1, nodes.size());
+    assertEquals("a:1/0", nodes.get(0).toString());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectInvalidNodes() {
+    RedisConfig redisConfig = new RedisConfig();
+    redisConfig.setNodes("a:b");
+    new RedisShards(redisConfig);
+  }
+
+  @Test
+  public void shouldSpreadNamespacesWhateverTheOrderOfNodes() {
+    RedisShards shards = shards("a:1,b:1,c:1,d:1");
+    RedisShards reordered = shards("d:1,c:1,b:1,a:1");
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < 4000; i++) {
+      String namespace = "org.acme.Mapper" + i;
+      String node = shards.getNode(namespace).toString();
+      assertEquals(node, reordered.getNode(namespace).toString());
+      counts.put(node, counts.containsKey(node) ? counts.get(node) + 1 : 1);
+    }
+    assertEquals(4, counts.size());
+    for (int count : counts.values()) {
+      assertTrue("unbalanced: " + counts, count > 600 && count < 1400);
+    }
+  }
+
+  @Test
+  public void shouldOnlyMoveNamespacesToAnAddedNode() {
+    RedisShards shards = shards("a:1,b:1,c:1");
+    RedisShards grown = shards("a:1,b:1,c:1,d:1");
+    int moved = 0;
+    for (int i = 0; i < 3000; i++) {
+      String namespace = "org.acme.Mapper" + i;
+      String before = shards.getNode(namespace).toString();
+      String after = grown.getNode(namespace).toString();
+      if (!before.equals(after)) {
+        assertEquals("d:1/0", after);
+        moved++;
+      }
+    }
+    assertTrue("moved " + moved, moved > 400 && moved < 1200);
+  }
+
+  @Test
+  public void shouldSkipNodeAfterConnectionFailure() {
+    RedisConfig redisConfig = new RedisConfig();
+    redisConfig.setNodeRetryInterval(60000);
+    RedisNode node = new RedisNode(redisConfig, "localhost", 1, 0);
+    final int[] calls = new int[1];
+    RedisCallback failing = new RedisCallback() {
+      @Override
+      public Object doWithRedis(Jedis jedis) {
+        calls[0]++;
+        throw new JedisConnectionException("down");
+      }
+    };
+    assertNull(node.execute("ns", false, failing));
+    assertFalse(node.isAvailable());
+    assertNull(node.execute("ns", true, failing));
+    assertTrue(calls[0] <= 1);
+  }
+
+  @Test(expected = JedisConnectionException.class)
+  public void shouldThrowConnectionFailuresWithoutRetryInterval() {
+    RedisNode node = new RedisNode(new RedisConfig(), "localhost", 1, 0);
+    node.execute("ns", false, new RedisCallback() {
+      @Override
+      public Object doWithRedis(Jedis jedis) {
+        throw new JedisConnectionException("down");
+      }
+    });
+  }
+
+  @Test
+  public void shouldReturnTheSameNodeForANamespace() {
+    RedisShards shards = shards("a:1,b:1");
+    assertSame(shards.getNode("org.acme.FooMapper"), shards.getNode("org.acme.FooMapper"));
+  }
+
+  private static RedisShards shards(String nodes) {
+    RedisConfig redisConfig = new RedisConfig();
+    redisConfig.setNodes(nodes);
+    return new RedisShards(redisConfig);
+  }
+
+}
@@ -18,10 +18,18 @@ package org.mybatis.caches.redis;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import redis.clients.jedis.Jedis;
+
 /**
  * Test with Ubuntu
  * sudo apt-get install redis-server
@@ -66,6 +74,122 @@ public final class RedisTestCase {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  public void shouldPutGetAndRemoveInBulk() {
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(i, i);
+    }
+    cache.putObjects(entries);
+    Map<Object, Object> values = cache.getObjects(Arrays.asList(0, 50, 99, 1000));
+    assertEquals(3, values.size());
+    assertEquals(50, values.get(50));
+    cache.removeObjects(Arrays.asList(0, 50));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(50));
+    assertEquals(99, cache.getObject(99));
+  }
+
+  @Test
+  public void shouldStartAnEmptyGenerationOnClear() {
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject(0));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldPutAndGetWithVerifiedKeys() {
+    RedisCache verifiedCache = new RedisCache("VERIFIED");
+    verifiedCache.setVerifyKeys(true);
+    verifiedCache.initialize();
+    verifiedCache.putObject(0, 0);
+    verifiedCache.putObjects(Collections.singletonMap(1, 1));
+    assertEquals(0, verifiedCache.getObject(0));
+    assertEquals(1, verifiedCache.getObjects(Arrays.asList(0, 1)).get(1));
+    verifiedCache.clear();
+  }
+
+  @Test
+  public void shouldSpreadNamespacesOverNodes() {
+    // two databases of the local server stand in for two servers
+    RedisConfig redisConfig = RedisConfigurationBuilder.getInstance().parseConfiguration();
+    redisConfig.setNodes("localhost:" + redisConfig.getPort() + "/1,localhost:" + redisConfig.getPort() + "/2");
+    RedisShards shards = new RedisShards(redisConfig);
+    try {
+      for (int i = 0; i < 10; i++) {
+        final VersionedHash namespace = new VersionedHash("SHARDED" + i);
+        shards.getNode("SHARDED" + i).execute("SHARDED" + i, false, new RedisCallback() {
+          @Override
+          public Object doWithRedis(Jedis jedis) {
+            namespace.put(jedis, Collections.singletonMap("field".getBytes(), "value".getBytes()), null);
+            return null;
+          }
+        });
+      }
+      int total = 0;
+      for (RedisNode node : shards.getNodes()) {
+        Jedis jedis = node.getPool().getResource();
+        try {
+          int size = jedis.keys("{SHARDED*}:0").size();
+          assertTrue(size > 0);
+          total += size;
+          for (String key : jedis.keys("{SHARDED*}*")) {
+            jedis.del(key);
+          }
+        } finally {
+          jedis.close();
+        }
+      }
+      assertEquals(10, total);
+    } finally {
+      shards.close();
+    }
+  }
+
+  @Test
+  public void shouldInvalidateNearCachesOfOtherNodes() throws Exception {
+    RedisCache node1 = new RedisCache("NEAR");
+    node1.setNearCacheSize(100);
+    node1.initialize();
+    RedisCache node2 = new RedisCache("NEAR");
+    node2.setNearCacheSize(100);
+    node2.initialize();
+    node1.putObject(0, 0);
+    assertEquals(0, node2.getObject(0));
+    node1.removeObject(0);
+    for (int i = 0; i < 50 && node2.getObject(0) != null; i++) {
+      // invalidations are delivered asynchronously
+      Thread.sleep(20);
+    }
+    assertNull(node2.getObject(0));
+    node1.clear();
+  }
+
+  @Test
+  public void shouldWriteBehind() {
+    RedisCache writeBehindCache = new RedisCache("WRITE_BEHIND");
+    writeBehindCache.setWriteBehindSize(100);
+    writeBehindCache.initialize();
+    for (int i = 0; i < 10; i++) {
+      writeBehindCache.putObject(i, i);
+      assertEquals(i, writeBehindCache.getObject(i));
+    }
+    writeBehindCache.flush();
+    assertEquals(0, writeBehindCache.getWriteBehindDepth());
+    assertEquals(0, writeBehindCache.getDroppedWrites());
+    assertEquals(10, writeBehindCache.getSize());
+    writeBehindCache.putObject(10, 10);
+    writeBehindCache.clear();
+    writeBehindCache.flush();
+    assertNull(writeBehindCache.getObject(10));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void shouldNotCreateCache() {
     cache = new RedisCache(null);
@@ -0,0 +1,76 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the size and the throughput of the serializers, with and without compression, on a list of results
+ * like the ones a select caches.
+ * <p>
+ * This is not a unit test, run it with {@code main} and optionally the number of results and iterations.
+ */
+public final class SerializerBenchmark {
+
+  private SerializerBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    int results = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    List<SimpleBeanStudentInfo> value = new ArrayList<SimpleBeanStudentInfo>();
+    for (int i = 0; i < results; i++) {
+      SimpleBeanStudentInfo student = new SimpleBeanStudentInfo();
+      student.setName("Student " + i);
+      student.setAge(18 + i % 10);
+      student.setGrade(i % 12);
+      value.add(student);
+    }
+
+    KryoSerializer.INSTANCE.setRegisteredClasses(Arrays.<Class<?>>asList(ArrayList.class,
+        SimpleBeanStudentInfo.class));
+    Serializer[] serializers = { JDKSerializer.INSTANCE, KryoSerializer.INSTANCE,
+        new CompressingSerializer(JDKSerializer.INSTANCE, 512), new CompressingSerializer(KryoSerializer.INSTANCE, 512) };
+    String[] names = { "jdk", "kryo", "jdk+deflate", "kryo+deflate" };
+
+    System.out.println(results + " results, " + iterations + " iterations");
+    System.out.println(String.format("%-14s %10s %14s %14s", "serializer", "bytes", "serialize/s", "unserialize/s"));
+    for (int s = 0; s < serializers.length; s++) {
+      Serializer serializer = serializers[s];
+      byte[] bytes = serializer.serialize(value);
+      // warm up
+      for (int i = 0; i < iterations / 10; i++) {
+        serializer.unserialize(serializer.serialize(value));
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        serializer.serialize(value);
+      }
+      long serializeNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        serializer.unserialize(bytes);
+      }
+      long unserializeNanos = System.nanoTime() - start;
+      System.out.println(String.format("%-14s %10d %14.0f %14.0f", names[s], bytes.length,
+          iterations * 1e9 / serializeNanos, iterations * 1e9 / unserializeNanos));
+    }
+  }
+
+}
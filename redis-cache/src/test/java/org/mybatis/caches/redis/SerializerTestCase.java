@@ -142,6 +142,18 @@ public class SerializerTestCase {
 
   }
 
+  @Test
+  public void testJDKSerializeLargeValueThenSmallValue() {
+    byte[] large = new byte[2 * ReusableBuffer.MAX_RETAINED_SIZE];
+    large[large.length - 1] = 1;
+    byte[] unserializedLarge = (byte[]) jdkSerializer.unserialize(jdkSerializer.serialize(large));
+    assertEquals(large.length, unserializedLarge.length);
+    assertEquals(1, unserializedLarge[large.length - 1]);
+
+    SimpleBeanStudentInfo rawSimpleBean = new SimpleBeanStudentInfo();
+    assertEquals(rawSimpleBean, jdkSerializer.unserialize(jdkSerializer.serialize(rawSimpleBean)));
+  }
+
   @Test
   public void testSerializeCofig() {
     RedisConfig redisConfig = RedisConfigurationBuilder.getInstance().parseConfiguration();
@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public final class WriteBehindBufferTest {
+
+  @Test
+  public void shouldWritePendingValuesInTheBackground() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    WriteBehindBuffer buffer = new WriteBehindBuffer("test", 10, writer);
+    buffer.offer("a", new byte[] { 1 });
+    buffer.offer("b", new byte[] { 2 });
+    for (int i = 0; i < 100 && writer.written.size() < 2; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, writer.written.size());
+    assertEquals(0, buffer.getDepth());
+    assertNull(buffer.get("a"));
+  }
+
+  @Test
+  public void shouldDropWritesWhenFull() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    WriteBehindBuffer buffer = new WriteBehindBuffer("test", 2, writer);
+    // hold the flusher so that the buffer fills up
+    buffer.lock();
+    try {
+      assertTrue(buffer.offer("a", new byte[] { 1 }));
+      assertTrue(buffer.offer("b", new byte[] { 2 }));
+      assertFalse(buffer.offer("c", new byte[] { 3 }));
+      assertTrue(buffer.offer("a", new byte[] { 4 }));
+      assertEquals(2, buffer.getDepth());
+      assertEquals(1, buffer.getDroppedWrites());
+      assertEquals(4, buffer.get("a")[0]);
+    } finally {
+      buffer.unlock();
+    }
+    buffer.flush();
+    assertEquals(4, writer.written.get("a")[0]);
+    assertFalse(writer.written.containsKey("c"));
+  }
+
+  @Test
+  public void shouldNotWriteDiscardedValues() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    WriteBehindBuffer buffer = new WriteBehindBuffer("test", 10, writer);
+    buffer.lock();
+    try {
+      buffer.offer("a", new byte[] { 1 });
+      buffer.offer("b", new byte[] { 2 });
+      buffer.discard(Arrays.asList("a"));
+    } finally {
+      buffer.unlock();
+    }
+    buffer.flush();
+    assertFalse(writer.written.containsKey("a"));
+    assertTrue(writer.written.containsKey("b"));
+  }
+
+  @Test
+  public void shouldNotWriteValuesRemovedByOtherNodes() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    WriteBehindBuffer buffer = new WriteBehindBuffer("test", 10, writer);
+    InvalidationChannel channel = new LocalInvalidationChannel();
+    channel.subscribe("test", buffer);
+    buffer.lock();
+    try {
+      buffer.offer("a", new byte[] { 1 });
+      buffer.offer("b", new byte[] { 2 });
+      channel.publishRemoval("test", Arrays.asList("a"));
+    } finally {
+      buffer.unlock();
+    }
+    buffer.flush();
+    assertFalse(writer.written.containsKey("a"));
+    assertTrue(writer.written.containsKey("b"));
+    buffer.lock();
+    try {
+      buffer.offer("c", new byte[] { 3 });
+      channel.publishClear("test");
+    } finally {
+      buffer.unlock();
+    }
+    buffer.flush();
+    assertFalse(writer.written.containsKey("c"));
+  }
+
+  @Test
+  public void shouldCountFailedWritesAsDropped() throws Exception {
+    final CountDownLatch failed = new CountDownLatch(1);
+    WriteBehindBuffer buffer = new WriteBehindBuffer("test", 10, new WriteBehindBuffer.Writer() {
+      @Override
+      public void write(Map<String, byte[]> batch) {
+        failed.countDown();
+        throw new IllegalStateException("Redis is down");
+      }
+    });
+    buffer.offer("a", new byte[] { 1 });
+    assertTrue(failed.await(1, TimeUnit.SECONDS));
+    for (int i = 0; i < 100 && buffer.getDroppedWrites() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, buffer.getDroppedWrites());
+  }
+
+  private static class RecordingWriter implements WriteBehindBuffer.Writer {
+    private final Map<String, byte[]> written = new ConcurrentHashMap<String, byte[]>();
+
+    @Override
+    public void write(Map<String, byte[]> batch) {
+      written.putAll(batch);
+    }
+  }
+
+}